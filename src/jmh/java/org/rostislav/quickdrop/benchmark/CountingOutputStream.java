@@ -0,0 +1,20 @@
+package org.rostislav.quickdrop.benchmark;
+
+import java.io.OutputStream;
+
+/**
+ * Sink that only counts bytes, so benchmarks measure the producer and not the destination.
+ */
+final class CountingOutputStream extends OutputStream {
+    long count;
+
+    @Override
+    public void write(int b) {
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        count += len;
+    }
+}
@@ -0,0 +1,88 @@
+package org.rostislav.quickdrop.benchmark;
+
+import org.rostislav.quickdrop.util.SegmentedCipherOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the old single CBC stream against the segmented GCM pipeline at increasing pool sizes. The pool size is a
+ * parameter of {@link PoolState} only, so the CBC baseline runs once rather than once per pool size.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 3)
+@Measurement(iterations = 3, time = 3)
+public class EncryptionPipelineBenchmark {
+    private static final int PAYLOAD_SIZE = 64 * 1024 * 1024;
+    private static final int WRITE_SIZE = 16 * 1024;
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+
+    private byte[] payload;
+    private SecretKey key;
+    private byte[] iv;
+
+    @Setup
+    public void setUp() {
+        payload = new byte[PAYLOAD_SIZE];
+        ThreadLocalRandom.current().nextBytes(payload);
+        byte[] keyBytes = new byte[16];
+        ThreadLocalRandom.current().nextBytes(keyBytes);
+        key = new SecretKeySpec(keyBytes, "AES");
+        iv = new byte[16];
+    }
+
+    @Benchmark
+    public long singleThreadedCbc() throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+        CountingOutputStream sink = new CountingOutputStream();
+        try (OutputStream out = new CipherOutputStream(sink, cipher)) {
+            writePayload(out);
+        }
+        return sink.count;
+    }
+
+    @Benchmark
+    public long segmentedGcm(PoolState state) throws Exception {
+        CountingOutputStream sink = new CountingOutputStream();
+        try (OutputStream out = new SegmentedCipherOutputStream(sink, key, new byte[8], SEGMENT_SIZE, state.pool)) {
+            writePayload(out);
+        }
+        return sink.count;
+    }
+
+    private void writePayload(OutputStream out) throws Exception {
+        for (int offset = 0; offset < PAYLOAD_SIZE; offset += WRITE_SIZE) {
+            out.write(payload, offset, WRITE_SIZE);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class PoolState {
+        @Param({"1", "2", "4", "8", "16"})
+        public int parallelism;
+
+        private ForkJoinPool pool;
+
+        @Setup
+        public void setUp() {
+            pool = new ForkJoinPool(parallelism);
+        }
+
+        @TearDown
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+}
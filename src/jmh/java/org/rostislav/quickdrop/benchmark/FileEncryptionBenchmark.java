@@ -0,0 +1,76 @@
+package org.rostislav.quickdrop.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.rostislav.quickdrop.service.FileEncryptionService;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end encrypt and decrypt of a stored file through {@link FileEncryptionService}, including disk I/O.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 3)
+@Measurement(iterations = 3, time = 3)
+public class FileEncryptionBenchmark {
+    private static final int PAYLOAD_SIZE = 32 * 1024 * 1024;
+    private static final int WRITE_SIZE = 8192;
+
+    private final FileEncryptionService fileEncryptionService = new FileEncryptionService();
+    private byte[] payload;
+    private SecretKey dataKey;
+    private Path encryptTarget;
+    private Path encryptedFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        payload = new byte[PAYLOAD_SIZE];
+        ThreadLocalRandom.current().nextBytes(payload);
+        dataKey = fileEncryptionService.generateDataKey();
+        encryptTarget = Files.createTempFile("quickdrop-encrypt", ".bin");
+
+        encryptedFile = Files.createTempFile("quickdrop-decrypt", ".bin");
+        Files.delete(encryptedFile);
+        writeEncrypted(encryptedFile);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(encryptTarget);
+        Files.deleteIfExists(encryptedFile);
+    }
+
+    @Benchmark
+    public long encrypt() throws IOException {
+        // The output stream appends, so start every invocation from an empty file
+        Files.deleteIfExists(encryptTarget);
+        writeEncrypted(encryptTarget);
+        return Files.size(encryptTarget);
+    }
+
+    @Benchmark
+    public long decrypt() throws IOException {
+        CountingOutputStream sink = new CountingOutputStream();
+        try (InputStream in = fileEncryptionService.getDecryptedInputStream(encryptedFile.toFile(), dataKey)) {
+            in.transferTo(sink);
+        }
+        return sink.count;
+    }
+
+    private void writeEncrypted(Path target) throws IOException {
+        try (OutputStream out = fileEncryptionService.getEncryptedOutputStream(target.toFile(), dataKey)) {
+            for (int offset = 0; offset < PAYLOAD_SIZE; offset += WRITE_SIZE) {
+                out.write(payload, offset, WRITE_SIZE);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.rostislav.quickdrop.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.rostislav.quickdrop.util.FileUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Download paths that copy a stored file into the response at different buffer sizes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 3, time = 3)
+public class FileStreamingBenchmark {
+    private static final int FILE_SIZE = 32 * 1024 * 1024;
+
+    @Param({"4096", "8192", "65536", "262144"})
+    public int bufferSize;
+
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] content = new byte[FILE_SIZE];
+        ThreadLocalRandom.current().nextBytes(content);
+        file = Files.createTempFile("quickdrop-stream", ".bin");
+        Files.write(file, content);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long streamingResponseBody() throws IOException {
+        CountingOutputStream sink = new CountingOutputStream();
+        try (InputStream in = Files.newInputStream(file)) {
+            FileUtils.getStreamingResponseBody(in, bufferSize).writeTo(sink);
+        }
+        return sink.count;
+    }
+
+    @Benchmark
+    public long streamFile() throws IOException {
+        CountingOutputStream sink = new CountingOutputStream();
+        FileUtils.streamFile(file, null, "benchmark", sink, bufferSize);
+        return sink.count;
+    }
+}
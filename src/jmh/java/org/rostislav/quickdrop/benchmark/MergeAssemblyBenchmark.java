@@ -0,0 +1,101 @@
+package org.rostislav.quickdrop.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.model.FileUploadRequest;
+import org.rostislav.quickdrop.repository.FileRepository;
+import org.rostislav.quickdrop.service.ApplicationSettingsService;
+import org.rostislav.quickdrop.service.AsyncFileMergeService;
+import org.rostislav.quickdrop.service.FileEncryptionService;
+import org.rostislav.quickdrop.service.FileService;
+import org.rostislav.quickdrop.service.ThumbnailService;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Full chunked upload through {@link AsyncFileMergeService}: chunks are spooled to the temp directory and
+ * the merge task assembles them into the storage directory. Persistence is mocked out.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 3)
+@Measurement(iterations = 3, time = 3)
+public class MergeAssemblyBenchmark {
+    // Matches the chunk size used by the upload client
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    @Param({"8", "32"})
+    public int totalChunks;
+
+    @Param({"false", "true"})
+    public boolean encrypted;
+
+    private final AtomicLong uploadCounter = new AtomicLong();
+    private AsyncFileMergeService mergeService;
+    private Path storageDir;
+    private byte[] chunk;
+
+    @Setup
+    public void setUp() throws Exception {
+        storageDir = Files.createTempDirectory("quickdrop-merge");
+        chunk = new byte[CHUNK_SIZE];
+        ThreadLocalRandom.current().nextBytes(chunk);
+
+        ApplicationSettingsService applicationSettingsService = mock(ApplicationSettingsService.class);
+        when(applicationSettingsService.getFileStoragePath()).thenReturn(storageDir.toString());
+
+        FileRepository fileRepository = mock(FileRepository.class);
+        when(fileRepository.findByUUID(anyString())).thenReturn(Optional.empty());
+
+        FileService fileService = mock(FileService.class);
+        when(fileService.shouldEncrypt(any())).thenReturn(encrypted);
+        when(fileService.saveFile(any(), any(), anyString(), any())).thenAnswer(invocation -> {
+            FileEntity entity = new FileEntity();
+            entity.uuid = invocation.getArgument(2);
+            return entity;
+        });
+
+        mergeService = new AsyncFileMergeService(applicationSettingsService, new FileEncryptionService(), fileService, fileRepository,
+                mock(ThumbnailService.class));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(storageDir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public String uploadAndMerge() throws IOException {
+        FileUploadRequest request = new FileUploadRequest();
+        request.fileName = "benchmark-" + uploadCounter.incrementAndGet() + ".bin";
+        request.totalChunks = totalChunks;
+        request.fileSize = (long) totalChunks * CHUNK_SIZE;
+
+        FileEntity merged = null;
+        for (int i = 0; i < totalChunks; i++) {
+            merged = mergeService.submitChunk(request, new MockMultipartFile("file", chunk), i);
+        }
+
+        Files.delete(storageDir.resolve(merged.uuid));
+        return merged.uuid;
+    }
+}
@@ -0,0 +1,81 @@
+package org.rostislav.quickdrop.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.model.PreviewCategory;
+import org.rostislav.quickdrop.util.FileUtils;
+
+import java.time.LocalDate;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request helpers: share token generation and the preview checks behind every file view.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class TokenAndPreviewBenchmark {
+    private static final String[] FILE_NAMES = {
+            "report.pdf", "holiday photo.JPEG", "notes.md", "data.csv", "events.jsonl",
+            "diagram.svg", "archive.tar.gz", "Main.java", "movie.mp4", "no-extension"
+    };
+
+    private FileEntity fileEntity;
+    private FileEntity[] previewEntities;
+    private byte[] digest;
+
+    @Setup
+    public void setUp() {
+        fileEntity = new FileEntity();
+        fileEntity.uuid = UUID.randomUUID().toString();
+        fileEntity.size = 123_456_789L;
+        fileEntity.uploadDate = LocalDate.now();
+
+        previewEntities = new FileEntity[FILE_NAMES.length];
+        for (int i = 0; i < FILE_NAMES.length; i++) {
+            previewEntities[i] = new FileEntity();
+            previewEntities[i].name = FILE_NAMES[i];
+            // Stored the way the merge pipeline stores it, so the lookups measure the field reads
+            previewEntities[i].contentType = FileUtils.guessContentType(FILE_NAMES[i]);
+            previewEntities[i].previewCategory = PreviewCategory.fromContentType(previewEntities[i].contentType);
+        }
+
+        digest = new byte[32];
+        ThreadLocalRandom.current().nextBytes(digest);
+    }
+
+    @Benchmark
+    public String toBase62() {
+        return FileUtils.toBase62(digest);
+    }
+
+    @Benchmark
+    public String generateHashedToken() {
+        return FileUtils.generateHashedToken(fileEntity);
+    }
+
+    /**
+     * Mirrors the checks the file view runs for a single file, over a mix of previewable and other names.
+     */
+    @Benchmark
+    @OperationsPerInvocation(10)
+    public void previewLookups(Blackhole blackhole) {
+        for (FileEntity entity : previewEntities) {
+            boolean isImage = FileUtils.isPreviewableImage(entity);
+            boolean isText = FileUtils.isPreviewableText(entity);
+            boolean isPdf = FileUtils.isPreviewablePdf(entity);
+            boolean isJson = FileUtils.isPreviewableJson(entity);
+            boolean isCsv = FileUtils.isPreviewableCsvOrTsv(entity);
+            boolean isAudio = FileUtils.isPreviewableAudio(entity);
+            boolean isVideo = FileUtils.isPreviewableVideo(entity);
+            blackhole.consume(FileUtils.determinePreviewType(isImage, isPdf, isJson, isCsv, isText, isAudio, isVideo));
+            blackhole.consume(FileUtils.contentTypeOf(entity));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.rostislav.quickdrop.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects per-operation latencies, transferred bytes and failures, and summarizes them once a phase is done.
+ */
+public class LatencyRecorder {
+    private final String operation;
+    private final List<Long> latenciesNanos = new ArrayList<>();
+    private long bytes;
+    private long errors;
+    private long startNanos;
+    private long endNanos;
+
+    public LatencyRecorder(String operation) {
+        this.operation = operation;
+    }
+
+    public synchronized void start() {
+        if (startNanos == 0) {
+            startNanos = System.nanoTime();
+        }
+    }
+
+    public synchronized void success(long latencyNanos, long transferredBytes) {
+        latenciesNanos.add(latencyNanos);
+        bytes += transferredBytes;
+        endNanos = System.nanoTime();
+    }
+
+    public synchronized void failure(long latencyNanos) {
+        latenciesNanos.add(latencyNanos);
+        errors++;
+        endNanos = System.nanoTime();
+    }
+
+    public synchronized Summary summarize() {
+        List<Long> sorted = new ArrayList<>(latenciesNanos);
+        sorted.sort(null);
+        double wallSeconds = Math.max(endNanos - startNanos, 1) / 1_000_000_000.0;
+        return new Summary(
+                operation,
+                sorted.size(),
+                errors,
+                sorted.isEmpty() ? 0 : (double) errors / sorted.size(),
+                percentileMillis(sorted, 50),
+                percentileMillis(sorted, 95),
+                percentileMillis(sorted, 99),
+                bytes / (1024.0 * 1024.0) / wallSeconds,
+                sorted.size() / wallSeconds);
+    }
+
+    private static double percentileMillis(List<Long> sorted, int percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        // Nearest-rank percentile
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(rank - 1, 0)) / 1_000_000.0;
+    }
+
+    public record Summary(String operation, long count, long errors, double errorRate,
+                          double p50Millis, double p95Millis, double p99Millis,
+                          double megabytesPerSecond, double operationsPerSecond) {
+    }
+}
@@ -0,0 +1,41 @@
+package org.rostislav.quickdrop.loadtest;
+
+import java.nio.file.Path;
+
+/**
+ * Load test parameters, read from {@code load.*} system properties so they can be passed straight through Maven.
+ */
+public record LoadTestConfig(int concurrency,
+                             int files,
+                             long fileSize,
+                             int chunkSize,
+                             boolean passwordProtected,
+                             boolean encryptionEnabled,
+                             int downloadsPerFile,
+                             int shareDownloadsPerFile,
+                             Path resultFile,
+                             boolean keepData) {
+
+    public static LoadTestConfig fromSystemProperties() {
+        LoadTestConfig config = new LoadTestConfig(
+                Integer.getInteger("load.concurrency", 8),
+                Integer.getInteger("load.files", 32),
+                Long.getLong("load.fileSize", 16L * 1024 * 1024),
+                Integer.getInteger("load.chunkSize", 1024 * 1024),
+                Boolean.parseBoolean(System.getProperty("load.password", "false")),
+                Boolean.parseBoolean(System.getProperty("load.encryption", "true")),
+                Integer.getInteger("load.downloadsPerFile", 2),
+                Integer.getInteger("load.shareDownloadsPerFile", 1),
+                Path.of(System.getProperty("load.resultFile", "load-test-result.json")),
+                Boolean.parseBoolean(System.getProperty("load.keepData", "false")));
+
+        if (config.concurrency < 1 || config.files < 1 || config.fileSize < 0 || config.chunkSize < 1) {
+            throw new IllegalArgumentException("Invalid load test configuration: " + config);
+        }
+        return config;
+    }
+
+    public int totalChunks() {
+        return (int) Math.max(1, (fileSize + chunkSize - 1) / chunkSize);
+    }
+}
@@ -0,0 +1,283 @@
+package org.rostislav.quickdrop.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.rostislav.quickdrop.QuickdropApplication;
+import org.rostislav.quickdrop.entity.ApplicationSettingsEntity;
+import org.rostislav.quickdrop.repository.ApplicationSettingsRepository;
+import org.rostislav.quickdrop.service.ApplicationSettingsService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Boots QuickDrop on a random port against a throwaway database and storage directory, then runs three phases
+ * with a fixed number of concurrent clients: chunked uploads, direct downloads and share link downloads.
+ * Latency percentiles, throughput and error rates are printed and written as JSON.
+ */
+public class LoadTestHarness {
+    private static final String FILE_PASSWORD = "load-test-password";
+    private static final String ADMIN_PASSWORD = "load-test-admin";
+
+    private final LoadTestConfig config;
+    private final String baseUrl;
+    private final byte[] chunkData;
+    private final List<QuickdropClient> clients = new ArrayList<>();
+
+    private LoadTestHarness(LoadTestConfig config, String baseUrl) {
+        this.config = config;
+        this.baseUrl = baseUrl;
+        this.chunkData = new byte[config.chunkSize()];
+        new Random(42).nextBytes(chunkData);
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.fromSystemProperties();
+        Path workDir = Files.createTempDirectory("quickdrop-load");
+        Path storageDir = Files.createDirectories(workDir.resolve("files"));
+
+        // Passed as command line arguments so they take precedence over application.properties
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(QuickdropApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:sqlite:" + workDir.resolve("quickdrop.db"),
+                "--spring.jpa.show-sql=false",
+                "--logging.file.name=" + workDir.resolve("quickdrop.log"),
+                "--logging.level.root=" + System.getProperty("load.logLevel", "WARN"));
+
+        List<LatencyRecorder.Summary> summaries;
+        try {
+            configureApplication(context, config, storageDir);
+            String port = context.getEnvironment().getProperty("local.server.port");
+            System.out.println("QuickDrop started on port " + port + ", data in " + workDir);
+            summaries = new LoadTestHarness(config, "http://localhost:" + port).run();
+        } finally {
+            context.close();
+            if (!config.keepData()) {
+                deleteRecursively(workDir);
+            }
+        }
+
+        printReport(config, summaries);
+        writeReport(config, summaries);
+        boolean failed = summaries.stream().anyMatch(summary -> summary.errors() > 0);
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static void configureApplication(ConfigurableApplicationContext context, LoadTestConfig config, Path storageDir) {
+        ApplicationSettingsService settingsService = context.getBean(ApplicationSettingsService.class);
+        // Without an admin password every request is redirected to the setup page
+        settingsService.setAdminPassword(ADMIN_PASSWORD);
+
+        ApplicationSettingsEntity settings = settingsService.getApplicationSettings();
+        settings.setFileStoragePath(storageDir.toString());
+        settings.setDisableEncryption(!config.encryptionEnabled());
+        settings.setMaxFileSize(Math.max(settings.getMaxFileSize(), config.fileSize()));
+        context.getBean(ApplicationSettingsRepository.class).save(settings);
+    }
+
+    private List<LatencyRecorder.Summary> run() throws Exception {
+        for (int i = 0; i < config.concurrency(); i++) {
+            QuickdropClient client = new QuickdropClient(baseUrl);
+            client.connect();
+            clients.add(client);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(config.concurrency());
+        try {
+            LatencyRecorder uploads = new LatencyRecorder("upload");
+            LatencyRecorder chunks = new LatencyRecorder("upload-chunk");
+            List<String> uuids = uploadPhase(executor, uploads, chunks);
+
+            LatencyRecorder unlocks = new LatencyRecorder("file-unlock");
+            LatencyRecorder downloads = new LatencyRecorder("download");
+            downloadPhase(executor, uuids, unlocks, downloads);
+
+            LatencyRecorder shareLinks = new LatencyRecorder("share-link");
+            LatencyRecorder shareDownloads = new LatencyRecorder("share-download");
+            shareDownloadPhase(executor, uuids, shareLinks, shareDownloads);
+
+            List<LatencyRecorder.Summary> summaries = new ArrayList<>();
+            for (LatencyRecorder recorder : List.of(uploads, chunks, unlocks, downloads, shareLinks, shareDownloads)) {
+                LatencyRecorder.Summary summary = recorder.summarize();
+                if (summary.count() > 0) {
+                    summaries.add(summary);
+                }
+            }
+            return summaries;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<String> uploadPhase(ExecutorService executor, LatencyRecorder uploads, LatencyRecorder chunks) throws InterruptedException {
+        String password = config.passwordProtected() ? FILE_PASSWORD : null;
+        int totalChunks = config.totalChunks();
+        List<String> uuids = Collections.synchronizedList(new ArrayList<>());
+
+        runPerClient(executor, config.files(), (client, fileIndex) -> {
+            String fileName = "load-test-" + fileIndex + "-" + UUID.randomUUID() + ".bin";
+            uploads.start();
+            chunks.start();
+            long uploadStart = System.nanoTime();
+            try {
+                String response = null;
+                for (int chunk = 0; chunk < totalChunks; chunk++) {
+                    int length = (int) Math.min(config.chunkSize(), config.fileSize() - (long) chunk * config.chunkSize());
+                    long chunkStart = System.nanoTime();
+                    try {
+                        response = client.uploadChunk(fileName, chunkData, Math.max(length, 0), chunk, totalChunks, config.fileSize(), password);
+                        chunks.success(System.nanoTime() - chunkStart, Math.max(length, 0));
+                    } catch (IOException e) {
+                        chunks.failure(System.nanoTime() - chunkStart);
+                        throw e;
+                    }
+                }
+                uuids.add(QuickdropClient.uuidFromUploadResponse(response));
+                uploads.success(System.nanoTime() - uploadStart, config.fileSize());
+            } catch (IOException e) {
+                uploads.failure(System.nanoTime() - uploadStart);
+                System.err.println("Upload " + fileName + " failed: " + e.getMessage());
+            }
+        });
+        return new ArrayList<>(uuids);
+    }
+
+    private void downloadPhase(ExecutorService executor, List<String> uuids, LatencyRecorder unlocks, LatencyRecorder downloads) throws InterruptedException {
+        if (uuids.isEmpty() || config.downloadsPerFile() == 0) {
+            return;
+        }
+
+        int total = uuids.size() * config.downloadsPerFile();
+        runPerClient(executor, total, (client, index) -> {
+            String uuid = uuids.get(index % uuids.size());
+            // A session holds a single unlocked file, as in the browser
+            if (config.passwordProtected() && !client.isUnlocked(uuid)) {
+                timed(unlocks, 0, () -> {
+                    client.unlock(uuid, FILE_PASSWORD);
+                    return 0L;
+                });
+            }
+            timed(downloads, config.fileSize(), () -> client.download(uuid));
+        });
+    }
+
+    private void shareDownloadPhase(ExecutorService executor, List<String> uuids, LatencyRecorder shareLinks, LatencyRecorder shareDownloads) throws InterruptedException {
+        if (uuids.isEmpty() || config.shareDownloadsPerFile() == 0) {
+            return;
+        }
+
+        QuickdropClient owner = clients.get(0);
+        List<String> tokens = new ArrayList<>();
+        for (String uuid : uuids) {
+            String token = timed(shareLinks, 0, () -> {
+                if (config.passwordProtected()) {
+                    owner.unlock(uuid, FILE_PASSWORD);
+                }
+                return owner.createShareToken(uuid);
+            });
+            if (token != null) {
+                tokens.add(token);
+            }
+        }
+        if (tokens.isEmpty()) {
+            return;
+        }
+
+        int total = tokens.size() * config.shareDownloadsPerFile();
+        runPerClient(executor, total, (client, index) -> {
+            String token = tokens.get(index % tokens.size());
+            timed(shareDownloads, config.fileSize(), () -> client.downloadShared(token));
+        });
+    }
+
+    /**
+     * Runs the operation and records its latency. Downloads are only counted as successful when the full file
+     * came back, so truncated responses show up as errors.
+     */
+    private <T> T timed(LatencyRecorder recorder, long expectedBytes, Operation<T> operation) {
+        recorder.start();
+        long start = System.nanoTime();
+        try {
+            T result = operation.run();
+            if (result instanceof Long bytes && expectedBytes > 0 && bytes != expectedBytes) {
+                throw new IOException("Expected " + expectedBytes + " bytes but received " + bytes);
+            }
+            recorder.success(System.nanoTime() - start, result instanceof Long bytes ? bytes : 0);
+            return result;
+        } catch (Exception e) {
+            recorder.failure(System.nanoTime() - start);
+            System.err.println("Operation failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Spreads {@code count} tasks over the clients, each client working through its share sequentially.
+     */
+    private void runPerClient(ExecutorService executor, int count, ClientTask task) throws InterruptedException {
+        List<Callable<Void>> workers = new ArrayList<>();
+        for (int c = 0; c < clients.size(); c++) {
+            QuickdropClient client = clients.get(c);
+            int first = c;
+            workers.add(() -> {
+                for (int index = first; index < count; index += clients.size()) {
+                    try {
+                        task.run(client, index);
+                    } catch (Exception e) {
+                        System.err.println("Task " + index + " failed: " + e.getMessage());
+                    }
+                }
+                return null;
+            });
+        }
+        executor.invokeAll(workers);
+    }
+
+    private static void printReport(LoadTestConfig config, List<LatencyRecorder.Summary> summaries) {
+        System.out.println();
+        System.out.printf("%d clients, %d files of %d bytes in %d byte chunks, password=%s, encryption=%s%n",
+                config.concurrency(), config.files(), config.fileSize(), config.chunkSize(),
+                config.passwordProtected(), config.encryptionEnabled());
+        System.out.printf("%-15s %8s %7s %8s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "errors", "err %", "p50 ms", "p95 ms", "p99 ms", "MB/s", "ops/s");
+        for (LatencyRecorder.Summary s : summaries) {
+            System.out.printf(Locale.ROOT, "%-15s %8d %7d %8.2f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    s.operation(), s.count(), s.errors(), s.errorRate() * 100,
+                    s.p50Millis(), s.p95Millis(), s.p99Millis(), s.megabytesPerSecond(), s.operationsPerSecond());
+        }
+    }
+
+    private static void writeReport(LoadTestConfig config, List<LatencyRecorder.Summary> summaries) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("config", config);
+        report.put("results", summaries);
+        new ObjectMapper()
+                .enable(SerializationFeature.INDENT_OUTPUT)
+                .writeValue(config.resultFile().toFile(), report);
+        System.out.println("Results written to " + config.resultFile().toAbsolutePath());
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Operation<T> {
+        T run() throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface ClientTask {
+        void run(QuickdropClient client, int index) throws Exception;
+    }
+}
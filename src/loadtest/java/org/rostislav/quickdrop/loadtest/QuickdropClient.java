@@ -0,0 +1,170 @@
+package org.rostislav.quickdrop.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One simulated browser: keeps its own cookies (session and CSRF) and talks to the same endpoints as the web UI.
+ */
+public class QuickdropClient {
+    private static final Pattern CSRF_PATTERN = Pattern.compile("name=\"_csrf\"[^>]*value=\"([^\"]+)\"");
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final String baseUrl;
+    private final HttpClient httpClient;
+    private String csrfToken;
+    private String unlockedUuid;
+
+    public QuickdropClient(String baseUrl) {
+        this.baseUrl = baseUrl;
+        this.httpClient = HttpClient.newBuilder()
+                .cookieHandler(new CookieManager())
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    /**
+     * Loads the upload page once to obtain the session and the masked CSRF token that forms submit.
+     */
+    public void connect() throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/file/upload")).GET().build(), HttpResponse.BodyHandlers.ofString());
+        Matcher matcher = CSRF_PATTERN.matcher(response.body());
+        if (response.statusCode() != 200 || !matcher.find()) {
+            throw new IOException("Could not obtain CSRF token, status " + response.statusCode());
+        }
+        csrfToken = matcher.group(1);
+    }
+
+    /**
+     * Posts a single chunk and returns the response body, which holds the file entity once the last chunk is merged.
+     */
+    public String uploadChunk(String fileName, byte[] data, int length, int chunkNumber, int totalChunks,
+                              long fileSize, String password) throws IOException, InterruptedException {
+        String boundary = "----quickdrop" + UUID.randomUUID();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(length + 1024);
+        writeField(body, boundary, "fileName", fileName);
+        writeField(body, boundary, "chunkNumber", String.valueOf(chunkNumber));
+        writeField(body, boundary, "totalChunks", String.valueOf(totalChunks));
+        writeField(body, boundary, "fileSize", String.valueOf(fileSize));
+        if (password != null) {
+            writeField(body, boundary, "password", password);
+        }
+        body.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"blob\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.write(data, 0, length);
+        body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        HttpRequest request = HttpRequest.newBuilder(uri("/api/file/upload-chunk"))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .header("X-XSRF-TOKEN", csrfToken)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+        HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString());
+        expectStatus(response, 200);
+        return response.body();
+    }
+
+    public static String uuidFromUploadResponse(String body) throws IOException {
+        JsonNode uuid = objectMapper.readTree(body).get("uuid");
+        if (uuid == null || uuid.isNull()) {
+            throw new IOException("Upload response did not contain a file UUID");
+        }
+        return uuid.asText();
+    }
+
+    /**
+     * Submits the file password form so this client's session may download the file.
+     */
+    public void unlock(String uuid, String password) throws IOException, InterruptedException {
+        HttpResponse<Void> response = send(formPost("/file/password", "uuid=" + encode(uuid) + "&password=" + encode(password)),
+                HttpResponse.BodyHandlers.discarding());
+        String location = response.headers().firstValue("Location").orElse("");
+        if (response.statusCode() != 302 || location.contains("/file/password/")) {
+            throw new IOException("Unlocking file " + uuid + " failed, status " + response.statusCode());
+        }
+        unlockedUuid = uuid;
+    }
+
+    public boolean isUnlocked(String uuid) {
+        return uuid.equals(unlockedUuid);
+    }
+
+    /**
+     * Creates (or reuses) an unlimited share link and returns its token.
+     */
+    public String createShareToken(String uuid) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(formPost("/api/file/share/" + uuid, ""), HttpResponse.BodyHandlers.ofString());
+        expectStatus(response, 200);
+        String link = response.body().trim();
+        return link.substring(link.lastIndexOf('/') + 1);
+    }
+
+    public long download(String uuid) throws IOException, InterruptedException {
+        return drain("/file/download/" + uuid);
+    }
+
+    public long downloadShared(String token) throws IOException, InterruptedException {
+        return drain("/api/file/download/" + token);
+    }
+
+    private long drain(String path) throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = send(HttpRequest.newBuilder(uri(path)).GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream in = response.body()) {
+            expectStatus(response, 200);
+            byte[] buffer = new byte[64 * 1024];
+            long total = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                total += n;
+            }
+            return total;
+        }
+    }
+
+    private HttpRequest formPost(String path, String form) {
+        String body = form.isEmpty() ? "_csrf=" + encode(csrfToken) : form + "&_csrf=" + encode(csrfToken);
+        return HttpRequest.newBuilder(uri(path))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException, InterruptedException {
+        return httpClient.send(request, handler);
+    }
+
+    private URI uri(String path) {
+        return URI.create(baseUrl + path);
+    }
+
+    private static void expectStatus(HttpResponse<?> response, int status) throws IOException {
+        if (response.statusCode() != status) {
+            throw new IOException(response.request().method() + " " + response.uri().getPath() + " returned " + response.statusCode());
+        }
+    }
+
+    private static void writeField(ByteArrayOutputStream body, String boundary, String name, String value) throws IOException {
+        body.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value + "\r\n")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
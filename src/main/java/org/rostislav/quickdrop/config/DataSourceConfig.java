@@ -0,0 +1,97 @@
+package org.rostislav.quickdrop.config;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteDataSource;
+
+import javax.sql.DataSource;
+
+/**
+ * SQLite allows many readers but only one writer at a time, so pooled connections that all write just take turns on
+ * the database lock and fail with SQLITE_BUSY once the busy timeout runs out. Writes go through a pool with a single
+ * connection instead, which queues them in the application. Read-only transactions are routed to a separate pool of
+ * read-only connections, which WAL mode lets run alongside the writer.
+ */
+@Configuration
+public class DataSourceConfig {
+
+    @Bean
+    public HikariDataSource writerDataSource(DataSourceProperties properties,
+                                             @Value("${app.sqlite.busy-timeout-ms:5000}") int busyTimeoutMs,
+                                             @Value("${app.sqlite.cache-size-kb:16384}") int cacheSizeKb,
+                                             @Value("${app.sqlite.mmap-size-mb:256}") long mmapSizeMb,
+                                             @Value("${app.sqlite.synchronous:NORMAL}") String synchronous,
+                                             @Value("${app.sqlite.writer-timeout-seconds:60}") long writerTimeoutSeconds) {
+        SQLiteConfig config = connectionConfig(busyTimeoutMs, cacheSizeKb, mmapSizeMb);
+        config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        // NORMAL only syncs the WAL at checkpoints, a crash can lose the last commits but never corrupts the database
+        config.setSynchronous(SQLiteConfig.SynchronousMode.valueOf(synchronous));
+        // Take the write lock when the transaction starts, so a transaction never fails halfway on a lock upgrade
+        config.setTransactionMode(SQLiteConfig.TransactionMode.IMMEDIATE);
+
+        HikariConfig hikari = poolConfig("sqlite-writer", properties.determineUrl(), config);
+        hikari.setMaximumPoolSize(1);
+        hikari.setConnectionTimeout(writerTimeoutSeconds * 1000);
+        return new HikariDataSource(hikari);
+    }
+
+    /**
+     * Depends on the writer pool, which creates the database file and switches it to WAL before a read-only
+     * connection is opened.
+     */
+    @Bean
+    public HikariDataSource readerDataSource(DataSourceProperties properties,
+                                             @Qualifier("writerDataSource") HikariDataSource writerDataSource,
+                                             @Value("${app.sqlite.busy-timeout-ms:5000}") int busyTimeoutMs,
+                                             @Value("${app.sqlite.cache-size-kb:16384}") int cacheSizeKb,
+                                             @Value("${app.sqlite.mmap-size-mb:256}") long mmapSizeMb,
+                                             @Value("${app.sqlite.read-pool-size:4}") int readPoolSize) {
+        SQLiteConfig config = connectionConfig(busyTimeoutMs, cacheSizeKb, mmapSizeMb);
+        config.setReadOnly(true);
+
+        HikariConfig hikari = poolConfig("sqlite-reader", properties.determineUrl(), config);
+        hikari.setMaximumPoolSize(Math.max(1, readPoolSize));
+        // The driver fixes the flag when the connection is opened, the pool must not try to reset it
+        hikari.setReadOnly(true);
+        return new HikariDataSource(hikari);
+    }
+
+    /**
+     * Connections are fetched on first use, by then the transaction is known to be read-only or not.
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("writerDataSource") HikariDataSource writerDataSource,
+                                 @Qualifier("readerDataSource") HikariDataSource readerDataSource) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(writerDataSource);
+        dataSource.setReadOnlyDataSource(readerDataSource);
+        return dataSource;
+    }
+
+    private static SQLiteConfig connectionConfig(int busyTimeoutMs, int cacheSizeKb, long mmapSizeMb) {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setBusyTimeout(busyTimeoutMs);
+        // A negative cache size is in KiB instead of pages
+        config.setCacheSize(-cacheSizeKb);
+        config.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, String.valueOf(mmapSizeMb * 1024 * 1024));
+        return config;
+    }
+
+    private static HikariConfig poolConfig(String poolName, String url, SQLiteConfig config) {
+        SQLiteDataSource sqliteDataSource = new SQLiteDataSource(config);
+        sqliteDataSource.setUrl(url);
+
+        HikariConfig hikari = new HikariConfig();
+        hikari.setPoolName(poolName);
+        hikari.setDataSource(sqliteDataSource);
+        return hikari;
+    }
+}
@@ -37,12 +37,12 @@ public class WebConfig implements WebMvcConfigurer {
                 .excludePathPatterns("/admin/setup", "/static/**", "/css/**", "/js/**", "/images/**");
 
         registry.addInterceptor(adminPasswordInterceptor)
-                .addPathPatterns("/admin/**", "/file/history/*")
+                .addPathPatterns("/admin/**", "/file/history/**")
                 .excludePathPatterns("/admin/password", "/admin/setup");
 
         registry.addInterceptor(filePasswordInterceptor)
-                .addPathPatterns("/file/**", "/api/file/share/**")
-                .excludePathPatterns("/file/upload", "/file/list", "/file/password", "/file/password/**", "/file/history/*", "/file/search");
+                .addPathPatterns("/file/**", "/api/file/share/**", "/api/file/password/**")
+                .excludePathPatterns("/file/upload", "/file/list", "/file/password", "/file/password/**", "/file/history/**", "/file/search");
     }
 
     @Bean
@@ -6,9 +6,10 @@ import org.rostislav.quickdrop.entity.ApplicationSettingsEntity;
 import org.rostislav.quickdrop.model.AnalyticsDataView;
 import org.rostislav.quickdrop.model.ApplicationSettingsViewModel;
 import org.rostislav.quickdrop.model.FileEntityView;
+import org.rostislav.quickdrop.model.FileListCursor;
+import org.rostislav.quickdrop.model.FileListPage;
 import org.rostislav.quickdrop.service.*;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.support.CronExpression;
 import org.springframework.security.crypto.bcrypt.BCrypt;
@@ -16,6 +17,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.util.UUID;
 
@@ -42,14 +44,16 @@ public class AdminViewController {
     }
 
     @GetMapping("/dashboard")
-    public String getDashboardPage(@RequestParam(name = "page", defaultValue = "0") int page,
+    public String getDashboardPage(@RequestParam(name = "cursor", required = false) String cursor,
                                    @RequestParam(name = "size", defaultValue = "20") int size,
                                    @RequestParam(name = "query", required = false) String query,
                                    Model model) {
-        int pageNumber = Math.max(page, 0);
+        if (!FileListCursor.isValid(cursor)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
         int pageSize = Math.min(Math.max(size, 1), 100);
 
-        Page<FileEntityView> filesPage = fileService.getFilesWithDownloadCounts(PageRequest.of(pageNumber, pageSize), query);
+        FileListPage<FileEntityView> filesPage = fileService.getFilesWithDownloadCounts(cursor, pageSize, query);
         model.addAttribute("filesPage", filesPage);
         model.addAttribute("pageSize", pageSize);
         model.addAttribute("query", query == null ? "" : query);
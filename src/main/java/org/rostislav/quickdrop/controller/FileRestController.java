@@ -9,6 +9,7 @@ import org.rostislav.quickdrop.service.AsyncFileMergeService;
 import org.rostislav.quickdrop.service.FileService;
 import org.rostislav.quickdrop.service.SessionService;
 import org.rostislav.quickdrop.util.FileUtils;
+import org.rostislav.quickdrop.util.ZipStreamWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
@@ -54,6 +55,8 @@ public class FileRestController {
             @RequestParam(value = "folderUpload", defaultValue = "false") Boolean folderUpload,
             @RequestParam(value = "folderName", required = false) String folderName,
             @RequestParam(value = "folderManifest", required = false) String folderManifest,
+            @RequestParam(value = "entryPath", required = false) String entryPath,
+            @RequestParam(value = "entrySize", required = false) Long entrySize,
             HttpServletRequest request) {
 
         if (chunkNumber == 0) {
@@ -68,6 +71,15 @@ public class FileRestController {
                 return ResponseEntity.badRequest().body("{\"error\": \"Upload passwords are disabled\"}");
             }
 
+            String entryName = null;
+            if (entryPath != null) {
+                entryName = ZipStreamWriter.normalizeEntryName(entryPath);
+                boolean validSize = entrySize != null && (entryName != null && entryName.endsWith("/") ? entrySize == 0 : entrySize >= 0);
+                if (!Boolean.TRUE.equals(folderUpload) || entryName == null || !validSize) {
+                    return ResponseEntity.badRequest().body("{\"error\": \"Invalid folder entry\"}");
+                }
+            }
+
             boolean adminSession = sessionService.hasValidAdminSession(request);
             boolean allowKeepIndefinitely = !applicationSettingsService.isKeepIndefinitelyAdminOnly() || adminSession;
             boolean keepIndefinitelyValue = allowKeepIndefinitely && Boolean.TRUE.equals(keepIndefinitely);
@@ -81,7 +93,9 @@ public class FileRestController {
             String effectivePassword = uploadPasswordEnabled ? password : null;
 
             FileUploadRequest fileUploadRequest = new FileUploadRequest(description, keepIndefinitelyValue, effectivePassword, hiddenValue, fileName, totalChunks, fileSize, uploaderIp, uploaderUserAgent, Boolean.TRUE.equals(folderUpload), folderName, folderManifest);
-            FileEntity fileEntity = asyncFileMergeService.submitChunk(fileUploadRequest, file, chunkNumber);
+            FileEntity fileEntity = entryName != null
+                    ? asyncFileMergeService.submitChunk(fileUploadRequest, file, chunkNumber, entryName, entrySize)
+                    : asyncFileMergeService.submitChunk(fileUploadRequest, file, chunkNumber);
             return ResponseEntity.ok(fileEntity);
         } catch (IOException e) {
             logger.error("Error processing chunk {} for file {}: {}", chunkNumber, fileName, e.getMessage());
@@ -125,6 +139,20 @@ public class FileRestController {
         return ok(shareLink);
     }
 
+    @PostMapping("/password/{uuid}")
+    public ResponseEntity<String> changeFilePassword(@PathVariable String uuid,
+                                                     @RequestParam("newPassword") String newPassword,
+                                                     HttpServletRequest request) {
+        if (!applicationSettingsService.isUploadPasswordEnabled()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("File passwords are disabled.");
+        }
+
+        if (!fileService.changeFilePassword(uuid, newPassword, request)) {
+            return ResponseEntity.badRequest().body("Password could not be changed.");
+        }
+        return ok("Password changed.");
+    }
+
     @GetMapping("/download/{token}")
     public ResponseEntity<StreamingResponseBody> downloadFile(@PathVariable String token, HttpServletRequest request) {
         try {
@@ -2,25 +2,44 @@ package org.rostislav.quickdrop.controller;
 
 import jakarta.servlet.http.HttpServletRequest;
 import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.model.ArchiveEntry;
+import org.rostislav.quickdrop.model.CsvRowWindow;
+import org.rostislav.quickdrop.model.FileActionDailyDTO;
 import org.rostislav.quickdrop.model.FileActionLogDTO;
 import org.rostislav.quickdrop.model.FileEntityView;
+import org.rostislav.quickdrop.model.FileListCursor;
+import org.rostislav.quickdrop.model.FileListItem;
+import org.rostislav.quickdrop.model.FileListPage;
+import org.rostislav.quickdrop.model.JsonPreviewNode;
+import org.rostislav.quickdrop.model.PreviewCategory;
+import org.rostislav.quickdrop.model.PreviewSize;
+import org.rostislav.quickdrop.model.TextLineWindow;
 import org.rostislav.quickdrop.service.AnalyticsService;
 import org.rostislav.quickdrop.service.ApplicationSettingsService;
+import org.rostislav.quickdrop.service.ArchiveService;
+import org.rostislav.quickdrop.service.CsvPreviewService;
 import org.rostislav.quickdrop.service.FileService;
+import org.rostislav.quickdrop.service.JsonPreviewService;
+import org.rostislav.quickdrop.service.MediaPreviewService;
 import org.rostislav.quickdrop.service.SessionService;
+import org.rostislav.quickdrop.service.TextPreviewService;
+import org.rostislav.quickdrop.service.ThumbnailService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.util.UriUtils;
 
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static org.rostislav.quickdrop.util.FileUtils.*;
 
@@ -32,12 +51,24 @@ public class FileViewController {
     private final ApplicationSettingsService applicationSettingsService;
     private final AnalyticsService analyticsService;
     private final SessionService sessionService;
-
-    public FileViewController(FileService fileService, ApplicationSettingsService applicationSettingsService, AnalyticsService analyticsService, SessionService sessionService) {
+    private final ThumbnailService thumbnailService;
+    private final TextPreviewService textPreviewService;
+    private final CsvPreviewService csvPreviewService;
+    private final JsonPreviewService jsonPreviewService;
+    private final ArchiveService archiveService;
+    private final MediaPreviewService mediaPreviewService;
+
+    public FileViewController(FileService fileService, ApplicationSettingsService applicationSettingsService, AnalyticsService analyticsService, SessionService sessionService, ThumbnailService thumbnailService, TextPreviewService textPreviewService, CsvPreviewService csvPreviewService, JsonPreviewService jsonPreviewService, ArchiveService archiveService, MediaPreviewService mediaPreviewService) {
         this.fileService = fileService;
         this.applicationSettingsService = applicationSettingsService;
         this.analyticsService = analyticsService;
         this.sessionService = sessionService;
+        this.thumbnailService = thumbnailService;
+        this.textPreviewService = textPreviewService;
+        this.csvPreviewService = csvPreviewService;
+        this.jsonPreviewService = jsonPreviewService;
+        this.archiveService = archiveService;
+        this.mediaPreviewService = mediaPreviewService;
     }
 
     @GetMapping("/upload")
@@ -49,7 +80,7 @@ public class FileViewController {
     }
 
     @GetMapping("/list")
-    public String listFiles(@RequestParam(name = "page", defaultValue = "0") int page,
+    public String listFiles(@RequestParam(name = "cursor", required = false) String cursor,
                             @RequestParam(name = "size", defaultValue = "20") int size,
                             @RequestParam(name = "query", required = false) String query,
                             Model model,
@@ -58,12 +89,18 @@ public class FileViewController {
         if (!applicationSettingsService.isFileListPageEnabled() && !hasAdminSession) {
             return "redirect:/";
         }
+        if (!FileListCursor.isValid(cursor)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
 
-        int pageNumber = Math.max(page, 0);
         int pageSize = Math.min(Math.max(size, 1), 100);
 
-        Page<FileEntity> filesPage = fileService.getVisibleFiles(PageRequest.of(pageNumber, pageSize), query);
+        FileListPage<FileListItem> filesPage = fileService.getVisibleFiles(cursor, pageSize, query);
+        Set<String> thumbnailUuids = applicationSettingsService.isPreviewEnabled()
+                ? filesPage.content().stream().filter(thumbnailService::isEligible).map(FileListItem::uuid).collect(Collectors.toSet())
+                : Set.of();
         model.addAttribute("filesPage", filesPage);
+        model.addAttribute("thumbnailUuids", thumbnailUuids);
         model.addAttribute("query", query == null ? "" : query);
         model.addAttribute("pageSize", pageSize);
         return "listFiles";
@@ -82,15 +119,23 @@ public class FileViewController {
         populateModelAttributes(fileEntity, model, request);
 
         boolean previewsEnabled = applicationSettingsService.isPreviewEnabled();
-        boolean isImage = previewsEnabled && isPreviewableImage(fileEntity);
-        boolean isText = previewsEnabled && isPreviewableText(fileEntity);
-        boolean isPdf = previewsEnabled && isPreviewablePdf(fileEntity);
-        boolean isJson = previewsEnabled && isPreviewableJson(fileEntity);
-        boolean isCsv = previewsEnabled && isPreviewableCsvOrTsv(fileEntity);
-
-        String previewType = determinePreviewType(isImage, isPdf, isJson, isCsv, isText);
+        PreviewCategory category = previewCategory(fileEntity);
+        boolean isImage = previewsEnabled && category == PreviewCategory.IMAGE;
+        boolean isText = previewsEnabled && category.isText();
+        boolean isPdf = previewsEnabled && category == PreviewCategory.PDF;
+        boolean isJson = previewsEnabled && category == PreviewCategory.JSON;
+        boolean isCsv = previewsEnabled && category == PreviewCategory.CSV;
+        boolean isStreamable = previewsEnabled && mediaPreviewService.isStreamable(fileEntity);
+        boolean isAudio = isStreamable && category == PreviewCategory.AUDIO;
+        boolean isVideo = isStreamable && category == PreviewCategory.VIDEO;
+
+        String previewType = determinePreviewType(isImage, isPdf, isJson, isCsv, isText, isAudio, isVideo);
         long previewLimit = applicationSettingsService.getMaxPreviewSizeBytes();
-        boolean requireManualPreview = fileEntity.size > previewLimit;
+        // Paged and streamed previews only fetch what is on screen or played, so the size limit does not apply to them
+        boolean isPagedText = isText && textPreviewService.isPaged(fileEntity);
+        boolean isPagedCsv = isCsv && csvPreviewService.isPaged(fileEntity);
+        boolean isPagedJson = isJson && jsonPreviewService.isPaged(fileEntity);
+        boolean requireManualPreview = fileEntity.size > previewLimit && !isPagedText && !isPagedCsv && !isPagedJson && !isStreamable;
 
         model.addAttribute("isPreviewEnabled", previewsEnabled);
         model.addAttribute("isPreviewableImage", isImage);
@@ -99,8 +144,23 @@ public class FileViewController {
         model.addAttribute("isPreviewableJson", isJson);
         model.addAttribute("isPreviewableCsv", isCsv);
         model.addAttribute("previewType", previewType);
-        model.addAttribute("previewUrl", String.format("/file/preview/%s", uuid));
+        // SVGs are rasterized on the server, the page never needs more than the page-fit rendering
+        String previewUrl = isImage && isSvg(fileEntity)
+                ? String.format("/file/preview/%s?size=page", uuid)
+                : String.format("/file/preview/%s", uuid);
+        model.addAttribute("previewUrl", previewUrl);
+        model.addAttribute("isPagedText", isPagedText);
+        model.addAttribute("previewLinesUrl", String.format("/file/preview/%s/lines", uuid));
+        model.addAttribute("isPagedCsv", isPagedCsv);
+        model.addAttribute("previewRowsUrl", String.format("/file/preview/%s/rows", uuid));
+        model.addAttribute("isPagedJson", isPagedJson);
+        model.addAttribute("previewJsonUrl", String.format("/file/preview/%s/json", uuid));
+        model.addAttribute("isPreviewableMedia", isStreamable);
+        model.addAttribute("previewStreamUrl", String.format("/file/preview/%s/stream", uuid));
         model.addAttribute("requireManualPreview", requireManualPreview);
+        model.addAttribute("isBrowsableArchive", archiveService.isBrowsable(fileEntity));
+        model.addAttribute("folderManifest", fileService.getFolderManifest(fileEntity));
+        model.addAttribute("archiveUrl", String.format("/file/archive/%s", uuid));
         model.addAttribute("maxPreviewSizeMB", previewLimit / 1024 / 1024);
 
         return "fileView";
@@ -108,8 +168,56 @@ public class FileViewController {
 
     @GetMapping("/preview/{uuid}")
     public ResponseEntity<StreamingResponseBody> previewFile(@PathVariable String uuid, HttpServletRequest request,
-                                                             @RequestParam(name = "manual", defaultValue = "false") boolean manual) {
-        return fileService.previewFile(uuid, request, manual);
+                                                             @RequestParam(name = "manual", defaultValue = "false") boolean manual,
+                                                             @RequestParam(name = "size", required = false) String size) {
+        return fileService.previewFile(uuid, request, manual, PreviewSize.fromParameter(size));
+    }
+
+    @GetMapping("/preview/{uuid}/lines")
+    public ResponseEntity<TextLineWindow> previewLines(@PathVariable String uuid,
+                                                       @RequestParam(name = "from", defaultValue = "0") long from,
+                                                       @RequestParam(name = "count", defaultValue = "200") int count) {
+        return textPreviewService.linesResponse(fileService.getFile(uuid), from, count);
+    }
+
+    @GetMapping("/preview/{uuid}/rows")
+    public ResponseEntity<CsvRowWindow> previewRows(@PathVariable String uuid,
+                                                    @RequestParam(name = "from", defaultValue = "0") long from,
+                                                    @RequestParam(name = "count", defaultValue = "100") int count,
+                                                    @RequestParam(name = "schema", defaultValue = "false") boolean schema) {
+        return csvPreviewService.rowsResponse(fileService.getFile(uuid), from, count, schema);
+    }
+
+    @GetMapping("/preview/{uuid}/json")
+    public ResponseEntity<JsonPreviewNode> previewJson(@PathVariable String uuid,
+                                                       @RequestParam(name = "path", defaultValue = "") String path,
+                                                       @RequestParam(name = "offset", defaultValue = "0") long offset,
+                                                       @RequestParam(name = "limit", defaultValue = "100") int limit) {
+        return jsonPreviewService.nodeResponse(fileService.getFile(uuid), path, offset, limit);
+    }
+
+    @GetMapping("/preview/{uuid}/stream")
+    public ResponseEntity<Resource> previewStream(@PathVariable String uuid) {
+        return mediaPreviewService.streamResponse(fileService.getFile(uuid));
+    }
+
+    @GetMapping("/archive/{uuid}/entries")
+    public ResponseEntity<List<ArchiveEntry>> archiveEntries(@PathVariable String uuid) {
+        return archiveService.entriesResponse(fileService.getFile(uuid));
+    }
+
+    @GetMapping("/archive/{uuid}/download")
+    public ResponseEntity<StreamingResponseBody> downloadArchiveEntry(@PathVariable String uuid,
+                                                                      @RequestParam(name = "path") String path) {
+        return archiveService.downloadEntry(fileService.getFile(uuid), path);
+    }
+
+    @GetMapping("/archive/{uuid}/preview")
+    public ResponseEntity<StreamingResponseBody> previewArchiveEntry(@PathVariable String uuid,
+                                                                     @RequestParam(name = "path") String path,
+                                                                     @RequestParam(name = "manual", defaultValue = "false") boolean manual,
+                                                                     @RequestParam(name = "size", required = false) String size) {
+        return archiveService.previewEntry(fileService.getFile(uuid), path, manual, PreviewSize.fromParameter(size));
     }
 
     @PostMapping("/download/log/{uuid}")
@@ -131,13 +239,28 @@ public class FileViewController {
                 .stream()
                 .map(FileActionLogDTO::new)
                 .toList();
+        List<FileActionDailyDTO> dailyLogs = analyticsService.getDailyHistoryByFile(uuid)
+                .stream()
+                .map(FileActionDailyDTO::new)
+                .toList();
 
         model.addAttribute("file", fileEntityView);
         model.addAttribute("actionLogs", actionLogs);
+        model.addAttribute("dailyLogs", dailyLogs);
+        model.addAttribute("archivedSegments", analyticsService.getArchivedSegmentCount(fileEntity));
 
         return "file-history";
     }
 
+    @GetMapping("/history/{uuid}/archived")
+    public ResponseEntity<StreamingResponseBody> downloadArchivedHistory(@PathVariable String uuid) {
+        FileEntity fileEntity = fileService.getFile(uuid);
+        if (fileEntity == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return analyticsService.downloadArchivedHistory(fileEntity);
+    }
+
 
     @PostMapping("/password")
     public String checkPassword(@RequestParam("uuid") String uuid,
@@ -166,6 +289,11 @@ public class FileViewController {
         return "file-password";
     }
 
+    @GetMapping("/thumbnail/{uuid}")
+    public ResponseEntity<Resource> thumbnail(@PathVariable String uuid) {
+        return thumbnailService.thumbnailResponse(fileService.getFile(uuid));
+    }
+
     @GetMapping("/download/{uuid}")
     public ResponseEntity<StreamingResponseBody> downloadFile(@PathVariable String uuid, HttpServletRequest request) {
         return fileService.downloadFile(uuid, request);
@@ -194,7 +322,7 @@ public class FileViewController {
         }
         int pageSize = Math.min(Math.max(size, 1), 100);
         String encodedQuery = UriUtils.encodeQueryParam(query, java.nio.charset.StandardCharsets.UTF_8);
-        return "redirect:/file/list?query=" + encodedQuery + "&page=0&size=" + pageSize;
+        return "redirect:/file/list?query=" + encodedQuery + "&size=" + pageSize;
     }
 
     @PostMapping("/keep-indefinitely/{uuid}")
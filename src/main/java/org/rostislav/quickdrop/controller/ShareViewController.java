@@ -4,9 +4,13 @@ import org.rostislav.quickdrop.entity.FileEntity;
 import org.rostislav.quickdrop.entity.ShareTokenEntity;
 import org.rostislav.quickdrop.model.FileEntityView;
 import org.rostislav.quickdrop.service.AnalyticsService;
+import org.rostislav.quickdrop.service.ApplicationSettingsService;
 import org.rostislav.quickdrop.service.FileService;
+import org.rostislav.quickdrop.service.ThumbnailService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -23,10 +27,14 @@ public class ShareViewController {
     private static final Logger logger = LoggerFactory.getLogger(ShareViewController.class);
     private final FileService fileService;
     private final AnalyticsService analyticsService;
+    private final ThumbnailService thumbnailService;
+    private final ApplicationSettingsService applicationSettingsService;
 
-    public ShareViewController(FileService fileService, AnalyticsService analyticsService) {
+    public ShareViewController(FileService fileService, AnalyticsService analyticsService, ThumbnailService thumbnailService, ApplicationSettingsService applicationSettingsService) {
         this.fileService = fileService;
         this.analyticsService = analyticsService;
+        this.thumbnailService = thumbnailService;
+        this.applicationSettingsService = applicationSettingsService;
     }
 
     @GetMapping("/{token}")
@@ -44,8 +52,19 @@ public class ShareViewController {
 
         model.addAttribute("file", new FileEntityView(file, analyticsService.getTotalDownloadsByFile(file.uuid)));
         model.addAttribute("downloadLink", "/api/file/download/" + token);
+        boolean showThumbnail = applicationSettingsService.isPreviewEnabled() && thumbnailService.isEligible(file);
+        model.addAttribute("thumbnailUrl", showThumbnail ? "/share/" + token + "/thumbnail" : null);
 
         logger.info("Accessed shared file view for file UUID: {} via short link", file.uuid);
         return "file-share-view";
     }
+
+    @GetMapping("/{token}/thumbnail")
+    public ResponseEntity<Resource> thumbnail(@PathVariable String token) {
+        Optional<ShareTokenEntity> tokenEntity = fileService.getShareTokenEntityByToken(token);
+        if (tokenEntity.isEmpty() || !validateShareToken(tokenEntity.get())) {
+            return ResponseEntity.notFound().build();
+        }
+        return thumbnailService.thumbnailResponse(tokenEntity.get().file);
+    }
 }
@@ -1,6 +1,7 @@
 package org.rostislav.quickdrop.entity;
 
 import jakarta.persistence.*;
+import org.rostislav.quickdrop.model.PreviewCategory;
 
 import java.time.LocalDate;
 
@@ -20,8 +21,9 @@ public class FileEntity {
     public boolean encrypted;
     public boolean folderUpload;
     public String folderName;
-    @Column(columnDefinition = "TEXT")
-    public String folderManifest;
+    public String contentType;
+    @Enumerated(EnumType.STRING)
+    public PreviewCategory previewCategory;
 
     @PrePersist
     public void prePersist() {
@@ -42,6 +44,8 @@ public class FileEntity {
                 ", encrypted=" + encrypted +
                 ", folderUpload=" + folderUpload +
                 ", folderName='" + folderName + '\'' +
+                ", contentType='" + contentType + '\'' +
+                ", previewCategory=" + previewCategory +
                 '}';
     }
 }
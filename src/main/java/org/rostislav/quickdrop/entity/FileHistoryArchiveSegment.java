@@ -0,0 +1,82 @@
+package org.rostislav.quickdrop.entity;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * One gzip compressed NDJSON file of archived {@link FileHistoryLog} events, all from the same month. Segments are
+ * written once and never changed.
+ */
+@Entity
+public class FileHistoryArchiveSegment {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // yyyy-MM
+    private String month;
+
+    // Relative to the archive directory
+    private String fileName;
+
+    private long eventCount;
+
+    private LocalDateTime firstEventDate;
+
+    private LocalDateTime lastEventDate;
+
+    private LocalDateTime createdAt;
+
+    @ElementCollection
+    @CollectionTable(name = "file_history_archive_segment_file", joinColumns = @JoinColumn(name = "segment_id"))
+    @Column(name = "file_id")
+    private Set<Long> fileIds = new HashSet<>();
+
+    public FileHistoryArchiveSegment() {
+    }
+
+    public FileHistoryArchiveSegment(String month, String fileName, long eventCount, LocalDateTime firstEventDate, LocalDateTime lastEventDate, Set<Long> fileIds) {
+        this.month = month;
+        this.fileName = fileName;
+        this.eventCount = eventCount;
+        this.firstEventDate = firstEventDate;
+        this.lastEventDate = lastEventDate;
+        this.fileIds = fileIds;
+        this.createdAt = LocalDateTime.now();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getMonth() {
+        return month;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public LocalDateTime getFirstEventDate() {
+        return firstEventDate;
+    }
+
+    public LocalDateTime getLastEventDate() {
+        return lastEventDate;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public Set<Long> getFileIds() {
+        return fileIds;
+    }
+}
@@ -0,0 +1,54 @@
+package org.rostislav.quickdrop.entity;
+
+import jakarta.persistence.*;
+import org.rostislav.quickdrop.model.FileHistoryType;
+
+import java.time.LocalDate;
+
+/**
+ * The events of one type for one file on one day, rolled up from {@link FileHistoryLog}. Rows are written by
+ * {@link org.rostislav.quickdrop.service.HistoryRollupService} only.
+ */
+@Entity
+public class FileHistoryDaily {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "file_id", nullable = false)
+    private FileEntity file;
+
+    @Enumerated(EnumType.STRING)
+    private FileHistoryType eventType;
+
+    private LocalDate day;
+
+    private long eventCount;
+
+    private long uniqueIps;
+
+    public Long getId() {
+        return id;
+    }
+
+    public FileEntity getFile() {
+        return file;
+    }
+
+    public FileHistoryType getEventType() {
+        return eventType;
+    }
+
+    public LocalDate getDay() {
+        return day;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public long getUniqueIps() {
+        return uniqueIps;
+    }
+}
@@ -25,6 +25,9 @@ public class FileHistoryLog {
     @Column(columnDefinition = "TEXT")
     private String userAgent;
 
+    // Set once the event is counted in FileHistoryDaily
+    private boolean rolledUp;
+
     public FileHistoryLog() {
         this.eventDate = LocalDateTime.now();
     }
@@ -80,4 +83,8 @@ public class FileHistoryLog {
     public void setUserAgent(String userAgent) {
         this.userAgent = userAgent;
     }
+
+    public boolean isRolledUp() {
+        return rolledUp;
+    }
 }
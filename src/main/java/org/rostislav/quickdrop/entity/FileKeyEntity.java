@@ -0,0 +1,39 @@
+package org.rostislav.quickdrop.entity;
+
+import jakarta.persistence.*;
+import org.rostislav.quickdrop.model.FileKeyType;
+
+@Entity
+public class FileKeyEntity {
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "file_id", nullable = false)
+    public FileEntity file;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "share_token_id")
+    public ShareTokenEntity shareToken;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "key_type", nullable = false)
+    public FileKeyType keyType;
+
+    @Column(name = "salt", nullable = false)
+    public String salt;
+
+    @Column(name = "wrapped_key", nullable = false)
+    public String wrappedKey;
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    public FileKeyEntity() {
+    }
+
+    public FileKeyEntity(FileEntity file, ShareTokenEntity shareToken, FileKeyType keyType, String salt, String wrappedKey) {
+        this.file = file;
+        this.shareToken = shareToken;
+        this.keyType = keyType;
+        this.salt = salt;
+        this.wrappedKey = wrappedKey;
+    }
+}
@@ -0,0 +1,33 @@
+package org.rostislav.quickdrop.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+
+/**
+ * The JSON listing of a folder upload, stored apart from {@link FileEntity} so that only the file page reads it.
+ */
+@Entity
+public class FileManifest {
+    @Id
+    private Long fileId;
+
+    @Column(columnDefinition = "TEXT")
+    private String manifest;
+
+    public FileManifest() {
+    }
+
+    public FileManifest(Long fileId, String manifest) {
+        this.fileId = fileId;
+        this.manifest = manifest;
+    }
+
+    public Long getFileId() {
+        return fileId;
+    }
+
+    public String getManifest() {
+        return manifest;
+    }
+}
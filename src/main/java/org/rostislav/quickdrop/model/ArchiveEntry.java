@@ -0,0 +1,8 @@
+package org.rostislav.quickdrop.model;
+
+/**
+ * A file inside a folder upload, as listed in the archive's central directory. {@code modified} is in epoch
+ * milliseconds.
+ */
+public record ArchiveEntry(String path, long size, long modified, boolean previewable) {
+}
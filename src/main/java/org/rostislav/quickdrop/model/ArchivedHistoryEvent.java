@@ -0,0 +1,10 @@
+package org.rostislav.quickdrop.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * A history event as written to the archive, one JSON object per line.
+ */
+public record ArchivedHistoryEvent(Long id, Long fileId, String fileUuid, FileHistoryType eventType,
+                                   LocalDateTime eventDate, String ipAddress, String userAgent) {
+}
@@ -6,6 +6,8 @@ public class ChunkInfo {
     public int chunkNumber;
     public File chunkFile;
     public boolean isLastChunk;
+    public String entryPath;
+    public long entrySize;
 
     public ChunkInfo() {
 
@@ -16,4 +18,10 @@ public class ChunkInfo {
         this.chunkFile = chunkFile;
         this.isLastChunk = isLastChunk;
     }
+
+    public ChunkInfo(int chunkNumber, File chunkFile, boolean isLastChunk, String entryPath, long entrySize) {
+        this(chunkNumber, chunkFile, isLastChunk);
+        this.entryPath = entryPath;
+        this.entrySize = entrySize;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,8 @@
+package org.rostislav.quickdrop.model;
+
+/**
+ * A CSV column as inferred from a sample of rows. The type is one of {@code integer}, {@code decimal},
+ * {@code boolean}, {@code date}, {@code datetime}, {@code text} or {@code empty}.
+ */
+public record CsvColumn(String name, String type, boolean nullable) {
+}
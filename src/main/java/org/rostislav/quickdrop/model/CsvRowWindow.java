@@ -0,0 +1,10 @@
+package org.rostislav.quickdrop.model;
+
+import java.util.List;
+
+/**
+ * A window of CSV rows. {@code from} is the zero-based number of the first data row, the header is not counted.
+ * {@code columns} is only filled in when the schema was requested.
+ */
+public record CsvRowWindow(long from, long totalRows, List<CsvColumn> columns, List<List<String>> rows, boolean truncatedRows) {
+}
@@ -0,0 +1,11 @@
+package org.rostislav.quickdrop.model;
+
+import org.rostislav.quickdrop.entity.FileHistoryDaily;
+
+import java.time.LocalDate;
+
+public record FileActionDailyDTO(String actionType, LocalDate day, long count, long uniqueIps) {
+    public FileActionDailyDTO(FileHistoryDaily daily) {
+        this(FileActionLogDTO.mapType(daily.getEventType()), daily.getDay(), daily.getEventCount(), daily.getUniqueIps());
+    }
+}
@@ -24,7 +24,7 @@ public class FileActionLogDTO {
         this.userAgent = historyLog.getUserAgent();
     }
 
-    private String mapType(FileHistoryType type) {
+    static String mapType(FileHistoryType type) {
         return switch (type) {
             case DOWNLOAD -> "Download";
             case RENEWAL -> "Lifetime Renewed";
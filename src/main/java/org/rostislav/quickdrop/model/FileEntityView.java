@@ -21,14 +21,20 @@ public class FileEntityView {
     }
 
     public FileEntityView(FileEntity fileEntity, long totalDownloads) {
-        this.id = fileEntity.id;
-        this.name = fileEntity.name;
-        this.uuid = fileEntity.uuid;
-        this.description = fileEntity.description;
-        this.size = formatFileSize(fileEntity.size);
-        this.keepIndefinitely = fileEntity.keepIndefinitely;
-        this.uploadDate = fileEntity.uploadDate;
+        this(fileEntity.id, fileEntity.name, fileEntity.uuid, fileEntity.description, fileEntity.size,
+                fileEntity.keepIndefinitely, fileEntity.uploadDate, fileEntity.hidden, totalDownloads);
+    }
+
+    public FileEntityView(Long id, String name, String uuid, String description, long size, boolean keepIndefinitely,
+                          LocalDate uploadDate, boolean hidden, long totalDownloads) {
+        this.id = id;
+        this.name = name;
+        this.uuid = uuid;
+        this.description = description;
+        this.size = formatFileSize(size);
+        this.keepIndefinitely = keepIndefinitely;
+        this.uploadDate = uploadDate;
         this.totalDownloads = totalDownloads;
-        this.hidden = fileEntity.hidden;
+        this.hidden = hidden;
     }
 }
@@ -0,0 +1,6 @@
+package org.rostislav.quickdrop.model;
+
+public enum FileKeyType {
+    PASSWORD,
+    SHARE_TOKEN
+}
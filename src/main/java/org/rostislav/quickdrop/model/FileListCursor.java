@@ -0,0 +1,80 @@
+package org.rostislav.quickdrop.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * A position in the file list, handed to the browser as an opaque token. The list is ordered by
+ * {@code (upload_date, id)} and a page seeks past the row the cursor points at, so a deep page costs as much as the
+ * first one. Search results are ordered by rank instead and are paged by offset.
+ */
+public record FileListCursor(Kind kind, long uploadDate, long id, long offset) {
+
+    public enum Kind {
+        AFTER,
+        BEFORE,
+        OFFSET
+    }
+
+    /**
+     * The page after the given row, going further back in time.
+     */
+    public static FileListCursor after(long uploadDate, long id) {
+        return new FileListCursor(Kind.AFTER, uploadDate, id, 0);
+    }
+
+    /**
+     * The page before the given row, going forward in time.
+     */
+    public static FileListCursor before(long uploadDate, long id) {
+        return new FileListCursor(Kind.BEFORE, uploadDate, id, 0);
+    }
+
+    public static FileListCursor offset(long offset) {
+        return new FileListCursor(Kind.OFFSET, 0, 0, offset);
+    }
+
+    public String encode() {
+        String value = switch (kind) {
+            case AFTER -> "a." + uploadDate + "." + id;
+            case BEFORE -> "b." + uploadDate + "." + id;
+            case OFFSET -> "o." + offset;
+        };
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Returns null for a missing token, which starts the list from the beginning.
+     *
+     * @throws IllegalArgumentException if the token was not produced by {@link #encode()}
+     */
+    public static FileListCursor decode(String token) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII).split("\\.", -1);
+        FileListCursor cursor = switch (parts[0]) {
+            case "a" -> parts.length == 3 ? after(Long.parseLong(parts[1]), Long.parseLong(parts[2])) : null;
+            case "b" -> parts.length == 3 ? before(Long.parseLong(parts[1]), Long.parseLong(parts[2])) : null;
+            // Search pages are requested by page number, an int
+            case "o" -> parts.length == 2 ? offset(Long.parseLong(parts[1])) : null;
+            default -> null;
+        };
+        if (cursor == null || cursor.offset < 0 || cursor.offset > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid file list cursor");
+        }
+        return cursor;
+    }
+
+    /**
+     * Whether the token is missing or was produced by {@link #encode()}.
+     */
+    public static boolean isValid(String token) {
+        try {
+            decode(token);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
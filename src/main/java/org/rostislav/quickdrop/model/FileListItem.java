@@ -0,0 +1,21 @@
+package org.rostislav.quickdrop.model;
+
+import java.time.LocalDate;
+
+import static org.rostislav.quickdrop.util.FileUtils.guessContentType;
+
+/**
+ * The columns the public file list shows. Pages of these are cached, so they hold no password hash and no folder
+ * manifest.
+ */
+public record FileListItem(Long id, String uuid, String name, String description, LocalDate uploadDate,
+                           boolean keepIndefinitely, boolean encrypted, boolean passwordProtected,
+                           PreviewCategory previewCategory) {
+
+    public FileListItem {
+        // Files uploaded before content types were stored have no category yet
+        if (previewCategory == null) {
+            previewCategory = PreviewCategory.fromContentType(guessContentType(name));
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.rostislav.quickdrop.model;
+
+import java.util.List;
+
+/**
+ * One page of the file list. The cursors are null when there is no page in that direction.
+ */
+public record FileListPage<T>(List<T> content, String previousCursor, String nextCursor, long totalElements) {
+
+    public boolean hasPrevious() {
+        return previousCursor != null;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,7 @@
+package org.rostislav.quickdrop.model;
+
+/**
+ * The two columns needed to find a file on disk and its rows in the database, without loading the whole entity.
+ */
+public record FileReference(Long id, String uuid) {
+}
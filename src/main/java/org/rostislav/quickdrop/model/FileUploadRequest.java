@@ -13,6 +13,7 @@ public class FileUploadRequest {
     public boolean folderUpload;
     public String folderName;
     public String folderManifest;
+    public String contentType;
 
     public FileUploadRequest() {
     }
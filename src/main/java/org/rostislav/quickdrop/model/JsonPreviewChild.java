@@ -0,0 +1,8 @@
+package org.rostislav.quickdrop.model;
+
+/**
+ * One member of an object or element of an array in a JSON preview. Containers report their number of children in
+ * {@code size}, scalars their value, cut off when {@code truncated} is set.
+ */
+public record JsonPreviewChild(String key, String path, String type, Long size, String value, boolean truncated) {
+}
@@ -0,0 +1,11 @@
+package org.rostislav.quickdrop.model;
+
+import java.util.List;
+
+/**
+ * The shallow structure of the JSON value at {@code path}, a JSON Pointer. For containers {@code children} holds a
+ * window starting at {@code offset}; {@code size} is only known once the window reaches the end of the container.
+ */
+public record JsonPreviewNode(String path, String type, String value, Long size, long offset, boolean hasMore,
+                              List<JsonPreviewChild> children) {
+}
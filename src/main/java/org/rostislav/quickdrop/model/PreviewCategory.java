@@ -0,0 +1,44 @@
+package org.rostislav.quickdrop.model;
+
+/**
+ * How a file is previewed, derived from its detected content type when the upload is merged.
+ */
+public enum PreviewCategory {
+    IMAGE("image"),
+    VIDEO("video"),
+    AUDIO("audio"),
+    PDF("pdf"),
+    JSON("json"),
+    CSV("csv"),
+    TEXT("text"),
+    NONE("");
+
+    public final String previewType;
+
+    PreviewCategory(String previewType) {
+        this.previewType = previewType;
+    }
+
+    /**
+     * JSON and CSV are text as well and fall back to the text preview.
+     */
+    public boolean isText() {
+        return this == TEXT || this == JSON || this == CSV;
+    }
+
+    public static PreviewCategory fromContentType(String contentType) {
+        if (contentType == null) {
+            return NONE;
+        }
+        return switch (contentType) {
+            case "image/png", "image/jpeg", "image/gif", "image/webp", "image/bmp", "image/svg+xml" -> IMAGE;
+            case "video/mp4", "video/webm", "video/ogg" -> VIDEO;
+            case "audio/mpeg", "audio/ogg", "audio/mp4", "audio/wav", "audio/flac" -> AUDIO;
+            case "application/pdf" -> PDF;
+            case "application/json", "application/x-ndjson" -> JSON;
+            case "text/csv", "text/tab-separated-values" -> CSV;
+            case "text/plain", "text/markdown", "application/xml" -> TEXT;
+            default -> NONE;
+        };
+    }
+}
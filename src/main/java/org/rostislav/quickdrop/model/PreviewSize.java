@@ -0,0 +1,30 @@
+package org.rostislav.quickdrop.model;
+
+import java.util.Locale;
+
+/**
+ * Target widths for rendered previews. Images are only ever scaled down to the target, and a width of 0 keeps
+ * the natural size.
+ */
+public enum PreviewSize {
+    THUMBNAIL(256),
+    PAGE(1280),
+    FULL(0);
+
+    public final int maxWidth;
+
+    PreviewSize(int maxWidth) {
+        this.maxWidth = maxWidth;
+    }
+
+    public static PreviewSize fromParameter(String value) {
+        if (value == null || value.isBlank()) {
+            return FULL;
+        }
+        return switch (value.toLowerCase(Locale.ROOT)) {
+            case "thumbnail", "thumb" -> THUMBNAIL;
+            case "page" -> PAGE;
+            default -> FULL;
+        };
+    }
+}
@@ -0,0 +1,9 @@
+package org.rostislav.quickdrop.model;
+
+/**
+ * The outcome of one pass over the database and the storage directory. Missing files have a database row but nothing
+ * on disk, orphaned files are on disk without a row.
+ */
+public record StorageReconciliationReport(long rows, long files, long missingFiles, long orphanedFiles,
+                                          long removedRows, long quarantinedFiles) {
+}
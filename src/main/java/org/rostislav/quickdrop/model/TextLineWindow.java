@@ -0,0 +1,9 @@
+package org.rostislav.quickdrop.model;
+
+import java.util.List;
+
+/**
+ * A window of lines from a text preview. {@code from} is the zero-based number of the first line.
+ */
+public record TextLineWindow(long from, long totalLines, List<String> lines, boolean truncatedLines) {
+}
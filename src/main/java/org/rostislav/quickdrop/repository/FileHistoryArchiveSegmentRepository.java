@@ -0,0 +1,21 @@
+package org.rostislav.quickdrop.repository;
+
+import org.rostislav.quickdrop.entity.FileHistoryArchiveSegment;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Set;
+
+@Transactional(readOnly = true)
+public interface FileHistoryArchiveSegmentRepository extends JpaRepository<FileHistoryArchiveSegment, Long> {
+    @Query("SELECT s.fileName FROM FileHistoryArchiveSegment s JOIN s.fileIds fileId WHERE fileId = :fileId ORDER BY s.id")
+    List<String> findFileNamesByFileId(Long fileId);
+
+    @Query("SELECT COUNT(s) FROM FileHistoryArchiveSegment s JOIN s.fileIds fileId WHERE fileId = :fileId")
+    long countByFileId(Long fileId);
+
+    @Query("SELECT s.fileName FROM FileHistoryArchiveSegment s")
+    Set<String> findAllFileNames();
+}
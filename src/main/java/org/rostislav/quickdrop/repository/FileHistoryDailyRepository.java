@@ -0,0 +1,55 @@
+package org.rostislav.quickdrop.repository;
+
+import org.rostislav.quickdrop.entity.FileHistoryDaily;
+import org.rostislav.quickdrop.model.FileHistoryType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Transactional(readOnly = true)
+public interface FileHistoryDailyRepository extends JpaRepository<FileHistoryDaily, Long> {
+    @Query("SELECT COALESCE(SUM(d.eventCount), 0) FROM FileHistoryDaily d WHERE d.eventType = :eventType")
+    long sumByEventType(FileHistoryType eventType);
+
+    @Query("SELECT COALESCE(SUM(d.eventCount), 0) FROM FileHistoryDaily d WHERE d.file.uuid = :uuid AND d.eventType = :eventType")
+    long sumByFileAndType(String uuid, FileHistoryType eventType);
+
+    @Query("SELECT d FROM FileHistoryDaily d WHERE d.file.uuid = :uuid AND d.day < :before ORDER BY d.day DESC, d.eventType")
+    List<FileHistoryDaily> findByFileUuidBefore(String uuid, LocalDate before);
+
+    /**
+     * Counts the events between {@code start} and {@code end} that are not rolled up yet into the rows of
+     * {@code day}. The range is a single day, so normally no row exists yet. If one does, because events arrived
+     * late, the counts are added and the larger unique IP count is kept, the exact number cannot be recovered.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = """
+            INSERT INTO file_history_daily (file_id, event_type, day, event_count, unique_ips)
+            SELECT file_id, event_type, :day, COUNT(*), COUNT(DISTINCT ip_address)
+            FROM file_history_log
+            WHERE rolled_up = 0 AND event_date >= :start AND event_date < :end
+            GROUP BY file_id, event_type
+            ON CONFLICT (file_id, event_type, day) DO UPDATE SET
+                event_count = event_count + excluded.event_count,
+                unique_ips = MAX(unique_ips, excluded.unique_ips)
+            """, nativeQuery = true)
+    int rollUpDay(@Param("day") LocalDate day, @Param("start") LocalDateTime start, @Param("end") LocalDateTime end);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM FileHistoryDaily d WHERE d.file.id = :fileId")
+    void deleteByFileId(Long fileId);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM FileHistoryDaily d WHERE d.file.id IN :fileIds")
+    void deleteByFileIds(Collection<Long> fileIds);
+}
@@ -1,25 +1,79 @@
 package org.rostislav.quickdrop.repository;
 
-import jakarta.transaction.Transactional;
 import org.rostislav.quickdrop.entity.FileHistoryLog;
+import org.rostislav.quickdrop.model.ArchivedHistoryEvent;
 import org.rostislav.quickdrop.model.FileHistoryType;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
+@Transactional(readOnly = true)
 public interface FileHistoryLogRepository extends JpaRepository<FileHistoryLog, Long> {
-    long countByEventType(FileHistoryType eventType);
+    /**
+     * Counts only the events that are not in file_history_daily yet, add the rolled up counts for a total.
+     */
+    @Query("SELECT COUNT(fhl) FROM FileHistoryLog fhl WHERE fhl.eventType = :eventType AND fhl.rolledUp = false")
+    long countNotRolledUpByEventType(FileHistoryType eventType);
 
-    @Query("SELECT COUNT(fhl) FROM FileHistoryLog fhl WHERE fhl.file.uuid = :uuid AND fhl.eventType = :eventType")
-    long countByFileAndType(String uuid, FileHistoryType eventType);
+    @Query("SELECT COUNT(fhl) FROM FileHistoryLog fhl WHERE fhl.file.uuid = :uuid AND fhl.eventType = :eventType AND fhl.rolledUp = false")
+    long countNotRolledUpByFileAndType(String uuid, FileHistoryType eventType);
 
-    @Query("SELECT fhl FROM FileHistoryLog fhl WHERE fhl.file.uuid = :uuid ORDER BY fhl.eventDate DESC")
-    List<FileHistoryLog> findByFileUuidOrderByEventDateDesc(String uuid);
+    @Query("SELECT fhl FROM FileHistoryLog fhl WHERE fhl.file.uuid = :uuid AND fhl.eventDate >= :since ORDER BY fhl.eventDate DESC")
+    List<FileHistoryLog> findByFileUuidSince(String uuid, LocalDateTime since, Limit limit);
+
+    @Query("SELECT MIN(fhl.eventDate) FROM FileHistoryLog fhl WHERE fhl.rolledUp = false")
+    LocalDateTime findOldestNotRolledUpEventDate();
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE FileHistoryLog fhl SET fhl.rolledUp = true WHERE fhl.rolledUp = false AND fhl.eventDate >= :start AND fhl.eventDate < :end")
+    int markRolledUp(LocalDateTime start, LocalDateTime end);
+
+    /**
+     * Deletes at most {@code batchSize} rolled up events older than the cutoff, so a large purge does not hold the
+     * single writer connection for long.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = """
+            DELETE FROM file_history_log WHERE id IN (
+                SELECT id FROM file_history_log WHERE rolled_up = 1 AND event_date < :cutoff LIMIT :batchSize
+            )
+            """, nativeQuery = true)
+    int deleteRolledUpBefore(@Param("cutoff") LocalDateTime cutoff, @Param("batchSize") int batchSize);
+
+    /**
+     * Rolled up events older than the cutoff in the order they happened, the ids break ties within a millisecond.
+     */
+    @Query("""
+            SELECT new org.rostislav.quickdrop.model.ArchivedHistoryEvent(
+                fhl.id, fhl.file.id, fhl.file.uuid, fhl.eventType, fhl.eventDate, fhl.ipAddress, fhl.userAgent
+            )
+            FROM FileHistoryLog fhl
+            WHERE fhl.rolledUp = true AND fhl.eventDate < :cutoff
+            ORDER BY fhl.eventDate, fhl.id
+            """)
+    List<ArchivedHistoryEvent> findArchivableBefore(LocalDateTime cutoff, Limit limit);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM FileHistoryLog fhl WHERE fhl.id IN :ids")
+    int deleteByIds(Collection<Long> ids);
 
     @Modifying
     @Transactional
     @Query("DELETE FROM FileHistoryLog fhl WHERE fhl.file.id = :fileId")
     void deleteByFileId(Long fileId);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM FileHistoryLog fhl WHERE fhl.file.id IN :fileIds")
+    void deleteByFileIds(Collection<Long> fileIds);
 }
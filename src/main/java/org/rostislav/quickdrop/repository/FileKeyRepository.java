@@ -0,0 +1,37 @@
+package org.rostislav.quickdrop.repository;
+
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.entity.FileKeyEntity;
+import org.rostislav.quickdrop.entity.ShareTokenEntity;
+import org.rostislav.quickdrop.model.FileKeyType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Optional;
+
+@Transactional(readOnly = true)
+public interface FileKeyRepository extends JpaRepository<FileKeyEntity, Long> {
+    Optional<FileKeyEntity> findFirstByFileAndKeyType(FileEntity file, FileKeyType keyType);
+
+    Optional<FileKeyEntity> findFirstByShareToken(ShareTokenEntity shareToken);
+
+    boolean existsByShareToken(ShareTokenEntity shareToken);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM FileKeyEntity k WHERE k.file.id = :fileId")
+    void deleteByFileId(Long fileId);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM FileKeyEntity k WHERE k.file.id IN :fileIds")
+    void deleteByFileIds(Collection<Long> fileIds);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM FileKeyEntity k WHERE k.shareToken IN :shareTokens")
+    void deleteByShareTokens(Collection<ShareTokenEntity> shareTokens);
+}
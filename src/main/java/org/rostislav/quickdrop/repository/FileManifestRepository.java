@@ -0,0 +1,25 @@
+package org.rostislav.quickdrop.repository;
+
+import org.rostislav.quickdrop.entity.FileManifest;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+
+@Transactional(readOnly = true)
+public interface FileManifestRepository extends JpaRepository<FileManifest, Long> {
+    @Query("SELECT m.manifest FROM FileManifest m WHERE m.fileId = :fileId")
+    String findManifestByFileId(Long fileId);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM FileManifest m WHERE m.fileId = :fileId")
+    void deleteByFileId(Long fileId);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM FileManifest m WHERE m.fileId IN :fileIds")
+    void deleteByFileIds(Collection<Long> fileIds);
+}
@@ -2,59 +2,145 @@ package org.rostislav.quickdrop.repository;
 
 import org.rostislav.quickdrop.entity.FileEntity;
 import org.rostislav.quickdrop.model.FileEntityView;
+import org.rostislav.quickdrop.model.FileListItem;
+import org.rostislav.quickdrop.model.FileReference;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+@Transactional(readOnly = true)
 public interface FileRepository extends JpaRepository<FileEntity, Long> {
+    String SEARCH_MATCHES = """
+            FROM (SELECT rowid AS id, rank AS score FROM file_search WHERE file_search MATCH :terms
+                  UNION ALL
+                  SELECT rowid AS id, 0 AS score FROM file_uuid_search WHERE file_uuid_search MATCH :uuidFragment) m
+            JOIN file_entity f ON f.id = m.id
+            WHERE (:includeHidden OR f.hidden = 0)
+            """;
+
     @Query("SELECT f FROM FileEntity f WHERE f.uuid = :uuid")
     Optional<FileEntity> findByUUID(@Param("uuid") String uuid);
 
-    @Query("SELECT f FROM FileEntity f WHERE f.keepIndefinitely = false AND f.uploadDate < :thresholdDate")
-    List<FileEntity> getFilesForDeletion(@Param("thresholdDate") LocalDate thresholdDate);
+    /**
+     * One page of the files uploaded before the threshold, in id order. Pass the last id of a page to get the next
+     * one, files that could not be deleted are skipped that way instead of being returned again.
+     */
+    @Query("""
+            SELECT new org.rostislav.quickdrop.model.FileReference(f.id, f.uuid)
+            FROM FileEntity f
+            WHERE f.keepIndefinitely = false AND f.uploadDate < :thresholdDate AND f.id > :afterId
+            ORDER BY f.id
+            """)
+    List<FileReference> findExpiredFiles(@Param("thresholdDate") LocalDate thresholdDate, @Param("afterId") long afterId, Limit limit);
+
+    /**
+     * The newest files, as {@code [id, upload_date]} rows. The upload date is the raw stored value, it is only
+     * handed back in a cursor.
+     */
+    @Query(value = "SELECT id, upload_date FROM file_entity WHERE (:includeHidden OR hidden = 0) ORDER BY upload_date DESC, id DESC LIMIT :limit",
+            nativeQuery = true)
+    List<Object[]> findFirstFileKeys(@Param("includeHidden") boolean includeHidden, @Param("limit") int limit);
+
+    /**
+     * The files listed after the given one. Files uploaded on the same day share the upload date, so the seek is
+     * split in two: the rest of that day by id, then the earlier days. Each half is a range in the
+     * {@code (upload_date, id)} index, no matter how deep the page is.
+     */
+    @Query(value = """
+            SELECT id, upload_date FROM (
+                SELECT * FROM (SELECT id, upload_date FROM file_entity
+                               WHERE (:includeHidden OR hidden = 0) AND upload_date = :uploadDate AND id < :id
+                               ORDER BY id DESC LIMIT :limit)
+                UNION ALL
+                SELECT * FROM (SELECT id, upload_date FROM file_entity
+                               WHERE (:includeHidden OR hidden = 0) AND upload_date < :uploadDate
+                               ORDER BY upload_date DESC, id DESC LIMIT :limit))
+            ORDER BY upload_date DESC, id DESC LIMIT :limit
+            """, nativeQuery = true)
+    List<Object[]> findFileKeysAfter(@Param("uploadDate") long uploadDate, @Param("id") long id,
+                                     @Param("includeHidden") boolean includeHidden, @Param("limit") int limit);
+
+    /**
+     * The files listed before the given one, nearest first.
+     */
+    @Query(value = """
+            SELECT id, upload_date FROM (
+                SELECT * FROM (SELECT id, upload_date FROM file_entity
+                               WHERE (:includeHidden OR hidden = 0) AND upload_date = :uploadDate AND id > :id
+                               ORDER BY id LIMIT :limit)
+                UNION ALL
+                SELECT * FROM (SELECT id, upload_date FROM file_entity
+                               WHERE (:includeHidden OR hidden = 0) AND upload_date > :uploadDate
+                               ORDER BY upload_date, id LIMIT :limit))
+            ORDER BY upload_date, id LIMIT :limit
+            """, nativeQuery = true)
+    List<Object[]> findFileKeysBefore(@Param("uploadDate") long uploadDate, @Param("id") long id,
+                                      @Param("includeHidden") boolean includeHidden, @Param("limit") int limit);
+
+    /**
+     * One page of UUIDs in {@code (after, before)}, in the order of the UUID index.
+     */
+    @Query("SELECT f.uuid FROM FileEntity f WHERE f.uuid > :after AND f.uuid < :before ORDER BY f.uuid")
+    List<String> findUuidsBetween(@Param("after") String after, @Param("before") String before, Limit limit);
 
-    @Query("SELECT f FROM FileEntity f WHERE f.hidden = false ORDER BY f.uploadDate DESC")
-    Page<FileEntity> findAllNotHiddenFiles(Pageable pageable);
+    /**
+     * Cached until the next change to the file list, so paging does not count the table again.
+     */
+    @Cacheable(value = "publicFiles", key = "'count'")
+    @Query("SELECT COUNT(f) FROM FileEntity f WHERE f.hidden = false")
+    long countNotHiddenFiles();
+
+    @Cacheable(value = "adminFiles", key = "'count'")
+    @Query("SELECT COUNT(f) FROM FileEntity f")
+    long countAllFiles();
 
     @Query("SELECT SUM(f.size) FROM FileEntity f")
     Long totalFileSizeForAllFiles();
 
-    @Query(value = "SELECT f FROM FileEntity f WHERE f.hidden = false AND (LOWER(f.name) LIKE LOWER(CONCAT('%', :searchString, '%')) OR LOWER(f.description) LIKE LOWER(CONCAT('%', :searchString, '%')) OR LOWER(f.uuid) LIKE LOWER(CONCAT('%', :searchString, '%'))) ORDER BY f.uploadDate DESC",
-            countQuery = "SELECT COUNT(f) FROM FileEntity f WHERE f.hidden = false AND (LOWER(f.name) LIKE LOWER(CONCAT('%', :searchString, '%')) OR LOWER(f.description) LIKE LOWER(CONCAT('%', :searchString, '%')) OR LOWER(f.uuid) LIKE LOWER(CONCAT('%', :searchString, '%')))")
-    Page<FileEntity> searchNotHiddenFiles(@Param("searchString") String query, Pageable pageable);
+    @Query("""
+            SELECT new org.rostislav.quickdrop.model.FileListItem(
+                f.id, f.uuid, f.name, f.description, f.uploadDate, f.keepIndefinitely, f.encrypted,
+                CASE WHEN f.passwordHash IS NOT NULL AND f.passwordHash <> '' THEN true ELSE false END,
+                f.previewCategory
+            )
+            FROM FileEntity f
+            WHERE f.id IN :ids
+            """)
+    List<FileListItem> findListItemsByIds(@Param("ids") Collection<Long> ids);
 
-    @Query(value = """
+    @Query("""
                 SELECT new org.rostislav.quickdrop.model.FileEntityView(
-                    f,
-                    CAST(SUM(CASE WHEN dl.id IS NOT NULL THEN 1 ELSE 0 END) AS long)
+                    f.id, f.name, f.uuid, f.description, f.size, f.keepIndefinitely, f.uploadDate, f.hidden,
+                    (SELECT COALESCE(SUM(d.eventCount), 0) FROM FileHistoryDaily d
+                        WHERE d.file = f AND d.eventType = 'DOWNLOAD')
+                    + (SELECT COUNT(dl) FROM FileHistoryLog dl
+                        WHERE dl.file = f AND dl.eventType = 'DOWNLOAD' AND dl.rolledUp = false)
                 )
                 FROM FileEntity f
-                LEFT JOIN FileHistoryLog dl ON dl.file.id = f.id AND dl.eventType = 'DOWNLOAD'
-                GROUP BY f
-                ORDER BY f.uploadDate DESC
-            """,
-            countQuery = "SELECT COUNT(f) FROM FileEntity f")
-    Page<FileEntityView> findFilesWithDownloadCounts(Pageable pageable);
+                WHERE f.id IN :ids
+            """)
+    List<FileEntityView> findFilesWithDownloadCountsByIds(@Param("ids") Collection<Long> ids);
 
-    @Query(value = """
-                SELECT new org.rostislav.quickdrop.model.FileEntityView(
-                    f,
-                    CAST(SUM(CASE WHEN dl.id IS NOT NULL THEN 1 ELSE 0 END) AS long)
-                )
-                FROM FileEntity f
-                LEFT JOIN FileHistoryLog dl ON dl.file.id = f.id AND dl.eventType = 'DOWNLOAD'
-                WHERE (LOWER(f.name) LIKE LOWER(CONCAT('%', :searchString, '%'))
-                    OR LOWER(f.description) LIKE LOWER(CONCAT('%', :searchString, '%'))
-                    OR LOWER(f.uuid) LIKE LOWER(CONCAT('%', :searchString, '%')))
-                GROUP BY f
-                ORDER BY f.uploadDate DESC
-            """,
-            countQuery = "SELECT COUNT(f) FROM FileEntity f WHERE (LOWER(f.name) LIKE LOWER(CONCAT('%', :searchString, '%')) OR LOWER(f.description) LIKE LOWER(CONCAT('%', :searchString, '%')) OR LOWER(f.uuid) LIKE LOWER(CONCAT('%', :searchString, '%')))")
-    Page<FileEntityView> searchFilesWithDownloadCounts(@Param("searchString") String query, Pageable pageable);
+    /**
+     * Ranks files by relevance, UUID substring matches come after name and description matches. Returns only ids,
+     * the entities of a page are loaded afterwards. The driver reports the ids as Integer or Long depending on their
+     * size.
+     */
+    @Query(value = "SELECT m.id " + SEARCH_MATCHES + " GROUP BY m.id ORDER BY MIN(m.score), f.upload_date DESC",
+            countQuery = "SELECT COUNT(DISTINCT m.id) " + SEARCH_MATCHES,
+            nativeQuery = true)
+    Page<Number> searchFileIds(@Param("terms") String terms,
+                             @Param("uuidFragment") String uuidFragment,
+                             @Param("includeHidden") boolean includeHidden,
+                             Pageable pageable);
 }
@@ -3,18 +3,28 @@ package org.rostislav.quickdrop.repository;
 import org.rostislav.quickdrop.entity.FileEntity;
 import org.rostislav.quickdrop.entity.ShareTokenEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+@Transactional(readOnly = true)
 public interface ShareTokenRepository extends JpaRepository<ShareTokenEntity, Long> {
     Optional<ShareTokenEntity> findByShareToken(String shareToken);
 
     boolean existsByShareToken(String shareToken);
 
+    @Transactional
     void deleteAllByFile(FileEntity fileEntity);
 
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ShareTokenEntity s WHERE s.file.id IN :fileIds")
+    void deleteByFileIds(Collection<Long> fileIds);
+
     @Query("SELECT s FROM ShareTokenEntity s WHERE s.tokenExpirationDate < CURRENT_DATE OR s.numberOfAllowedDownloads = 0")
     List<ShareTokenEntity> getShareTokenEntitiesForDeletion();
 
@@ -1,11 +1,17 @@
 package org.rostislav.quickdrop.service;
 
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.entity.FileHistoryDaily;
 import org.rostislav.quickdrop.entity.FileHistoryLog;
 import org.rostislav.quickdrop.model.AnalyticsDataView;
 import org.rostislav.quickdrop.model.FileHistoryType;
+import org.rostislav.quickdrop.repository.FileHistoryDailyRepository;
 import org.rostislav.quickdrop.repository.FileHistoryLogRepository;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 
@@ -13,17 +19,27 @@ import static org.rostislav.quickdrop.util.FileUtils.formatFileSize;
 
 @Service
 public class AnalyticsService {
+    // The history page lists single events up to this many, older ones are still in the daily totals
+    private static final int MAX_HISTORY_EVENTS = 500;
+
     private final FileService fileService;
     private final FileHistoryLogRepository fileHistoryLogRepository;
+    private final FileHistoryDailyRepository fileHistoryDailyRepository;
+    private final HistoryRollupService historyRollupService;
+    private final HistoryArchiveService historyArchiveService;
 
-    public AnalyticsService(FileService fileService, FileHistoryLogRepository fileHistoryLogRepository) {
+    public AnalyticsService(FileService fileService, FileHistoryLogRepository fileHistoryLogRepository, FileHistoryDailyRepository fileHistoryDailyRepository, HistoryRollupService historyRollupService, HistoryArchiveService historyArchiveService) {
         this.fileService = fileService;
         this.fileHistoryLogRepository = fileHistoryLogRepository;
+        this.fileHistoryDailyRepository = fileHistoryDailyRepository;
+        this.historyRollupService = historyRollupService;
+        this.historyArchiveService = historyArchiveService;
     }
 
     @Cacheable("analytics")
     public AnalyticsDataView getAnalytics() {
-        long totalDownloads = fileHistoryLogRepository.countByEventType(FileHistoryType.DOWNLOAD);
+        long totalDownloads = fileHistoryDailyRepository.sumByEventType(FileHistoryType.DOWNLOAD)
+                + fileHistoryLogRepository.countNotRolledUpByEventType(FileHistoryType.DOWNLOAD);
         long totalSpaceUsed = fileService.calculateTotalSpaceUsed();
         long fileCount = fileService.getFileCount();
 
@@ -40,10 +56,30 @@ public class AnalyticsService {
     }
 
     public long getTotalDownloadsByFile(String uuid) {
-        return fileHistoryLogRepository.countByFileAndType(uuid, FileHistoryType.DOWNLOAD);
+        return fileHistoryDailyRepository.sumByFileAndType(uuid, FileHistoryType.DOWNLOAD)
+                + fileHistoryLogRepository.countNotRolledUpByFileAndType(uuid, FileHistoryType.DOWNLOAD);
     }
 
+    /**
+     * The single events still within the retention period, newest first.
+     */
     public List<FileHistoryLog> getHistoryByFile(String fileUUID) {
-        return fileHistoryLogRepository.findByFileUuidOrderByEventDateDesc(fileUUID);
+        return fileHistoryLogRepository.findByFileUuidSince(fileUUID,
+                historyRollupService.rawHistoryCutoff().atStartOfDay(), Limit.of(MAX_HISTORY_EVENTS));
+    }
+
+    /**
+     * Daily totals for the days before the retention period, whose single events are purged.
+     */
+    public List<FileHistoryDaily> getDailyHistoryByFile(String fileUUID) {
+        return fileHistoryDailyRepository.findByFileUuidBefore(fileUUID, historyRollupService.rawHistoryCutoff());
+    }
+
+    public long getArchivedSegmentCount(FileEntity fileEntity) {
+        return historyArchiveService.countSegmentsForFile(fileEntity);
+    }
+
+    public ResponseEntity<StreamingResponseBody> downloadArchivedHistory(FileEntity fileEntity) {
+        return historyArchiveService.downloadArchivedEvents(fileEntity);
     }
 }
\ No newline at end of file
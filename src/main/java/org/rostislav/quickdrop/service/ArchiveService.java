@@ -0,0 +1,229 @@
+package org.rostislav.quickdrop.service;
+
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.model.ArchiveEntry;
+import org.rostislav.quickdrop.model.PreviewSize;
+import org.rostislav.quickdrop.util.ZipEntryIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.rostislav.quickdrop.util.FileUtils.*;
+
+/**
+ * Lists and extracts single files from folder uploads without unpacking the archive. The entry index is read from
+ * the ZIP central directory and kept in memory, an entry is then streamed straight from its offset in the stored
+ * file. Encrypted uploads cannot be read at an offset and are only available as a whole.
+ */
+@Service
+public class ArchiveService {
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveService.class);
+    private static final int MAX_ENTRIES = 1_000_000;
+    private static final int MAX_CACHED_INDEXES = 32;
+
+    private final ApplicationSettingsService applicationSettingsService;
+    private final SvgRasterizationService svgRasterizationService;
+    private final PreviewRenderService previewRenderService;
+    private final Map<String, Object> readLocks = new ConcurrentHashMap<>();
+    private final Map<String, ZipEntryIndex> loadedIndexes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ZipEntryIndex> eldest) {
+            return size() > MAX_CACHED_INDEXES;
+        }
+    };
+
+    public ArchiveService(ApplicationSettingsService applicationSettingsService, SvgRasterizationService svgRasterizationService, PreviewRenderService previewRenderService) {
+        this.applicationSettingsService = applicationSettingsService;
+        this.svgRasterizationService = svgRasterizationService;
+        this.previewRenderService = previewRenderService;
+    }
+
+    public boolean isBrowsable(FileEntity fileEntity) {
+        return fileEntity != null && fileEntity.folderUpload && !fileEntity.encrypted;
+    }
+
+    public ResponseEntity<List<ArchiveEntry>> entriesResponse(FileEntity fileEntity) {
+        if (fileEntity == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!isBrowsable(fileEntity)) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+        }
+
+        ZipEntryIndex index;
+        try {
+            index = getIndex(fileEntity.uuid);
+        } catch (IOException e) {
+            logger.info("Unreadable archive {}: {}", fileEntity.uuid, e.getMessage());
+            return ResponseEntity.unprocessableEntity().build();
+        }
+
+        boolean previewsEnabled = applicationSettingsService.isPreviewEnabled();
+        List<ArchiveEntry> entries = index.getEntries().stream()
+                .filter(entry -> !entry.isDirectory())
+                .map(entry -> new ArchiveEntry(entry.name(), entry.size(), entry.modified(), previewsEnabled && isPreviewableEntry(entry)))
+                .toList();
+        return ResponseEntity.ok(entries);
+    }
+
+    public ResponseEntity<StreamingResponseBody> downloadEntry(FileEntity fileEntity, String path) {
+        if (fileEntity == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!isBrowsable(fileEntity)) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+        }
+
+        try {
+            Optional<ZipEntryIndex.Entry> entry = findEntry(fileEntity.uuid, path);
+            if (entry.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+
+            InputStream inputStream = getIndex(fileEntity.uuid).open(sourcePath(fileEntity.uuid), entry.get());
+            logger.info("Sending entry {} of file {}", path, fileEntity.uuid);
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + URLEncoder.encode(fileName(entry.get()), StandardCharsets.UTF_8) + "\"")
+                    .header(HttpHeaders.CONTENT_TYPE, "application/octet-stream")
+                    .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(entry.get().size()))
+                    .header("X-Accel-Buffering", "no")
+                    .body(getStreamingResponseBody(inputStream));
+        } catch (IOException e) {
+            logger.info("Failed to open entry {} of file {}: {}", path, fileEntity.uuid, e.getMessage());
+            return ResponseEntity.unprocessableEntity().build();
+        }
+    }
+
+    public ResponseEntity<StreamingResponseBody> previewEntry(FileEntity fileEntity, String path, boolean manualOverride, PreviewSize size) {
+        if (fileEntity == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!applicationSettingsService.isPreviewEnabled()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (!isBrowsable(fileEntity)) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+        }
+
+        Optional<ZipEntryIndex.Entry> entry;
+        try {
+            entry = findEntry(fileEntity.uuid, path);
+        } catch (IOException e) {
+            logger.info("Unreadable archive {}: {}", fileEntity.uuid, e.getMessage());
+            return ResponseEntity.unprocessableEntity().build();
+        }
+        if (entry.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!isPreviewableEntry(entry.get())) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+        }
+        if (entry.get().size() > applicationSettingsService.getMaxPreviewSizeBytes() && !manualOverride) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_REQUIRED).build();
+        }
+
+        String name = fileName(entry.get());
+        InputStream inputStream;
+        try {
+            inputStream = getIndex(fileEntity.uuid).open(sourcePath(fileEntity.uuid), entry.get());
+        } catch (IOException e) {
+            logger.info("Failed to open entry {} of file {}: {}", path, fileEntity.uuid, e.getMessage());
+            return ResponseEntity.unprocessableEntity().build();
+        }
+
+        if (!name.toLowerCase(Locale.ROOT).endsWith(".svg")) {
+            return inlinePreviewResponse(name, inputStream, responseContentType(guessContentType(name)));
+        }
+
+        try (InputStream svgInputStream = inputStream) {
+            byte[] pngPreview = previewRenderService.render(() -> svgRasterizationService.rasterizeToPng(svgInputStream, size));
+            return inlinePreviewResponse(name, new ByteArrayInputStream(pngPreview), "image/png");
+        } catch (PreviewRenderService.RenderRejectedException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .build();
+        } catch (IOException e) {
+            logger.warn("Failed to rasterize SVG entry {} of file {}: {}", path, fileEntity.uuid, e.getMessage());
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+        }
+    }
+
+    public void evict(String uuid) {
+        synchronized (loadedIndexes) {
+            loadedIndexes.remove(uuid);
+        }
+    }
+
+    private Optional<ZipEntryIndex.Entry> findEntry(String uuid, String path) throws IOException {
+        if (path == null || path.isEmpty()) {
+            return Optional.empty();
+        }
+        return getIndex(uuid).find(path).filter(entry -> !entry.isDirectory());
+    }
+
+    private ZipEntryIndex getIndex(String uuid) throws IOException {
+        Path source = sourcePath(uuid);
+        ZipEntryIndex cached;
+        synchronized (loadedIndexes) {
+            cached = loadedIndexes.get(uuid);
+        }
+        if (cached != null && cached.matches(source)) {
+            return cached;
+        }
+
+        // Large archives have large central directories, concurrent requests for the same file share one read
+        Object lock = readLocks.computeIfAbsent(uuid, key -> new Object());
+        try {
+            synchronized (lock) {
+                synchronized (loadedIndexes) {
+                    cached = loadedIndexes.get(uuid);
+                }
+                if (cached != null && cached.matches(source)) {
+                    return cached;
+                }
+
+                long started = System.currentTimeMillis();
+                ZipEntryIndex index = ZipEntryIndex.read(source, MAX_ENTRIES);
+                logger.info("Read archive index for file {}: {} entries in {} ms", uuid, index.getEntries().size(),
+                        System.currentTimeMillis() - started);
+                synchronized (loadedIndexes) {
+                    loadedIndexes.put(uuid, index);
+                }
+                return index;
+            }
+        } finally {
+            readLocks.remove(uuid, lock);
+        }
+    }
+
+    private Path sourcePath(String uuid) {
+        return Path.of(applicationSettingsService.getFileStoragePath(), uuid);
+    }
+
+    private static boolean isPreviewableEntry(ZipEntryIndex.Entry entry) {
+        String name = entry.name();
+        return isPreviewableImage(name) || isPreviewableText(name) || isPreviewablePdf(name);
+    }
+
+    private static String fileName(ZipEntryIndex.Entry entry) {
+        String name = entry.name();
+        return name.substring(name.lastIndexOf('/') + 1);
+    }
+}
@@ -1,41 +1,61 @@
 package org.rostislav.quickdrop.service;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.rostislav.quickdrop.entity.FileEntity;
 import org.rostislav.quickdrop.model.ChunkInfo;
 import org.rostislav.quickdrop.model.FileUploadRequest;
 import org.rostislav.quickdrop.repository.FileRepository;
+import org.rostislav.quickdrop.util.ContentTypeDetector;
+import org.rostislav.quickdrop.util.ZipStreamWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.crypto.SecretKey;
 import java.io.*;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.*;
 
 @Service
 public class AsyncFileMergeService {
     private static final Logger logger = LoggerFactory.getLogger(AsyncFileMergeService.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int ENTRY_BUFFER_SIZE = 64 * 1024;
     private final ConcurrentMap<String, MergeTask> mergeTasks = new ConcurrentHashMap<>();
     private final ExecutorService executorService = Executors.newCachedThreadPool();
     private final ApplicationSettingsService applicationSettingsService;
     private final FileEncryptionService fileEncryptionService;
     private final FileService fileService;
+    private final ThumbnailService thumbnailService;
 
     private final File tempDir = new File(System.getProperty("java.io.tmpdir"));
     private final FileRepository fileRepository;
 
     public AsyncFileMergeService(ApplicationSettingsService applicationSettingsService,
                                  FileEncryptionService fileEncryptionService,
-                                 FileService fileService, FileRepository fileRepository) {
+                                 FileService fileService, FileRepository fileRepository,
+                                 ThumbnailService thumbnailService) {
         this.applicationSettingsService = applicationSettingsService;
         this.fileEncryptionService = fileEncryptionService;
         this.fileService = fileService;
         this.fileRepository = fileRepository;
+        this.thumbnailService = thumbnailService;
     }
 
     public FileEntity submitChunk(FileUploadRequest request, MultipartFile multipartChunk, int chunkNumber) throws IOException {
+        return submitChunk(request, multipartChunk, chunkNumber, null, 0);
+    }
+
+    /**
+     * Folder uploads send each file as its own run of chunks tagged with the file's path and size. Those chunks are
+     * appended to a ZIP archive as they arrive instead of to a plain file.
+     */
+    public FileEntity submitChunk(FileUploadRequest request, MultipartFile multipartChunk, int chunkNumber, String entryPath, long entrySize) throws IOException {
         File savedChunk = new File(tempDir, request.fileName + "_chunk_" + chunkNumber);
         multipartChunk.transferTo(savedChunk);
         logger.info("Chunk {} for file {} saved to {}", chunkNumber, request.fileName, savedChunk.getAbsolutePath());
@@ -46,7 +66,7 @@ public class AsyncFileMergeService {
             return task;
         });
         boolean isLastChunk = (chunkNumber == request.totalChunks - 1);
-        mergeTask.enqueueChunk(new ChunkInfo(chunkNumber, savedChunk, isLastChunk));
+        mergeTask.enqueueChunk(new ChunkInfo(chunkNumber, savedChunk, isLastChunk, entryPath, entrySize));
 
         if (isLastChunk) {
             try {
@@ -70,6 +90,30 @@ public class AsyncFileMergeService {
         }
     }
 
+    /**
+     * Lists the archive in the same shape the upload page used to build, so folder views read both alike.
+     */
+    private static String folderManifest(List<ZipStreamWriter.WrittenEntry> entries) throws IOException {
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(json)) {
+            generator.writeStartArray();
+            for (ZipStreamWriter.WrittenEntry entry : entries) {
+                generator.writeStartObject();
+                if (entry.directory()) {
+                    generator.writeStringField("path", entry.name().substring(0, entry.name().length() - 1));
+                    generator.writeStringField("type", "dir");
+                } else {
+                    generator.writeStringField("path", entry.name());
+                    generator.writeNumberField("size", entry.size());
+                    generator.writeStringField("type", "file");
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        return json.toString();
+    }
+
     private class MergeTask implements Runnable {
 
         private final BlockingQueue<ChunkInfo> queue = new LinkedBlockingQueue<>();
@@ -77,6 +121,8 @@ public class AsyncFileMergeService {
         private final FileUploadRequest request;
         private int processedChunks = 0;
         private String uuid;
+        private String currentEntry;
+        private final ByteArrayOutputStream head = new ByteArrayOutputStream(ContentTypeDetector.HEAD_LENGTH);
 
         MergeTask(FileUploadRequest request) {
             this.request = request;
@@ -93,35 +139,91 @@ public class AsyncFileMergeService {
             return mergeCompletionFuture;
         }
 
+        private void appendToEntry(ZipStreamWriter archive, ChunkInfo info, InputStream in) throws IOException {
+            if (!Objects.equals(info.entryPath, currentEntry)) {
+                // Empty directories arrive as an empty chunk named with a trailing slash
+                if (info.entryPath.endsWith("/")) {
+                    archive.putDirectory(info.entryPath);
+                } else {
+                    archive.putEntry(info.entryPath, info.entrySize);
+                }
+                currentEntry = info.entryPath;
+            }
+
+            byte[] buffer = new byte[ENTRY_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                archive.write(buffer, 0, n);
+            }
+        }
+
+        /**
+         * Keeps the first bytes of the plain content for content type detection, before it is encrypted.
+         */
+        private void appendToFile(OutputStream finalOut, InputStream in) throws IOException {
+            if (head.size() < ContentTypeDetector.HEAD_LENGTH) {
+                byte[] start = in.readNBytes(ContentTypeDetector.HEAD_LENGTH - head.size());
+                head.write(start);
+                finalOut.write(start);
+            }
+            in.transferTo(finalOut);
+        }
+
         @Override
         public void run() {
             File finalFile = Paths.get(applicationSettingsService.getFileStoragePath(), uuid).toFile();
 
-            try (OutputStream finalOut = fileService.shouldEncrypt(request) ?
-                    fileEncryptionService.getEncryptedOutputStream(finalFile, request.password) :
-                    new BufferedOutputStream(new FileOutputStream(finalFile, true))) {
-
-                while (processedChunks < request.totalChunks) {
-                    ChunkInfo info = queue.take();
-                    try (InputStream in = new BufferedInputStream(new FileInputStream(info.chunkFile))) {
-                        in.transferTo(finalOut);
-                    }
-
-                    if (!info.chunkFile.delete()) {
-                        logger.warn("Failed to delete chunk file: {}", info.chunkFile.getAbsolutePath());
+            try {
+                SecretKey dataKey = fileService.shouldEncrypt(request) ? fileEncryptionService.generateDataKey() : null;
+                ZipStreamWriter archive = null;
+                try (OutputStream finalOut = dataKey != null ?
+                        fileEncryptionService.getEncryptedOutputStream(finalFile, dataKey) :
+                        new BufferedOutputStream(new FileOutputStream(finalFile, true))) {
+
+                    while (processedChunks < request.totalChunks) {
+                        ChunkInfo info = queue.take();
+                        if (processedChunks == 0 && info.entryPath != null) {
+                            archive = new ZipStreamWriter(finalOut);
+                        }
+                        if ((archive != null) != (info.entryPath != null)) {
+                            throw new IOException("Folder chunks and plain chunks cannot be mixed");
+                        }
+
+                        try (InputStream in = new BufferedInputStream(new FileInputStream(info.chunkFile))) {
+                            if (archive != null) {
+                                appendToEntry(archive, info, in);
+                            } else {
+                                appendToFile(finalOut, in);
+                            }
+                        }
+
+                        if (!info.chunkFile.delete()) {
+                            logger.warn("Failed to delete chunk file: {}", info.chunkFile.getAbsolutePath());
+                        }
+
+                        processedChunks++;
+                        logger.info("Merged chunk {} for file {}", info.chunkNumber, request.fileName);
+                        if (info.isLastChunk) {
+                            break;
+                        }
                     }
 
-                    processedChunks++;
-                    logger.info("Merged chunk {} for file {}", info.chunkNumber, request.fileName);
-                    if (info.isLastChunk) {
-                        break;
+                    if (archive != null) {
+                        archive.finish();
+                        // The archive and its listing are what the server wrote, not what the client announced
+                        request.fileSize = archive.getBytesWritten();
+                        request.folderManifest = folderManifest(archive.getEntries());
+                        request.contentType = "application/zip";
+                    } else {
+                        request.contentType = ContentTypeDetector.detect(head.toByteArray(), request.fileName);
                     }
                 }
                 logger.info("All {} chunks merged for file {}", request.totalChunks, request.fileName);
 
-                FileEntity fileEntity = fileService.saveFile(finalFile, request, uuid);
+                FileEntity fileEntity = fileService.saveFile(finalFile, request, uuid, dataKey);
                 if (fileEntity != null) {
                     logger.info("File {} saved successfully with UUID {}", request.fileName, fileEntity.uuid);
+                    thumbnailService.enqueue(fileEntity);
                 } else {
                     logger.error("Saving file {} failed", request.fileName);
                 }
@@ -0,0 +1,221 @@
+package org.rostislav.quickdrop.service;
+
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.model.CsvColumn;
+import org.rostislav.quickdrop.model.CsvRowWindow;
+import org.rostislav.quickdrop.util.CsvTokenizer;
+import org.rostislav.quickdrop.util.LineOffsetIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import static org.rostislav.quickdrop.util.FileUtils.contentTypeOf;
+import static org.rostislav.quickdrop.util.FileUtils.isPreviewableCsvOrTsv;
+
+/**
+ * Serves windows of rows from CSV and TSV files on top of the record index kept by {@link TextPreviewService}, along
+ * with column types inferred from the first rows. CSV records may span lines inside quoted fields, TSV records are
+ * single lines.
+ */
+@Service
+public class CsvPreviewService {
+    private static final Logger logger = LoggerFactory.getLogger(CsvPreviewService.class);
+    private static final int MAX_WINDOW_ROWS = 500;
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+    private static final int SCHEMA_SAMPLE_ROWS = 200;
+    private static final Pattern INTEGER_PATTERN = Pattern.compile("[-+]?\\d+");
+    private static final Pattern DECIMAL_PATTERN = Pattern.compile("[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?");
+    private static final Pattern BOOLEAN_PATTERN = Pattern.compile("(?i)true|false|yes|no");
+
+    private final ApplicationSettingsService applicationSettingsService;
+    private final TextPreviewService textPreviewService;
+
+    public CsvPreviewService(ApplicationSettingsService applicationSettingsService, TextPreviewService textPreviewService) {
+        this.applicationSettingsService = applicationSettingsService;
+        this.textPreviewService = textPreviewService;
+    }
+
+    public boolean isPaged(FileEntity fileEntity) {
+        return fileEntity != null && !fileEntity.encrypted && isPreviewableCsvOrTsv(fileEntity);
+    }
+
+    public ResponseEntity<CsvRowWindow> rowsResponse(FileEntity fileEntity, long from, int count, boolean includeSchema) {
+        if (fileEntity == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!applicationSettingsService.isPreviewEnabled()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (!isPaged(fileEntity)) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+        }
+
+        try {
+            return ResponseEntity.ok(readRows(fileEntity, from, count, includeSchema));
+        } catch (IOException e) {
+            logger.error("Failed to read rows of file {}: {}", fileEntity.uuid, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    public CsvRowWindow readRows(FileEntity fileEntity, long from, int count, boolean includeSchema) throws IOException {
+        boolean tsv = "text/tab-separated-values".equals(contentTypeOf(fileEntity));
+        char delimiter = tsv ? '\t' : ',';
+        Path source = textPreviewService.sourcePath(fileEntity.uuid);
+        LineOffsetIndex index = textPreviewService.getIndex(fileEntity.uuid, !tsv);
+
+        // The first record is the header
+        long totalRows = Math.max(0, index.getTotalLines() - 1);
+        long start = Math.max(0, Math.min(from, Math.max(0, totalRows - 1)));
+        int windowSize = Math.max(1, Math.min(count, MAX_WINDOW_ROWS));
+        List<LineOffsetIndex.Line> records = index.readLines(source, start + 1, windowSize, MAX_RECORD_BYTES);
+
+        List<List<String>> rows = new ArrayList<>(records.size());
+        boolean truncated = false;
+        for (LineOffsetIndex.Line record : records) {
+            rows.add(parseRecord(record.text(), delimiter));
+            truncated |= record.truncated();
+        }
+
+        List<CsvColumn> columns = includeSchema ? inferSchema(index, source, delimiter) : null;
+        return new CsvRowWindow(start, totalRows, columns, rows, truncated);
+    }
+
+    private List<CsvColumn> inferSchema(LineOffsetIndex index, Path source, char delimiter) throws IOException {
+        List<LineOffsetIndex.Line> sample = index.readLines(source, 0, SCHEMA_SAMPLE_ROWS + 1, MAX_RECORD_BYTES);
+        if (sample.isEmpty()) {
+            return List.of();
+        }
+
+        List<String> header = parseRecord(sample.get(0).text(), delimiter);
+        List<List<String>> rows = new ArrayList<>(sample.size() - 1);
+        int columnCount = header.size();
+        for (LineOffsetIndex.Line record : sample.subList(1, sample.size())) {
+            List<String> row = parseRecord(record.text(), delimiter);
+            rows.add(row);
+            columnCount = Math.max(columnCount, row.size());
+        }
+
+        List<CsvColumn> columns = new ArrayList<>(columnCount);
+        for (int column = 0; column < columnCount; column++) {
+            String name = column < header.size() && !header.get(column).isBlank()
+                    ? header.get(column).strip()
+                    : "column " + (column + 1);
+
+            EnumSet<ColumnType> candidates = EnumSet.allOf(ColumnType.class);
+            boolean nullable = false;
+            boolean seenValue = false;
+            for (List<String> row : rows) {
+                String value = column < row.size() ? row.get(column).strip() : "";
+                if (value.isEmpty()) {
+                    nullable = true;
+                    continue;
+                }
+                seenValue = true;
+                candidates.removeIf(type -> !type.accepts(value));
+            }
+
+            String type = seenValue ? candidates.iterator().next().name().toLowerCase(Locale.ROOT) : "empty";
+            columns.add(new CsvColumn(name, type, nullable));
+        }
+        return columns;
+    }
+
+    /**
+     * Splits one record into fields with the tokenizer the record index is built with.
+     */
+    private static List<String> parseRecord(String record, char delimiter) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        CsvTokenizer tokenizer = new CsvTokenizer(delimiter);
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            switch (tokenizer.next(c)) {
+                case DELIMITER -> {
+                    fields.add(current.toString());
+                    current.setLength(0);
+                }
+                case QUOTE -> {
+                }
+                // A TSV record cannot contain a line break, a CSV record only ends at one outside quotes
+                case CONTENT, RECORD_END -> current.append(c);
+            }
+        }
+        fields.add(current.toString());
+        return fields;
+    }
+
+    /**
+     * Candidate column types, from most to least specific. Text accepts anything.
+     */
+    private enum ColumnType {
+        INTEGER {
+            @Override
+            boolean accepts(String value) {
+                return INTEGER_PATTERN.matcher(value).matches();
+            }
+        },
+        DECIMAL {
+            @Override
+            boolean accepts(String value) {
+                return DECIMAL_PATTERN.matcher(value).matches();
+            }
+        },
+        BOOLEAN {
+            @Override
+            boolean accepts(String value) {
+                return BOOLEAN_PATTERN.matcher(value).matches();
+            }
+        },
+        DATE {
+            @Override
+            boolean accepts(String value) {
+                try {
+                    LocalDate.parse(value);
+                    return true;
+                } catch (DateTimeParseException e) {
+                    return false;
+                }
+            }
+        },
+        DATETIME {
+            @Override
+            boolean accepts(String value) {
+                String iso = value.length() > 10 && value.charAt(10) == ' ' ? value.substring(0, 10) + 'T' + value.substring(11) : value;
+                try {
+                    LocalDateTime.parse(iso);
+                    return true;
+                } catch (DateTimeParseException e) {
+                    try {
+                        OffsetDateTime.parse(iso);
+                        return true;
+                    } catch (DateTimeParseException ignored) {
+                        return false;
+                    }
+                }
+            }
+        },
+        TEXT {
+            @Override
+            boolean accepts(String value) {
+                return true;
+            }
+        };
+
+        abstract boolean accepts(String value);
+    }
+}
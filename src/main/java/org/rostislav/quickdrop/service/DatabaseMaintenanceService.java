@@ -0,0 +1,66 @@
+package org.rostislav.quickdrop.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checkpoints the SQLite write-ahead log on a schedule. SQLite checkpoints on its own once the log reaches 1000
+ * pages, but it never shrinks the file, so a burst of writes leaves a large log behind that every reader has to
+ * consult. A truncating checkpoint copies the log into the database and resets it to zero bytes.
+ */
+@Service
+public class DatabaseMaintenanceService {
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseMaintenanceService.class);
+
+    private final DataSource writerDataSource;
+    private final Timer checkpointTimer;
+
+    public DatabaseMaintenanceService(@Qualifier("writerDataSource") DataSource writerDataSource, MeterRegistry meterRegistry) {
+        this.writerDataSource = writerDataSource;
+        this.checkpointTimer = Timer.builder("quickdrop.db.checkpoint")
+                .description("Time spent checkpointing the SQLite write-ahead log")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs on the writer connection, so the checkpoint waits for pending writes instead of competing with them.
+     */
+    @Scheduled(fixedDelayString = "${app.sqlite.checkpoint-interval-seconds:300}",
+            initialDelayString = "${app.sqlite.checkpoint-interval-seconds:300}", timeUnit = TimeUnit.SECONDS)
+    public void checkpoint() {
+        long started = System.nanoTime();
+        try (Connection connection = writerDataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("PRAGMA wal_checkpoint(TRUNCATE)")) {
+            if (!result.next()) {
+                return;
+            }
+
+            // busy is set when readers still use older pages, the rest of the log is checkpointed on the next run
+            boolean busy = result.getInt(1) != 0;
+            int logPages = result.getInt(2);
+            int checkpointedPages = result.getInt(3);
+            if (busy) {
+                logger.info("WAL checkpoint incomplete, {} of {} pages checkpointed", checkpointedPages, logPages);
+            } else {
+                logger.debug("WAL checkpoint done, {} pages checkpointed", checkpointedPages);
+            }
+        } catch (SQLException e) {
+            logger.warn("WAL checkpoint failed: {}", e.getMessage());
+        } finally {
+            checkpointTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -1,25 +1,55 @@
 package org.rostislav.quickdrop.service;
 
+import jakarta.annotation.PreDestroy;
+import org.rostislav.quickdrop.util.SegmentedCipherInputStream;
+import org.rostislav.quickdrop.util.SegmentedCipherOutputStream;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.*;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
-import java.security.InvalidAlgorithmParameterException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 @Service
 public class FileEncryptionService {
 
-    private static final String ALGORITHM = "AES/CBC/PKCS5Padding";
+    private static final String LEGACY_ALGORITHM = "AES/CBC/PKCS5Padding";
     private static final String KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA256";
     private static final int ITERATION_COUNT = 65536;
     private static final int KEY_LENGTH = 128;
+    private static final int MAX_CACHED_KEYS = 256;
+    private static final long CACHED_KEY_TTL_MILLIS = 30L * 60L * 1000L;
+    private static final int SALT_LENGTH = 16;
+    private static final byte[] SEGMENTED_MAGIC = "QDSEGv1\0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ENVELOPE_MAGIC = "QDENVv1\0".getBytes(StandardCharsets.US_ASCII);
+    private static final String KEY_WRAP_ALGORITHM = "AES/GCM/NoPadding";
+    private static final int KEY_WRAP_IV_LENGTH = 12;
+    private static final int DATA_KEY_LENGTH = 256;
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+    private static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final ForkJoinPool encryptionPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    // Derived keys keyed by file session token and salt, so repeat reads within a session skip PBKDF2
+    private final Map<String, CachedKey> derivedKeyCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedKey> eldest) {
+            return size() > MAX_CACHED_KEYS;
+        }
+    };
 
     public SecretKey generateKeyFromPassword(String password, byte[] salt)
             throws NoSuchAlgorithmException, InvalidKeySpecException {
@@ -29,67 +59,175 @@ public class FileEncryptionService {
         return new SecretKeySpec(keyBytes, "AES");
     }
 
-    private byte[] generateRandomBytes() {
-        byte[] bytes = new byte[16];
+    private SecretKey resolveKey(String password, byte[] salt, String sessionToken)
+            throws NoSuchAlgorithmException, InvalidKeySpecException {
+        if (sessionToken == null) {
+            return generateKeyFromPassword(password, salt);
+        }
+
+        String cacheKey = sessionToken + ":" + Base64.getEncoder().encodeToString(salt);
+        long now = System.currentTimeMillis();
+        synchronized (derivedKeyCache) {
+            CachedKey cached = derivedKeyCache.get(cacheKey);
+            if (cached != null && cached.expiresAt > now) {
+                return cached.key;
+            }
+            derivedKeyCache.remove(cacheKey);
+        }
+
+        SecretKey key = generateKeyFromPassword(password, salt);
+        synchronized (derivedKeyCache) {
+            derivedKeyCache.put(cacheKey, new CachedKey(key, now + CACHED_KEY_TTL_MILLIS));
+        }
+        return key;
+    }
+
+    public void evictCachedKeys(String sessionToken) {
+        if (sessionToken == null) {
+            return;
+        }
+
+        String prefix = sessionToken + ":";
+        synchronized (derivedKeyCache) {
+            derivedKeyCache.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+    }
+
+    private byte[] generateRandomBytes(int length) {
+        byte[] bytes = new byte[length];
         new SecureRandom().nextBytes(bytes);
         return bytes;
     }
 
-    @SuppressWarnings("ResultOfMethodCallIgnored")
-    public void decryptFile(File inputFile, File outputFile, String password) throws IOException, NoSuchAlgorithmException, InvalidKeySpecException, NoSuchPaddingException, InvalidAlgorithmParameterException, InvalidKeyException {
-        try (FileInputStream fis = new FileInputStream(inputFile)) {
-            byte[] salt = new byte[16];
+    public void decryptFile(File inputFile, File outputFile, String password) throws IOException, GeneralSecurityException {
+        decryptFile(inputFile, outputFile, password, null);
+    }
+
+    public void decryptFile(File inputFile, File outputFile, String password, String sessionToken) throws IOException, GeneralSecurityException {
+        try (InputStream in = getDecryptedInputStream(inputFile, password, sessionToken);
+             FileOutputStream fos = new FileOutputStream(outputFile)) {
+            in.transferTo(fos);
+        }
+    }
+
+    public InputStream getDecryptedInputStream(File inputFile, String password) throws IOException, GeneralSecurityException {
+        return getDecryptedInputStream(inputFile, password, null);
+    }
+
+    public InputStream getDecryptedInputStream(File inputFile, String password, String sessionToken) throws IOException, GeneralSecurityException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inputFile)));
+        try {
+            byte[] header = new byte[SEGMENTED_MAGIC.length];
+            in.readFully(header);
+
+            if (Arrays.equals(header, ENVELOPE_MAGIC)) {
+                throw new IOException("File is encrypted with a data key and cannot be opened with the password directly");
+            }
+
+            // Read only: files were encrypted with the password itself before data keys were introduced
+            if (Arrays.equals(header, SEGMENTED_MAGIC)) {
+                byte[] salt = new byte[SALT_LENGTH];
+                byte[] noncePrefix = new byte[SegmentedCipherOutputStream.NONCE_PREFIX_LENGTH];
+                in.readFully(salt);
+                in.readFully(noncePrefix);
+                int segmentSize = readSegmentSize(in);
+
+                SecretKey secretKey = resolveKey(password, salt, sessionToken);
+                return new SegmentedCipherInputStream(in, secretKey, noncePrefix, segmentSize);
+            }
+
+            // Legacy CBC layout: 16 byte salt followed by a 16 byte IV
+            byte[] salt = Arrays.copyOf(header, SALT_LENGTH);
+            in.readFully(salt, header.length, SALT_LENGTH - header.length);
             byte[] iv = new byte[16];
+            in.readFully(iv);
+
+            SecretKey secretKey = resolveKey(password, salt, sessionToken);
+            Cipher cipher = Cipher.getInstance(LEGACY_ALGORITHM);
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(iv));
+            return new CipherInputStream(in, cipher);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
 
-            fis.read(salt);
-            fis.read(iv);
-            IvParameterSpec ivSpec = new IvParameterSpec(iv);
-            SecretKey secretKey = generateKeyFromPassword(password, salt);
+    public SecretKey generateDataKey() throws NoSuchAlgorithmException {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(DATA_KEY_LENGTH);
+        return keyGenerator.generateKey();
+    }
 
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, ivSpec);
+    public WrappedKey wrapDataKey(SecretKey dataKey, String secret) throws GeneralSecurityException {
+        byte[] salt = generateRandomBytes(SALT_LENGTH);
+        byte[] iv = generateRandomBytes(KEY_WRAP_IV_LENGTH);
 
-            try (CipherInputStream cis = new CipherInputStream(fis, cipher);
-                 FileOutputStream fos = new FileOutputStream(outputFile)) {
+        Cipher cipher = Cipher.getInstance(KEY_WRAP_ALGORITHM);
+        cipher.init(Cipher.ENCRYPT_MODE, generateKeyFromPassword(secret, salt), new GCMParameterSpec(128, iv));
+        byte[] encryptedKey = cipher.doFinal(dataKey.getEncoded());
+
+        byte[] wrappedKey = Arrays.copyOf(iv, iv.length + encryptedKey.length);
+        System.arraycopy(encryptedKey, 0, wrappedKey, iv.length, encryptedKey.length);
+        return new WrappedKey(salt, wrappedKey);
+    }
 
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = cis.read(buffer)) != -1) {
-                    fos.write(buffer, 0, bytesRead);
-                }
+    public SecretKey unwrapDataKey(String secret, byte[] salt, byte[] wrappedKey, String sessionToken) throws GeneralSecurityException {
+        if (secret == null) {
+            throw new InvalidKeyException("No secret available to unwrap the file key");
+        }
+
+        Cipher cipher = Cipher.getInstance(KEY_WRAP_ALGORITHM);
+        cipher.init(Cipher.DECRYPT_MODE, resolveKey(secret, salt, sessionToken), new GCMParameterSpec(128, wrappedKey, 0, KEY_WRAP_IV_LENGTH));
+        byte[] keyBytes = cipher.doFinal(wrappedKey, KEY_WRAP_IV_LENGTH, wrappedKey.length - KEY_WRAP_IV_LENGTH);
+        return new SecretKeySpec(keyBytes, "AES");
+    }
+
+    public InputStream getDecryptedInputStream(File inputFile, SecretKey dataKey) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inputFile)));
+        try {
+            byte[] header = new byte[ENVELOPE_MAGIC.length];
+            in.readFully(header);
+            if (!Arrays.equals(header, ENVELOPE_MAGIC)) {
+                throw new IOException("File is not encrypted with a data key");
             }
+
+            byte[] noncePrefix = new byte[SegmentedCipherOutputStream.NONCE_PREFIX_LENGTH];
+            in.readFully(noncePrefix);
+            int segmentSize = readSegmentSize(in);
+            return new SegmentedCipherInputStream(in, dataKey, noncePrefix, segmentSize);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
         }
     }
 
-    public InputStream getDecryptedInputStream(File inputFile, String password) throws Exception {
-        FileInputStream fis = new FileInputStream(inputFile);
-        byte[] salt = new byte[16];
-        byte[] iv = new byte[16];
+    public OutputStream getEncryptedOutputStream(File finalFile, SecretKey dataKey) throws IOException {
+        byte[] noncePrefix = generateRandomBytes(SegmentedCipherOutputStream.NONCE_PREFIX_LENGTH);
 
-        fis.read(salt);
-        fis.read(iv);
-        IvParameterSpec ivSpec = new IvParameterSpec(iv);
-        SecretKey secretKey = generateKeyFromPassword(password, salt);
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(finalFile, true));
+        out.write(ENVELOPE_MAGIC);
+        out.write(noncePrefix);
+        out.writeInt(SEGMENT_SIZE);
 
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.DECRYPT_MODE, secretKey, ivSpec);
-        CipherInputStream cipherInputStream = new CipherInputStream(fis, cipher);
-        return cipherInputStream;
+        return new SegmentedCipherOutputStream(out, dataKey, noncePrefix, SEGMENT_SIZE, encryptionPool);
     }
 
-    public OutputStream getEncryptedOutputStream(File finalFile, String password) throws Exception {
-        FileOutputStream fos = new FileOutputStream(finalFile, true);
-        byte[] salt = generateRandomBytes();
-        byte[] iv = generateRandomBytes();
+    private int readSegmentSize(DataInputStream in) throws IOException {
+        int segmentSize = in.readInt();
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IOException("Invalid encrypted segment size: " + segmentSize);
+        }
+        return segmentSize;
+    }
 
-        fos.write(salt);
-        fos.write(iv);
+    @PreDestroy
+    public void shutdown() {
+        encryptionPool.shutdown();
+    }
 
-        SecretKey secretKey = generateKeyFromPassword(password, salt);
-        IvParameterSpec ivSpec = new IvParameterSpec(iv);
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
+    public record WrappedKey(byte[] salt, byte[] wrappedKey) {
+    }
 
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey, ivSpec);
-        return new CipherOutputStream(fos, cipher);
+    private record CachedKey(SecretKey key, long expiresAt) {
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,119 @@
+package org.rostislav.quickdrop.service;
+
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.entity.FileKeyEntity;
+import org.rostislav.quickdrop.entity.ShareTokenEntity;
+import org.rostislav.quickdrop.model.FileKeyType;
+import org.rostislav.quickdrop.repository.FileKeyRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Optional;
+
+@Service
+public class FileKeyService {
+    private static final Logger logger = LoggerFactory.getLogger(FileKeyService.class);
+    private final FileKeyRepository fileKeyRepository;
+    private final FileEncryptionService fileEncryptionService;
+
+    public FileKeyService(FileKeyRepository fileKeyRepository, FileEncryptionService fileEncryptionService) {
+        this.fileKeyRepository = fileKeyRepository;
+        this.fileEncryptionService = fileEncryptionService;
+    }
+
+    /**
+     * Wraps the data key with the password. Deriving the wrapping key takes a while, so callers do it before opening
+     * the transaction that stores the result with {@link #storePasswordKey}.
+     */
+    public FileEncryptionService.WrappedKey wrapPasswordKey(SecretKey dataKey, String password) throws GeneralSecurityException {
+        return fileEncryptionService.wrapDataKey(dataKey, password);
+    }
+
+    public void storePasswordKey(FileEntity file, FileEncryptionService.WrappedKey wrapped) {
+        fileKeyRepository.save(new FileKeyEntity(file, null, FileKeyType.PASSWORD, encode(wrapped.salt()), encode(wrapped.wrappedKey())));
+        logger.info("Stored password-wrapped data key for file: {}", file.uuid);
+    }
+
+    /**
+     * Returns the data key of an envelope-encrypted file, or empty for files encrypted directly with the password.
+     */
+    public Optional<SecretKey> unlockWithPassword(FileEntity file, String password, String sessionToken) throws GeneralSecurityException {
+        Optional<FileKeyEntity> key = fileKeyRepository.findFirstByFileAndKeyType(file, FileKeyType.PASSWORD);
+        if (key.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(unwrap(key.get(), password, sessionToken));
+    }
+
+    public Optional<SecretKey> unlockWithShareToken(ShareTokenEntity shareToken) throws GeneralSecurityException {
+        Optional<FileKeyEntity> key = fileKeyRepository.findFirstByShareToken(shareToken);
+        if (key.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(unwrap(key.get(), shareToken.shareToken, null));
+    }
+
+    public void grantShareToken(ShareTokenEntity shareToken, SecretKey dataKey) throws GeneralSecurityException {
+        if (fileKeyRepository.existsByShareToken(shareToken)) {
+            return;
+        }
+
+        FileEncryptionService.WrappedKey wrapped = fileEncryptionService.wrapDataKey(dataKey, shareToken.shareToken);
+        fileKeyRepository.save(new FileKeyEntity(shareToken.file, shareToken, FileKeyType.SHARE_TOKEN, encode(wrapped.salt()), encode(wrapped.wrappedKey())));
+        logger.info("Granted share token access to data key for file: {}", shareToken.file.uuid);
+    }
+
+    /**
+     * Re-wraps the data key for a new password, to be stored with {@link #replacePasswordKey}. Returns empty when the
+     * file has no data key, since rotating the password of a directly encrypted file would require rewriting its content.
+     */
+    public Optional<FileEncryptionService.WrappedKey> rewrapPasswordKey(FileEntity file, String currentPassword, String newPassword, String sessionToken) throws GeneralSecurityException {
+        Optional<FileKeyEntity> key = fileKeyRepository.findFirstByFileAndKeyType(file, FileKeyType.PASSWORD);
+        if (key.isEmpty()) {
+            return Optional.empty();
+        }
+
+        SecretKey dataKey = unwrap(key.get(), currentPassword, sessionToken);
+        return Optional.of(fileEncryptionService.wrapDataKey(dataKey, newPassword));
+    }
+
+    public void replacePasswordKey(FileEntity file, FileEncryptionService.WrappedKey wrapped) {
+        FileKeyEntity fileKey = fileKeyRepository.findFirstByFileAndKeyType(file, FileKeyType.PASSWORD)
+                .orElseThrow(() -> new IllegalStateException("No password-wrapped data key for file: " + file.uuid));
+        fileKey.salt = encode(wrapped.salt());
+        fileKey.wrappedKey = encode(wrapped.wrappedKey());
+        fileKeyRepository.save(fileKey);
+        logger.info("Rotated password-wrapped data key for file: {}", file.uuid);
+    }
+
+    public void deleteKeysForFile(Long fileId) {
+        fileKeyRepository.deleteByFileId(fileId);
+    }
+
+    public void deleteKeysForFiles(Collection<Long> fileIds) {
+        fileKeyRepository.deleteByFileIds(fileIds);
+    }
+
+    public void deleteKeysForShareTokens(Collection<ShareTokenEntity> shareTokens) {
+        if (!shareTokens.isEmpty()) {
+            fileKeyRepository.deleteByShareTokens(shareTokens);
+        }
+    }
+
+    private SecretKey unwrap(FileKeyEntity key, String secret, String sessionToken) throws GeneralSecurityException {
+        return fileEncryptionService.unwrapDataKey(secret, decode(key.salt), decode(key.wrappedKey), sessionToken);
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    private static byte[] decode(String value) {
+        return Base64.getDecoder().decode(value);
+    }
+}
@@ -0,0 +1,159 @@
+package org.rostislav.quickdrop.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.repository.FileRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Looks up files by UUID for the read paths. An interceptor, a controller and the service it calls all ask for the
+ * same file, so each lookup is remembered for the rest of the request, and files that were loaded recently are kept
+ * in a small shared cache for a short time.
+ * <p>
+ * Cached entities are shared between requests and must not be changed. Methods that change a file load it from the
+ * repository and call {@link #evict(String)}, which also evicts again once their transaction has finished.
+ */
+@Service
+public class FileLookupService {
+    private static final String REQUEST_ATTRIBUTE_PREFIX = FileLookupService.class.getName() + ".";
+    private static final Object NOT_FOUND = new Object();
+
+    private final FileRepository fileRepository;
+    private final int maxEntries;
+    private final long ttlMillis;
+    // Bumped by every eviction, a lookup that started before one does not cache what it loaded
+    private final AtomicLong evictions = new AtomicLong();
+    private final Counter requestHits;
+    private final Counter sharedHits;
+    private final Counter misses;
+
+    private final Map<String, CachedFile> sharedCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedFile> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    public FileLookupService(FileRepository fileRepository, MeterRegistry meterRegistry,
+                             @Value("${app.file-cache.max-entries:1000}") int maxEntries,
+                             @Value("${app.file-cache.ttl-seconds:60}") long ttlSeconds) {
+        this.fileRepository = fileRepository;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlSeconds * 1000;
+
+        this.requestHits = lookupCounter(meterRegistry, "request");
+        this.sharedHits = lookupCounter(meterRegistry, "shared");
+        this.misses = lookupCounter(meterRegistry, "database");
+        Gauge.builder("quickdrop.file.lookup.cached", sharedCache, this::sharedCacheSize)
+                .description("Files held in the shared lookup cache")
+                .register(meterRegistry);
+    }
+
+    private static Counter lookupCounter(MeterRegistry meterRegistry, String source) {
+        return Counter.builder("quickdrop.file.lookup")
+                .description("File lookups by UUID, by where the file was found")
+                .tag("source", source)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the file with the given UUID, or null. Files that do not exist are only remembered for the request.
+     */
+    public FileEntity find(String uuid) {
+        if (uuid == null) {
+            return null;
+        }
+
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        String attribute = REQUEST_ATTRIBUTE_PREFIX + uuid;
+        Object seen = request != null ? request.getAttribute(attribute, RequestAttributes.SCOPE_REQUEST) : null;
+        if (seen != null) {
+            requestHits.increment();
+            return seen == NOT_FOUND ? null : (FileEntity) seen;
+        }
+
+        FileEntity fileEntity = findShared(uuid);
+        if (request != null) {
+            request.setAttribute(attribute, fileEntity != null ? fileEntity : NOT_FOUND, RequestAttributes.SCOPE_REQUEST);
+        }
+        return fileEntity;
+    }
+
+    private FileEntity findShared(String uuid) {
+        long now = System.currentTimeMillis();
+        if (ttlMillis > 0 && maxEntries > 0) {
+            synchronized (sharedCache) {
+                CachedFile cached = sharedCache.get(uuid);
+                if (cached != null && cached.expiresAt > now) {
+                    sharedHits.increment();
+                    return cached.fileEntity;
+                }
+                sharedCache.remove(uuid);
+            }
+        }
+
+        misses.increment();
+        long evictionsBefore = evictions.get();
+        FileEntity fileEntity = fileRepository.findByUUID(uuid).orElse(null);
+        if (fileEntity != null && ttlMillis > 0 && maxEntries > 0) {
+            synchronized (sharedCache) {
+                if (evictions.get() == evictionsBefore) {
+                    sharedCache.put(uuid, new CachedFile(fileEntity, now + ttlMillis));
+                }
+            }
+        }
+        return fileEntity;
+    }
+
+    /**
+     * Forgets the file in the shared cache and in the current request. Inside a transaction the file is evicted
+     * again after it ends, so a lookup running meanwhile cannot cache the state from before the commit.
+     */
+    public void evict(String uuid) {
+        evictNow(uuid);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evictNow(uuid);
+                }
+            });
+        }
+    }
+
+    public void evictAll(Collection<String> uuids) {
+        uuids.forEach(this::evict);
+    }
+
+    private void evictNow(String uuid) {
+        synchronized (sharedCache) {
+            evictions.incrementAndGet();
+            sharedCache.remove(uuid);
+        }
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        if (request != null) {
+            request.removeAttribute(REQUEST_ATTRIBUTE_PREFIX + uuid, RequestAttributes.SCOPE_REQUEST);
+        }
+    }
+
+    private double sharedCacheSize(Map<String, CachedFile> cache) {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private record CachedFile(FileEntity fileEntity, long expiresAt) {
+    }
+}
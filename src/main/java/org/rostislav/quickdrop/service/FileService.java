@@ -4,36 +4,56 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.transaction.Transactional;
 import org.rostislav.quickdrop.entity.FileEntity;
 import org.rostislav.quickdrop.entity.FileHistoryLog;
+import org.rostislav.quickdrop.entity.FileManifest;
 import org.rostislav.quickdrop.entity.ShareTokenEntity;
 import org.rostislav.quickdrop.model.FileEntityView;
 import org.rostislav.quickdrop.model.FileHistoryType;
+import org.rostislav.quickdrop.model.FileListCursor;
+import org.rostislav.quickdrop.model.FileListItem;
+import org.rostislav.quickdrop.model.FileListPage;
 import org.rostislav.quickdrop.model.FileUploadRequest;
+import org.rostislav.quickdrop.model.PreviewCategory;
+import org.rostislav.quickdrop.model.PreviewSize;
+import org.rostislav.quickdrop.repository.FileHistoryDailyRepository;
 import org.rostislav.quickdrop.repository.FileHistoryLogRepository;
+import org.rostislav.quickdrop.repository.FileManifestRepository;
 import org.rostislav.quickdrop.repository.FileRepository;
 import org.rostislav.quickdrop.repository.ShareTokenRepository;
+import org.rostislav.quickdrop.util.FullTextQuery;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
 import java.io.*;
+import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static org.rostislav.quickdrop.util.DataValidator.safeNumber;
 import static org.rostislav.quickdrop.util.DataValidator.validateObjects;
@@ -46,39 +66,72 @@ public class FileService {
     private final PasswordEncoder passwordEncoder;
     private final ApplicationSettingsService applicationSettingsService;
     private final FileHistoryLogRepository fileHistoryLogRepository;
+    private final FileHistoryDailyRepository fileHistoryDailyRepository;
+    private final FileManifestRepository fileManifestRepository;
+    private final FileLookupService fileLookupService;
     private final SessionService sessionService;
     private final FileEncryptionService fileEncryptionService;
     private final SvgRasterizationService svgRasterizationService;
     private final ShareTokenRepository shareTokenRepository;
     private final NotificationService notificationService;
+    private final FileKeyService fileKeyService;
+    private final PreviewCacheService previewCacheService;
+    private final ThumbnailService thumbnailService;
+    private final PreviewRenderService previewRenderService;
+    private final TextPreviewService textPreviewService;
+    private final ArchiveService archiveService;
+    private final TransactionTemplate transactionTemplate;
 
     @Lazy
-    public FileService(FileRepository fileRepository, PasswordEncoder passwordEncoder, ApplicationSettingsService applicationSettingsService, FileHistoryLogRepository fileHistoryLogRepository, SessionService sessionService, FileEncryptionService fileEncryptionService, SvgRasterizationService svgRasterizationService, ShareTokenRepository shareTokenRepository, NotificationService notificationService) {
+    public FileService(FileRepository fileRepository, PasswordEncoder passwordEncoder, ApplicationSettingsService applicationSettingsService, FileHistoryLogRepository fileHistoryLogRepository, FileHistoryDailyRepository fileHistoryDailyRepository, FileManifestRepository fileManifestRepository, FileLookupService fileLookupService, SessionService sessionService, FileEncryptionService fileEncryptionService, SvgRasterizationService svgRasterizationService, ShareTokenRepository shareTokenRepository, NotificationService notificationService, FileKeyService fileKeyService, PreviewCacheService previewCacheService, ThumbnailService thumbnailService, PreviewRenderService previewRenderService, TextPreviewService textPreviewService, ArchiveService archiveService, TransactionTemplate transactionTemplate) {
         this.fileRepository = fileRepository;
         this.passwordEncoder = passwordEncoder;
         this.applicationSettingsService = applicationSettingsService;
         this.fileHistoryLogRepository = fileHistoryLogRepository;
+        this.fileHistoryDailyRepository = fileHistoryDailyRepository;
+        this.fileManifestRepository = fileManifestRepository;
+        this.fileLookupService = fileLookupService;
         this.sessionService = sessionService;
         this.fileEncryptionService = fileEncryptionService;
         this.svgRasterizationService = svgRasterizationService;
         this.shareTokenRepository = shareTokenRepository;
         this.notificationService = notificationService;
+        this.fileKeyService = fileKeyService;
+        this.previewCacheService = previewCacheService;
+        this.thumbnailService = thumbnailService;
+        this.previewRenderService = previewRenderService;
+        this.textPreviewService = textPreviewService;
+        this.archiveService = archiveService;
+        this.transactionTemplate = transactionTemplate;
     }
 
     @CacheEvict(value = {"publicFiles", "adminFiles", "analytics"}, allEntries = true)
-    public FileEntity saveFile(File file, FileUploadRequest fileUploadRequest, String uuid) {
+    public FileEntity saveFile(File file, FileUploadRequest fileUploadRequest, String uuid, SecretKey dataKey) throws GeneralSecurityException {
         if (!validateObjects(file, fileUploadRequest)) {
             return null;
         }
 
         logger.info("Saving file: {}", file.getName());
 
+        // Hashing the password and wrapping the key are slow on purpose, so both happen before the transaction opens
         FileEntity fileEntity = populateFileEntity(fileUploadRequest, uuid);
+        FileEncryptionService.WrappedKey wrappedKey = dataKey != null ? fileKeyService.wrapPasswordKey(dataKey, fileUploadRequest.password) : null;
 
-        logger.info("FileEntity inserted into database: {}", fileEntity);
-        FileEntity saved = fileRepository.save(fileEntity);
+        FileEntity saved = transactionTemplate.execute(status -> {
+            FileEntity inserted = fileRepository.save(fileEntity);
+            logger.info("FileEntity inserted into database: {}", inserted);
+            if (wrappedKey != null) {
+                fileKeyService.storePasswordKey(inserted, wrappedKey);
+            }
+
+            if (fileUploadRequest.folderManifest != null) {
+                fileManifestRepository.save(new FileManifest(inserted.id, fileUploadRequest.folderManifest));
+            }
 
-        fileHistoryLogRepository.save(new FileHistoryLog(saved, FileHistoryType.UPLOAD, fileUploadRequest.uploaderIp, fileUploadRequest.uploaderUserAgent));
+            fileHistoryLogRepository.save(new FileHistoryLog(inserted, FileHistoryType.UPLOAD, fileUploadRequest.uploaderIp, fileUploadRequest.uploaderUserAgent));
+            return inserted;
+        });
+        fileLookupService.evict(saved.uuid);
         notificationService.notifyFileAction(saved, FileHistoryType.UPLOAD);
 
         return saved;
@@ -99,7 +152,8 @@ public class FileService {
         fileEntity.encrypted = shouldEncrypt(request);
         fileEntity.folderUpload = request.folderUpload;
         fileEntity.folderName = request.folderName;
-        fileEntity.folderManifest = request.folderManifest;
+        fileEntity.contentType = request.contentType != null ? request.contentType : guessContentType(request.fileName);
+        fileEntity.previewCategory = PreviewCategory.fromContentType(fileEntity.contentType);
 
         if (request.password != null && !request.password.isBlank()) {
             fileEntity.passwordHash = passwordEncoder.encode(request.password);
@@ -109,7 +163,11 @@ public class FileService {
     }
 
     public FileEntity getFile(String uuid) {
-        return fileRepository.findByUUID(uuid).orElse(null);
+        return fileLookupService.find(uuid);
+    }
+
+    public String getFolderManifest(FileEntity fileEntity) {
+        return fileEntity.folderUpload ? fileManifestRepository.findManifestByFileId(fileEntity.id) : null;
     }
 
     public boolean deleteFileFromFileSystem(String uuid) {
@@ -117,6 +175,10 @@ public class FileService {
         try {
             Files.delete(path);
             logger.info("File deleted: {}", path);
+            previewCacheService.invalidate(uuid);
+            thumbnailService.deleteThumbnail(uuid);
+            textPreviewService.deleteIndex(uuid);
+            archiveService.evict(uuid);
         } catch (
                 Exception e) {
             return false;
@@ -153,27 +215,38 @@ public class FileService {
         FileEntity fileEntity = referenceById.get();
         notificationService.notifyFileAction(fileEntity, FileHistoryType.DELETION);
 
+        previewCacheService.invalidate(uuid);
+        thumbnailService.deleteThumbnail(uuid);
+        textPreviewService.deleteIndex(uuid);
+        fileKeyService.deleteKeysForFile(fileEntity.id);
         shareTokenRepository.deleteAllByFile(fileEntity);
         fileHistoryLogRepository.deleteByFileId(fileEntity.id);
+        fileHistoryDailyRepository.deleteByFileId(fileEntity.id);
+        fileManifestRepository.deleteByFileId(fileEntity.id);
         fileRepository.delete(fileEntity);
+        fileLookupService.evict(uuid);
         return true;
     }
 
     @CacheEvict(value = {"adminFiles", "analytics"}, allEntries = true)
     public ResponseEntity<StreamingResponseBody> downloadFile(String uuid, HttpServletRequest request) {
-        FileEntity fileEntity = fileRepository.findByUUID(uuid).orElse(null);
+        FileEntity fileEntity = fileLookupService.find(uuid);
         if (fileEntity == null) {
             logger.info("File not found: {}", uuid);
             return ResponseEntity.notFound().build();
         }
 
         Path filePath = Path.of(applicationSettingsService.getFileStoragePath(), fileEntity.uuid);
-        String password = getFilePasswordFromSessionToken(request);
 
         InputStream inputStream;
         if (fileEntity.encrypted) {
             try {
-                inputStream = fileEncryptionService.getDecryptedInputStream(filePath.toFile(), password);
+                inputStream = getDecryptedInputStream(fileEntity, filePath, request);
+            } catch (AEADBadTagException e) {
+                // The file key is no longer wrapped with the password of this session, it was changed since
+                logger.info("Stale file session for {}, asking for the password again", uuid);
+                sessionService.invalidateFileSession(getFileSessionToken(request));
+                return ResponseEntity.status(HttpStatus.FOUND).location(URI.create("/file/password/" + uuid)).build();
             } catch (Exception e) {
                 logger.error("Error decrypting file: {}", e.getMessage());
                 return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
@@ -195,8 +268,8 @@ public class FileService {
         }
     }
 
-    public ResponseEntity<StreamingResponseBody> previewFile(String uuid, HttpServletRequest request, boolean manualOverride) {
-        FileEntity fileEntity = fileRepository.findByUUID(uuid).orElse(null);
+    public ResponseEntity<StreamingResponseBody> previewFile(String uuid, HttpServletRequest request, boolean manualOverride, PreviewSize size) {
+        FileEntity fileEntity = fileLookupService.find(uuid);
         if (fileEntity == null) {
             return ResponseEntity.notFound().build();
         }
@@ -217,12 +290,25 @@ public class FileService {
         }
 
         Path filePath = Path.of(applicationSettingsService.getFileStoragePath(), fileEntity.uuid);
-        String password = getFilePasswordFromSessionToken(request);
+
+        // Renderings of encrypted files are never written to disk
+        String cacheVersion = null;
+        if (isSvg(fileEntity) && !fileEntity.encrypted) {
+            cacheVersion = previewCacheService.contentVersion(filePath);
+            Optional<Path> cached = cacheVersion == null ? Optional.empty() : previewCacheService.get(uuid, cacheVersion, size);
+            if (cached.isPresent()) {
+                try {
+                    return previewResponse(fileEntity, Files.newInputStream(cached.get()), "image/png");
+                } catch (IOException e) {
+                    logger.warn("Failed to read cached preview for file {}: {}", uuid, e.getMessage());
+                }
+            }
+        }
 
         InputStream inputStream;
         try {
             if (fileEntity.encrypted) {
-                inputStream = fileEncryptionService.getDecryptedInputStream(filePath.toFile(), password);
+                inputStream = getDecryptedInputStream(fileEntity, filePath, request);
             } else {
                 inputStream = new FileInputStream(filePath.toFile());
             }
@@ -231,39 +317,47 @@ public class FileService {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
         }
 
-        String contentType = guessContentType(fileEntity.name, isImage, isText, isPdf);
+        String contentType = responseContentType(contentTypeOf(fileEntity));
 
-        if (isSvgFile(fileEntity.name)) {
+        if (isSvg(fileEntity)) {
+            InputStream svgInputStream = inputStream;
             try {
-                byte[] pngPreview = svgRasterizationService.rasterizeToPng(inputStream);
+                byte[] pngPreview = previewRenderService.render(() -> svgRasterizationService.rasterizeToPng(svgInputStream, size));
+                if (cacheVersion != null) {
+                    previewCacheService.put(uuid, cacheVersion, size, pngPreview);
+                }
                 inputStream = new ByteArrayInputStream(pngPreview);
                 contentType = "image/png";
+            } catch (PreviewRenderService.RenderRejectedException e) {
+                closeQuietly(svgInputStream);
+                logger.info("Shedding SVG preview for file {}, rendering pool is saturated", uuid);
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                        .build();
             } catch (IOException e) {
+                closeQuietly(svgInputStream);
                 logger.warn("Failed to rasterize SVG preview for file {}: {}", uuid, e.getMessage());
                 return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
             }
         }
 
-        StreamingResponseBody body = getStreamingResponseBody(inputStream);
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + fileEntity.name + "\"")
-                .header(HttpHeaders.CONTENT_TYPE, contentType)
-                .header(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, must-revalidate")
-                .header("X-Content-Type-Options", "nosniff")
-                .header("X-Frame-Options", "DENY")
-                .header("Referrer-Policy", "no-referrer")
-                .header("Content-Security-Policy", "default-src 'none'; script-src 'none'; object-src 'none'; frame-ancestors 'none'; sandbox")
-                .header("Pragma", "no-cache")
-                .header("Expires", "0")
-                .body(body);
+        return previewResponse(fileEntity, inputStream, contentType);
     }
 
-    private boolean isSvgFile(String fileName) {
-        return fileName != null && fileName.toLowerCase(Locale.ROOT).endsWith(".svg");
+    private ResponseEntity<StreamingResponseBody> previewResponse(FileEntity fileEntity, InputStream inputStream, String contentType) {
+        return inlinePreviewResponse(fileEntity.name, inputStream, contentType);
+    }
+
+    private void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close preview stream: {}", e.getMessage());
+        }
     }
 
     public boolean isAuthorizedForFile(String uuid, HttpServletRequest request) {
-        FileEntity fileEntity = fileRepository.findByUUID(uuid).orElse(null);
+        FileEntity fileEntity = fileLookupService.find(uuid);
         if (fileEntity == null) {
             return false;
         }
@@ -276,28 +370,41 @@ public class FileService {
 
     @CacheEvict(value = {"adminFiles", "analytics"}, allEntries = true)
     public void logDownload(String uuid, HttpServletRequest request) {
-        FileEntity fileEntity = fileRepository.findByUUID(uuid).orElse(null);
+        FileEntity fileEntity = fileLookupService.find(uuid);
         if (fileEntity == null) return;
         RequesterInfo requesterInfo = getRequesterInfo(request);
         fileHistoryLogRepository.save(new FileHistoryLog(fileEntity, FileHistoryType.DOWNLOAD, requesterInfo.ipAddress, requesterInfo.userAgent));
         notificationService.notifyFileAction(fileEntity, FileHistoryType.DOWNLOAD);
     }
 
-    private String getFilePasswordFromSessionToken(HttpServletRequest request) {
+    private InputStream getDecryptedInputStream(FileEntity fileEntity, Path filePath, HttpServletRequest request) throws IOException, GeneralSecurityException {
+        String sessionToken = getFileSessionToken(request);
+        String password = getFilePasswordFromSessionToken(request);
+
+        Optional<SecretKey> dataKey = fileKeyService.unlockWithPassword(fileEntity, password, sessionToken);
+        if (dataKey.isPresent()) {
+            return fileEncryptionService.getDecryptedInputStream(filePath.toFile(), dataKey.get());
+        }
+        return fileEncryptionService.getDecryptedInputStream(filePath.toFile(), password, sessionToken);
+    }
+
+    private String getFileSessionToken(HttpServletRequest request) {
         Object sessionToken = request.getSession().getAttribute("file-session-token");
+        return sessionToken == null ? null : sessionToken.toString();
+    }
+
+    private String getFilePasswordFromSessionToken(HttpServletRequest request) {
+        String sessionToken = getFileSessionToken(request);
         if (sessionToken == null) {
             return null;
         }
 
-        return sessionService.getPasswordForFileSessionToken(sessionToken.toString()).getPassword();
+        return sessionService.getPasswordForFileSessionToken(sessionToken).getPassword();
     }
 
-    @Cacheable(value = "publicFiles", key = "'page:' + #pageable.pageNumber + ':size:' + #pageable.pageSize + ':q:' + (#query == null ? '' : #query.toLowerCase())")
-    public Page<FileEntity> getVisibleFiles(Pageable pageable, String query) {
-        if (query == null || query.isBlank()) {
-            return fileRepository.findAllNotHiddenFiles(pageable);
-        }
-        return fileRepository.searchNotHiddenFiles(query, pageable);
+    @Cacheable(value = "publicFiles", key = "'cursor:' + #cursor + ':size:' + #size + ':q:' + (#query == null ? '' : #query.toLowerCase())")
+    public FileListPage<FileListItem> getVisibleFiles(String cursor, int size, String query) {
+        return listFiles(FileListCursor.decode(cursor), size, query, false, fileRepository::findListItemsByIds, FileListItem::id);
     }
 
     public long calculateTotalSpaceUsed() {
@@ -319,6 +426,7 @@ public class FileService {
         fileEntity.uploadDate = LocalDate.now();
         logger.info("File extended: {}", fileEntity);
         fileRepository.save(fileEntity);
+        fileLookupService.evict(uuid);
         logHistory(fileEntity, request, FileHistoryType.RENEWAL);
     }
 
@@ -340,24 +448,118 @@ public class FileService {
         fileEntity.hidden = !fileEntity.hidden;
         logger.info("File hidden updated: {}", fileEntity);
         fileRepository.save(fileEntity);
+        fileLookupService.evict(uuid);
         return fileEntity;
     }
 
-    @Cacheable(value = "adminFiles", key = "'page:' + #pageable.pageNumber + ':size:' + #pageable.pageSize + ':q:' + (#query == null ? '' : #query.toLowerCase())")
-    public Page<FileEntityView> getFilesWithDownloadCounts(Pageable pageable, String query) {
-        if (query == null || query.isBlank()) {
-            return fileRepository.findFilesWithDownloadCounts(pageable);
+    @Cacheable(value = "adminFiles", key = "'cursor:' + #cursor + ':size:' + #size + ':q:' + (#query == null ? '' : #query.toLowerCase())")
+    public FileListPage<FileEntityView> getFilesWithDownloadCounts(String cursor, int size, String query) {
+        return listFiles(FileListCursor.decode(cursor), size, query, true, fileRepository::findFilesWithDownloadCountsByIds, file -> file.id);
+    }
+
+    /**
+     * Seeks to the page in the {@code (upload_date, id)} index, newest first, then loads just the rows of that page.
+     * One row more than the page size is fetched to find out whether another page follows.
+     */
+    private <T> FileListPage<T> listFiles(FileListCursor cursor, int size, String query, boolean includeHidden,
+                                          Function<List<Long>, List<T>> loader, Function<T, Long> idOf) {
+        if (query != null && !query.isBlank()) {
+            long offset = cursor != null && cursor.kind() == FileListCursor.Kind.OFFSET ? cursor.offset() : 0;
+            return searchFiles(query, includeHidden, offset, size, loader, idOf);
+        }
+
+        if (cursor != null && cursor.kind() == FileListCursor.Kind.OFFSET) {
+            cursor = null;
+        }
+        long total = includeHidden ? fileRepository.countAllFiles() : fileRepository.countNotHiddenFiles();
+        boolean backward = cursor != null && cursor.kind() == FileListCursor.Kind.BEFORE;
+        List<Object[]> keys;
+        if (cursor == null) {
+            keys = fileRepository.findFirstFileKeys(includeHidden, size + 1);
+        } else if (backward) {
+            keys = fileRepository.findFileKeysBefore(cursor.uploadDate(), cursor.id(), includeHidden, size + 1);
+        } else {
+            keys = fileRepository.findFileKeysAfter(cursor.uploadDate(), cursor.id(), includeHidden, size + 1);
+        }
+
+        boolean more = keys.size() > size;
+        // Going back to the start, or to a position whose files are gone, shows a full first page instead
+        if (cursor != null && (keys.isEmpty() || (backward && !more))) {
+            return listFiles(null, size, null, includeHidden, loader, idOf);
+        }
+
+        List<Object[]> rows = new ArrayList<>(more ? keys.subList(0, size) : keys);
+        if (backward) {
+            Collections.reverse(rows);
+        }
+        String previousCursor = null;
+        String nextCursor = null;
+        if (!rows.isEmpty()) {
+            Object[] first = rows.getFirst();
+            Object[] last = rows.getLast();
+            if (backward ? more : cursor != null) {
+                previousCursor = FileListCursor.before(sortKey(first[1]), sortKey(first[0])).encode();
+            }
+            if (backward || more) {
+                nextCursor = FileListCursor.after(sortKey(last[1]), sortKey(last[0])).encode();
+            }
+        }
+
+        List<Long> ids = rows.stream().map(row -> sortKey(row[0])).toList();
+        return new FileListPage<>(loadInOrder(ids, loader, idOf), previousCursor, nextCursor, total);
+    }
+
+    /**
+     * Finds the ids of a page in the full-text index, then loads just those rows. Results are ordered by rank, which
+     * cannot be seeked in an index, so search pages by offset.
+     */
+    private <T> FileListPage<T> searchFiles(String query, boolean includeHidden, long offset, int size,
+                                            Function<List<Long>, List<T>> loader, Function<T, Long> idOf) {
+        String terms = FullTextQuery.terms(query);
+        String uuidFragment = FullTextQuery.uuidFragment(query);
+        if (terms.equals(FullTextQuery.MATCH_NOTHING) && uuidFragment.equals(FullTextQuery.MATCH_NOTHING)) {
+            return new FileListPage<>(List.of(), null, null, 0);
+        }
+
+        Pageable pageable = PageRequest.of((int) (offset / size), size);
+        Page<Number> matches = fileRepository.searchFileIds(terms, uuidFragment, includeHidden, pageable);
+        long pageOffset = pageable.getOffset();
+        String previousCursor = pageOffset > 0 ? FileListCursor.offset(Math.max(0, pageOffset - size)).encode() : null;
+        String nextCursor = matches.hasNext() ? FileListCursor.offset(pageOffset + size).encode() : null;
+
+        List<Long> ids = matches.getContent().stream().map(Number::longValue).toList();
+        return new FileListPage<>(loadInOrder(ids, loader, idOf), previousCursor, nextCursor, matches.getTotalElements());
+    }
+
+    /**
+     * The driver reads the upload date column as a date and the id as Integer or Long. Both are compared as the
+     * stored number.
+     */
+    private static long sortKey(Object value) {
+        if (value instanceof java.util.Date date) {
+            return date.getTime();
         }
-        return fileRepository.searchFilesWithDownloadCounts(query, pageable);
+        return ((Number) value).longValue();
+    }
+
+    private static <T> List<T> loadInOrder(List<Long> ids, Function<List<Long>, List<T>> loader, Function<T, Long> idOf) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, T> byId = loader.apply(ids).stream()
+                .collect(Collectors.toMap(idOf, Function.identity()));
+        return ids.stream()
+                .map(byId::get)
+                .filter(Objects::nonNull)
+                .toList();
     }
 
     public boolean checkFilePassword(String uuid, String password) {
-        Optional<FileEntity> referenceByUUID = fileRepository.findByUUID(uuid);
-        if (referenceByUUID.isEmpty()) {
+        FileEntity fileEntity = fileLookupService.find(uuid);
+        if (fileEntity == null) {
             return false;
         }
 
-        FileEntity fileEntity = referenceByUUID.get();
         return passwordEncoder.matches(password, fileEntity.passwordHash);
     }
 
@@ -368,6 +570,20 @@ public class FileService {
         }
 
         FileEntity fileEntity = shareTokenEntity.file;
+        if (fileEntity.encrypted) {
+            Optional<SecretKey> dataKey;
+            try {
+                dataKey = fileKeyService.unlockWithShareToken(shareTokenEntity);
+            } catch (GeneralSecurityException e) {
+                logger.error("Failed to unlock file {} with share token: {}", fileEntity.uuid, e.getMessage());
+                return null;
+            }
+
+            if (dataKey.isPresent()) {
+                return streamEnvelopeEncryptedFile(shareTokenEntity, dataKey.get(), request);
+            }
+        }
+
         Path decryptedFilePath = Path.of(applicationSettingsService.getFileStoragePath(), fileEntity.uuid + "-decrypted");
         Path filePathToStream = Files.exists(decryptedFilePath) ? decryptedFilePath : Path.of(applicationSettingsService.getFileStoragePath(), fileEntity.uuid);
 
@@ -382,12 +598,32 @@ public class FileService {
         };
     }
 
+    private StreamingResponseBody streamEnvelopeEncryptedFile(ShareTokenEntity shareTokenEntity, SecretKey dataKey, HttpServletRequest request) {
+        FileEntity fileEntity = shareTokenEntity.file;
+        Path filePath = Path.of(applicationSettingsService.getFileStoragePath(), fileEntity.uuid);
+
+        logHistory(fileEntity, request, FileHistoryType.DOWNLOAD);
+
+        return outputStream -> {
+            try (InputStream in = fileEncryptionService.getDecryptedInputStream(filePath.toFile(), dataKey)) {
+                in.transferTo(outputStream);
+                outputStream.flush();
+            } catch (IOException e) {
+                logger.error("Error streaming encrypted file for UUID: {}", fileEntity.uuid, e);
+                throw e;
+            } finally {
+                updateShareTokenAfterDownload(shareTokenEntity, fileEntity);
+            }
+        };
+    }
+
     private void updateShareTokenAfterDownload(ShareTokenEntity shareTokenEntity, FileEntity fileEntity) {
         if (shareTokenEntity.numberOfAllowedDownloads != null) {
             shareTokenEntity.numberOfAllowedDownloads--;
         }
 
         if (!validateShareToken(shareTokenEntity)) {
+            fileKeyService.deleteKeysForShareTokens(List.of(shareTokenEntity));
             shareTokenRepository.delete(shareTokenEntity);
         } else {
             shareTokenRepository.save(shareTokenEntity);
@@ -416,6 +652,7 @@ public class FileService {
         fileEntity.keepIndefinitely = keepIndefinitely;
         logger.info("File keepIndefinitely updated: {}", fileEntity);
         fileRepository.save(fileEntity);
+        fileLookupService.evict(uuid);
         return fileEntity;
     }
 
@@ -471,13 +708,21 @@ public class FileService {
                 return existing.get();
             }
         }
+        if (file.encrypted) {
+            ShareTokenEntity shareToken = generateEnvelopeShareToken(file, tokenExpirationDate, sessionToken, numberOfDownloads);
+            if (shareToken != null) {
+                logger.info("Share token generated for file: {}", file.name);
+                return shareToken;
+            }
+        }
+
         Path encryptedFilePath = Path.of(applicationSettingsService.getFileStoragePath(), file.uuid);
         Path decryptedFilePath = encryptedFilePath.resolveSibling(file.uuid + "-decrypted");
 
         if (file.encrypted && !Files.exists(decryptedFilePath)) {
             try {
                 String password = sessionService.getPasswordForFileSessionToken(sessionToken).getPassword();
-                fileEncryptionService.decryptFile(encryptedFilePath.toFile(), decryptedFilePath.toFile(), password);
+                fileEncryptionService.decryptFile(encryptedFilePath.toFile(), decryptedFilePath.toFile(), password, sessionToken);
                 logger.info("Decrypted file created alongside encrypted file: {}", decryptedFilePath);
             } catch (Exception e) {
                 logger.error("Error decrypting file for sharing: {}", e.getMessage());
@@ -490,6 +735,64 @@ public class FileService {
         return shareToken;
     }
 
+    private ShareTokenEntity generateEnvelopeShareToken(FileEntity file, LocalDate tokenExpirationDate, String sessionToken, Integer numberOfDownloads) {
+        try {
+            String password = sessionService.getPasswordForFileSessionToken(sessionToken).getPassword();
+            Optional<SecretKey> dataKey = fileKeyService.unlockWithPassword(file, password, sessionToken);
+            if (dataKey.isEmpty()) {
+                return null;
+            }
+
+            ShareTokenEntity shareToken = generateShareToken(file.uuid, tokenExpirationDate, numberOfDownloads);
+            fileKeyService.grantShareToken(shareToken, dataKey.get());
+            return shareToken;
+        } catch (GeneralSecurityException e) {
+            logger.error("Error unlocking file key for sharing: {}", e.getMessage());
+            throw new RuntimeException("Failed to unlock file key", e);
+        }
+    }
+
+    public boolean changeFilePassword(String uuid, String newPassword, HttpServletRequest request) {
+        FileEntity fileEntity = fileRepository.findByUUID(uuid).orElse(null);
+        if (fileEntity == null || fileEntity.passwordHash == null || newPassword == null || newPassword.isBlank()) {
+            return false;
+        }
+
+        String sessionToken = getFileSessionToken(request);
+        if (sessionToken == null || !sessionService.validateFileSessionToken(sessionToken, uuid)) {
+            return false;
+        }
+
+        // As on upload, the key is re-wrapped and the password hashed before the transaction opens
+        Optional<FileEncryptionService.WrappedKey> wrappedKey = Optional.empty();
+        if (fileEntity.encrypted) {
+            try {
+                String currentPassword = getFilePasswordFromSessionToken(request);
+                wrappedKey = fileKeyService.rewrapPasswordKey(fileEntity, currentPassword, newPassword, sessionToken);
+                if (wrappedKey.isEmpty()) {
+                    logger.info("Password change not supported for file without a data key: {}", uuid);
+                    return false;
+                }
+            } catch (GeneralSecurityException e) {
+                logger.error("Error rotating file key for {}: {}", uuid, e.getMessage());
+                return false;
+            }
+        }
+        String passwordHash = passwordEncoder.encode(newPassword);
+
+        Optional<FileEncryptionService.WrappedKey> rotatedKey = wrappedKey;
+        transactionTemplate.executeWithoutResult(status -> {
+            rotatedKey.ifPresent(key -> fileKeyService.replacePasswordKey(fileEntity, key));
+            fileEntity.passwordHash = passwordHash;
+            fileRepository.save(fileEntity);
+        });
+        fileLookupService.evict(uuid);
+        sessionService.addFileSessionToken(sessionToken, newPassword, uuid);
+        sessionService.invalidateOtherFileSessions(uuid, sessionToken);
+        logger.info("File password changed: {}", uuid);
+        return true;
+    }
+
     public Optional<ShareTokenEntity> getShareTokenEntityByToken(String token) {
         return shareTokenRepository.findByShareToken(token);
     }
@@ -507,11 +810,6 @@ public class FileService {
                 .body(responseBody);
     }
 
-    public boolean fileExistsInFileSystem(String uuid) {
-        return Files.exists(Path.of(applicationSettingsService.getFileStoragePath(), uuid));
-    }
-
-
     public boolean shouldEncrypt(FileUploadRequest request) {
         return request.password != null && !request.password.isBlank() && applicationSettingsService.isEncryptionEnabled();
     }
@@ -0,0 +1,203 @@
+package org.rostislav.quickdrop.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.entity.FileHistoryArchiveSegment;
+import org.rostislav.quickdrop.model.ArchivedHistoryEvent;
+import org.rostislav.quickdrop.repository.FileHistoryArchiveSegmentRepository;
+import org.rostislav.quickdrop.repository.FileHistoryLogRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Moves old history events out of SQLite into gzip compressed NDJSON segments, one directory per month, and keeps
+ * an index of which files have events in which segment. A segment is written to a temporary file, synced and renamed
+ * before the index rows are added and the events deleted in one transaction, so an event is always either in the
+ * database or in an indexed segment.
+ */
+@Service
+public class HistoryArchiveService {
+    private static final Logger logger = LoggerFactory.getLogger(HistoryArchiveService.class);
+    private static final String SEGMENT_SUFFIX = ".ndjson.gz";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String ORPHANED_SUFFIX = ".orphaned";
+
+    private final FileHistoryLogRepository fileHistoryLogRepository;
+    private final FileHistoryArchiveSegmentRepository segmentRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Path archiveDirectory;
+
+    public HistoryArchiveService(FileHistoryLogRepository fileHistoryLogRepository,
+                                 FileHistoryArchiveSegmentRepository segmentRepository,
+                                 TransactionTemplate transactionTemplate,
+                                 ObjectMapper objectMapper,
+                                 @Value("${app.history.archive-enabled:true}") boolean enabled,
+                                 @Value("${app.history.archive-dir:db/history-archive}") String archiveDirectory) {
+        this.fileHistoryLogRepository = fileHistoryLogRepository;
+        this.segmentRepository = segmentRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.archiveDirectory = Path.of(archiveDirectory).toAbsolutePath();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Archives rolled up events older than the cutoff, {@code batchSize} events per transaction. Stops at the first
+     * I/O error, the events that were not archived stay in the database and are picked up by the next run.
+     */
+    public long archiveBefore(LocalDateTime cutoff, int batchSize) {
+        long archived = 0;
+        try {
+            Files.createDirectories(archiveDirectory);
+            setAsideUnindexedSegments();
+
+            List<ArchivedHistoryEvent> events;
+            do {
+                events = fileHistoryLogRepository.findArchivableBefore(cutoff, Limit.of(batchSize));
+                if (events.isEmpty()) {
+                    break;
+                }
+
+                Map<YearMonth, List<ArchivedHistoryEvent>> byMonth = events.stream()
+                        .collect(Collectors.groupingBy(event -> YearMonth.from(event.eventDate()), TreeMap::new, Collectors.toList()));
+                List<FileHistoryArchiveSegment> segments = new ArrayList<>();
+                for (Map.Entry<YearMonth, List<ArchivedHistoryEvent>> month : byMonth.entrySet()) {
+                    segments.add(writeSegment(month.getKey(), month.getValue()));
+                }
+
+                List<Long> ids = events.stream().map(ArchivedHistoryEvent::id).toList();
+                transactionTemplate.executeWithoutResult(status -> {
+                    segmentRepository.saveAll(segments);
+                    fileHistoryLogRepository.deleteByIds(ids);
+                });
+                archived += events.size();
+            } while (events.size() == batchSize);
+        } catch (IOException e) {
+            logger.error("Archiving history events failed after {} events: {}", archived, e.getMessage());
+        }
+
+        if (archived > 0) {
+            logger.info("Archived {} history events before {} to {}", archived, cutoff, archiveDirectory);
+        }
+        return archived;
+    }
+
+    public long countSegmentsForFile(FileEntity fileEntity) {
+        return segmentRepository.countByFileId(fileEntity.id);
+    }
+
+    /**
+     * Streams the archived events of a file as NDJSON, oldest first. Segments hold the events of every file of their
+     * month, so each one is read and filtered.
+     */
+    public ResponseEntity<StreamingResponseBody> downloadArchivedEvents(FileEntity fileEntity) {
+        long fileId = fileEntity.id;
+        List<String> fileNames = segmentRepository.findFileNamesByFileId(fileId);
+
+        StreamingResponseBody body = outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            for (String fileName : fileNames) {
+                Path segment = archiveDirectory.resolve(fileName);
+                if (!Files.exists(segment)) {
+                    logger.warn("Archived history segment is missing: {}", segment);
+                    continue;
+                }
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        new GZIPInputStream(Files.newInputStream(segment)), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        JsonNode event = objectMapper.readTree(line);
+                        if (event.path("fileId").asLong() == fileId) {
+                            writer.write(line);
+                            writer.write('\n');
+                        }
+                    }
+                }
+            }
+            writer.flush();
+        };
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileEntity.uuid + "-history.ndjson\"")
+                .header(HttpHeaders.CONTENT_TYPE, "application/x-ndjson")
+                .body(body);
+    }
+
+    private FileHistoryArchiveSegment writeSegment(YearMonth month, List<ArchivedHistoryEvent> events) throws IOException {
+        ArchivedHistoryEvent first = events.getFirst();
+        ArchivedHistoryEvent last = events.getLast();
+        // Each event is archived once, so the id of the first one makes the name unique
+        String fileName = month + "/history-" + month + "-" + first.id() + SEGMENT_SUFFIX;
+        Path target = archiveDirectory.resolve(fileName);
+        Path temporary = target.resolveSibling(target.getFileName() + TEMPORARY_SUFFIX);
+        Files.createDirectories(target.getParent());
+
+        try (FileOutputStream fileOutputStream = new FileOutputStream(temporary.toFile());
+             GZIPOutputStream gzipOutputStream = new GZIPOutputStream(new BufferedOutputStream(fileOutputStream));
+             Writer writer = new OutputStreamWriter(gzipOutputStream, StandardCharsets.UTF_8)) {
+            for (ArchivedHistoryEvent event : events) {
+                writer.write(objectMapper.writeValueAsString(event));
+                writer.write('\n');
+            }
+            writer.flush();
+            gzipOutputStream.finish();
+            gzipOutputStream.flush();
+            // The index is committed right after the rename, the data has to be on disk by then
+            fileOutputStream.getFD().sync();
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+
+        Set<Long> fileIds = events.stream().map(ArchivedHistoryEvent::fileId).collect(Collectors.toSet());
+        return new FileHistoryArchiveSegment(month.toString(), fileName, events.size(), first.eventDate(), last.eventDate(), fileIds);
+    }
+
+    /**
+     * A run that stopped between writing a segment and committing its index leaves a file whose events are still in
+     * the database. Temporary files are deleted, complete segments are renamed rather than deleted, in case they
+     * belong to a database that was restored from a backup.
+     */
+    private void setAsideUnindexedSegments() throws IOException {
+        Set<String> indexed = segmentRepository.findAllFileNames();
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(archiveDirectory, 2)) {
+            files = paths.filter(Files::isRegularFile).toList();
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            String relative = archiveDirectory.relativize(file).toString().replace(File.separatorChar, '/');
+            if (name.endsWith(TEMPORARY_SUFFIX)) {
+                Files.deleteIfExists(file);
+            } else if (name.endsWith(SEGMENT_SUFFIX) && !indexed.contains(relative)) {
+                logger.warn("History segment {} is not in the archive index, renaming it", relative);
+                Files.move(file, file.resolveSibling(name + ORPHANED_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.rostislav.quickdrop.service;
+
+import org.rostislav.quickdrop.repository.FileHistoryDailyRepository;
+import org.rostislav.quickdrop.repository.FileHistoryLogRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Rolls the history log up into per file, per day totals once a day is over, and purges raw events older than the
+ * retention period, or moves them to the {@link HistoryArchiveService} when archiving is enabled. Download counts are
+ * the rolled up totals plus the events that are not rolled up yet, so they do not change when raw events are purged.
+ */
+@Service
+public class HistoryRollupService {
+    private static final Logger logger = LoggerFactory.getLogger(HistoryRollupService.class);
+
+    private final FileHistoryLogRepository fileHistoryLogRepository;
+    private final FileHistoryDailyRepository fileHistoryDailyRepository;
+    private final HistoryArchiveService historyArchiveService;
+    private final TransactionTemplate transactionTemplate;
+    private final int retentionDays;
+    private final int purgeBatchSize;
+
+    public HistoryRollupService(FileHistoryLogRepository fileHistoryLogRepository,
+                                FileHistoryDailyRepository fileHistoryDailyRepository,
+                                HistoryArchiveService historyArchiveService,
+                                TransactionTemplate transactionTemplate,
+                                @Value("${app.history.retention-days:90}") int retentionDays,
+                                @Value("${app.history.purge-batch-size:1000}") int purgeBatchSize) {
+        this.fileHistoryLogRepository = fileHistoryLogRepository;
+        this.fileHistoryDailyRepository = fileHistoryDailyRepository;
+        this.historyArchiveService = historyArchiveService;
+        this.transactionTemplate = transactionTemplate;
+        this.retentionDays = retentionDays;
+        this.purgeBatchSize = Math.max(1, purgeBatchSize);
+    }
+
+    @Scheduled(cron = "${app.history.rollup-cron:0 15 2 * * *}")
+    public void rollUpAndPurge() {
+        rollUp();
+        purge();
+    }
+
+    /**
+     * Rolls up every day before today that still has raw events, oldest first. Each day is one transaction, so the
+     * daily rows and the rolled up flags never disagree.
+     */
+    public void rollUp() {
+        LocalDateTime today = LocalDate.now().atStartOfDay();
+        int days = 0;
+        LocalDateTime oldest;
+        // Asking for the oldest event again after each day skips the days without events
+        while ((oldest = fileHistoryLogRepository.findOldestNotRolledUpEventDate()) != null && oldest.isBefore(today)) {
+            LocalDate day = oldest.toLocalDate();
+            LocalDateTime start = day.atStartOfDay();
+            LocalDateTime end = day.plusDays(1).atStartOfDay();
+            Integer events = transactionTemplate.execute(status -> {
+                fileHistoryDailyRepository.rollUpDay(day, start, end);
+                return fileHistoryLogRepository.markRolledUp(start, end);
+            });
+            // The same oldest event would come back forever, for example when its date is stored in another format
+            if (events == null || events == 0) {
+                logger.error("No history events of {} were marked as rolled up (oldest event at {}), stopping the roll up", day, oldest);
+                break;
+            }
+            logger.debug("Rolled up {} history events of {}", events, day);
+            days++;
+        }
+        if (days > 0) {
+            logger.info("Rolled up the history of {} day(s)", days);
+        }
+    }
+
+    /**
+     * Deletes or archives rolled up events older than the retention period in batches. A retention of zero or less
+     * keeps raw events in the database forever.
+     */
+    public void purge() {
+        if (retentionDays <= 0) {
+            return;
+        }
+        LocalDateTime cutoff = rawHistoryCutoff().atStartOfDay();
+        if (historyArchiveService.isEnabled()) {
+            historyArchiveService.archiveBefore(cutoff, purgeBatchSize);
+            return;
+        }
+
+        long purged = 0;
+        int deleted;
+        do {
+            deleted = fileHistoryLogRepository.deleteRolledUpBefore(cutoff, purgeBatchSize);
+            purged += deleted;
+        } while (deleted == purgeBatchSize);
+        if (purged > 0) {
+            logger.info("Purged {} history events before {}", purged, cutoff);
+        }
+    }
+
+    /**
+     * The first day whose raw events are kept. Days before it are only available as daily totals.
+     */
+    public LocalDate rawHistoryCutoff() {
+        return retentionDays <= 0 ? LocalDate.EPOCH : LocalDate.now().minusDays(retentionDays);
+    }
+}
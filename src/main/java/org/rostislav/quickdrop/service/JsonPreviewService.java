@@ -0,0 +1,362 @@
+package org.rostislav.quickdrop.service;
+
+import com.fasterxml.jackson.core.*;
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.model.JsonPreviewChild;
+import org.rostislav.quickdrop.model.JsonPreviewNode;
+import org.rostislav.quickdrop.util.LineOffsetIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+import static org.rostislav.quickdrop.util.FileUtils.contentTypeOf;
+import static org.rostislav.quickdrop.util.FileUtils.isPreviewableJson;
+
+/**
+ * Describes JSON documents one level at a time with a streaming parser, so the preview never holds more than the
+ * requested window in memory. Values are addressed with JSON Pointers; subtrees that are not needed are skipped
+ * without being decoded. JSONL files are treated as an array of records, with the record index of
+ * {@link TextPreviewService} used to jump straight to a record.
+ */
+@Service
+public class JsonPreviewService {
+    private static final Logger logger = LoggerFactory.getLogger(JsonPreviewService.class);
+    private static final int MAX_WINDOW_CHILDREN = 500;
+    private static final int MAX_VALUE_CHARS = 200;
+    private static final int MAX_RECORD_BYTES = 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final ApplicationSettingsService applicationSettingsService;
+    private final TextPreviewService textPreviewService;
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    public JsonPreviewService(ApplicationSettingsService applicationSettingsService, TextPreviewService textPreviewService) {
+        this.applicationSettingsService = applicationSettingsService;
+        this.textPreviewService = textPreviewService;
+    }
+
+    public boolean isPaged(FileEntity fileEntity) {
+        return fileEntity != null && !fileEntity.encrypted && isPreviewableJson(fileEntity);
+    }
+
+    public ResponseEntity<JsonPreviewNode> nodeResponse(FileEntity fileEntity, String path, long offset, int limit) {
+        if (fileEntity == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!applicationSettingsService.isPreviewEnabled()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (!isPaged(fileEntity)) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+        }
+
+        JsonPointer pointer;
+        try {
+            pointer = JsonPointer.compile(path == null || path.equals("/") ? "" : path);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        try {
+            long start = Math.max(0, offset);
+            int windowSize = Math.max(1, Math.min(limit, MAX_WINDOW_CHILDREN));
+            Optional<JsonPreviewNode> node = isJsonLines(fileEntity)
+                    ? describeRecords(fileEntity.uuid, pointer, start, windowSize)
+                    : describeDocument(textPreviewService.sourcePath(fileEntity.uuid), pointer, start, windowSize);
+            return node.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
+        } catch (JsonProcessingException e) {
+            logger.info("Malformed JSON in file {}: {}", fileEntity.uuid, e.getOriginalMessage());
+            return ResponseEntity.unprocessableEntity().build();
+        } catch (IOException e) {
+            logger.error("Failed to read JSON preview of file {}: {}", fileEntity.uuid, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    private Optional<JsonPreviewNode> describeDocument(Path source, JsonPointer pointer, long offset, int limit) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(new BufferedInputStream(new FileInputStream(source.toFile()), READ_BUFFER_SIZE))) {
+            JsonToken token = parser.nextToken();
+            if (token == null || !navigate(parser, pointer)) {
+                return Optional.empty();
+            }
+            return Optional.of(describe(parser, pointer.toString(), offset, limit));
+        }
+    }
+
+    /**
+     * The root of a JSONL file is the list of records. Deeper paths start with the record number.
+     */
+    private Optional<JsonPreviewNode> describeRecords(String uuid, JsonPointer pointer, long offset, int limit) throws IOException {
+        Path source = textPreviewService.sourcePath(uuid);
+        LineOffsetIndex index = textPreviewService.getIndex(uuid, false);
+
+        if (pointer.matches()) {
+            List<JsonPreviewChild> children = new ArrayList<>();
+            long line = offset;
+            for (LineOffsetIndex.Line record : index.readLines(source, offset, limit, MAX_RECORD_BYTES)) {
+                children.add(describeRecord(record, line++));
+            }
+            boolean hasMore = offset + children.size() < index.getTotalLines();
+            return Optional.of(new JsonPreviewNode("", "array", null, index.getTotalLines(), offset, hasMore, children));
+        }
+
+        int record = pointer.getMatchingIndex();
+        long start = index.offsetOf(source, record);
+        if (record < 0 || start < 0) {
+            return Optional.empty();
+        }
+
+        // A truncated record must not run on into the next one
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ).position(start);
+             JsonParser parser = jsonFactory.createParser(new SingleLineInputStream(new BufferedInputStream(Channels.newInputStream(channel), READ_BUFFER_SIZE)))) {
+            if (parser.nextToken() == null || !navigate(parser, pointer.tail())) {
+                return Optional.empty();
+            }
+            return Optional.of(describe(parser, pointer.toString(), offset, limit));
+        }
+    }
+
+    private JsonPreviewChild describeRecord(LineOffsetIndex.Line record, long line) throws IOException {
+        String key = String.valueOf(line);
+        String path = "/" + key;
+        if (record.text().isBlank()) {
+            return new JsonPreviewChild(key, path, "empty", null, null, false);
+        }
+        if (record.truncated()) {
+            return new JsonPreviewChild(key, path, "record", null, null, true);
+        }
+
+        try (JsonParser parser = jsonFactory.createParser(record.text())) {
+            return describeChild(parser, parser.nextToken(), key, path);
+        } catch (JsonProcessingException e) {
+            return new JsonPreviewChild(key, path, "invalid", null, null, false);
+        }
+    }
+
+    /**
+     * Moves the parser from the current value to the value the pointer refers to, skipping everything in between.
+     */
+    private static boolean navigate(JsonParser parser, JsonPointer pointer) throws IOException {
+        JsonPointer remaining = pointer;
+        while (!remaining.matches()) {
+            JsonToken token = parser.currentToken();
+            if (token == JsonToken.START_OBJECT) {
+                String property = remaining.getMatchingProperty();
+                while (true) {
+                    if (parser.nextToken() != JsonToken.FIELD_NAME) {
+                        return false;
+                    }
+                    String name = parser.currentName();
+                    parser.nextToken();
+                    if (name.equals(property)) {
+                        break;
+                    }
+                    parser.skipChildren();
+                }
+            } else if (token == JsonToken.START_ARRAY) {
+                int target = remaining.getMatchingIndex();
+                if (target < 0) {
+                    return false;
+                }
+                for (int i = 0; ; i++) {
+                    JsonToken element = parser.nextToken();
+                    if (element == null || element == JsonToken.END_ARRAY) {
+                        return false;
+                    }
+                    if (i == target) {
+                        break;
+                    }
+                    parser.skipChildren();
+                }
+            } else {
+                return false;
+            }
+            remaining = remaining.tail();
+        }
+        return true;
+    }
+
+    private JsonPreviewNode describe(JsonParser parser, String path, long offset, int limit) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (!token.isStructStart()) {
+            StringBuilder value = new StringBuilder();
+            readScalar(parser, token, value);
+            return new JsonPreviewNode(path, typeOf(token), value.toString(), null, 0, false, List.of());
+        }
+
+        boolean object = token == JsonToken.START_OBJECT;
+        List<JsonPreviewChild> children = new ArrayList<>();
+        long position = 0;
+        boolean hasMore = false;
+        while (true) {
+            JsonToken next = parser.nextToken();
+            if (next == JsonToken.END_OBJECT || next == JsonToken.END_ARRAY || next == null) {
+                break;
+            }
+            String key = object ? parser.currentName() : String.valueOf(position);
+            if (object) {
+                next = parser.nextToken();
+            }
+
+            if (position < offset) {
+                parser.skipChildren();
+            } else if (children.size() < limit) {
+                children.add(describeChild(parser, next, key, path + "/" + escape(key)));
+            } else {
+                hasMore = true;
+                break;
+            }
+            position++;
+        }
+
+        Long size = hasMore ? null : position;
+        return new JsonPreviewNode(path, object ? "object" : "array", null, size, offset, hasMore, children);
+    }
+
+    /**
+     * Describes the value at the current token and leaves the parser at its last token. Containers are walked one
+     * level deep to count their children.
+     */
+    private JsonPreviewChild describeChild(JsonParser parser, JsonToken token, String key, String path) throws IOException {
+        if (token.isStructStart()) {
+            long count = 0;
+            while (true) {
+                JsonToken next = parser.nextToken();
+                if (next == JsonToken.END_OBJECT || next == JsonToken.END_ARRAY || next == null) {
+                    break;
+                }
+                if (next == JsonToken.FIELD_NAME) {
+                    parser.nextToken();
+                }
+                parser.skipChildren();
+                count++;
+            }
+            return new JsonPreviewChild(key, path, token == JsonToken.START_OBJECT ? "object" : "array", count, null, false);
+        }
+
+        StringBuilder value = new StringBuilder();
+        boolean truncated = readScalar(parser, token, value);
+        return new JsonPreviewChild(key, path, typeOf(token), null, value.toString(), truncated);
+    }
+
+    /**
+     * Appends at most {@link #MAX_VALUE_CHARS} characters of the scalar, streaming long strings instead of
+     * materializing them. Returns whether the value was cut off.
+     */
+    private static boolean readScalar(JsonParser parser, JsonToken token, StringBuilder value) throws IOException {
+        if (token != JsonToken.VALUE_STRING) {
+            value.append(parser.getText());
+            return false;
+        }
+
+        LimitedWriter writer = new LimitedWriter(value);
+        parser.getText(writer);
+        return writer.truncated;
+    }
+
+    private static String typeOf(JsonToken token) {
+        return switch (token) {
+            case START_OBJECT -> "object";
+            case START_ARRAY -> "array";
+            case VALUE_STRING -> "string";
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> "number";
+            case VALUE_TRUE, VALUE_FALSE -> "boolean";
+            case VALUE_NULL -> "null";
+            default -> token.name().toLowerCase(Locale.ROOT);
+        };
+    }
+
+    private static String escape(String key) {
+        return key.replace("~", "~0").replace("/", "~1");
+    }
+
+    private static boolean isJsonLines(FileEntity fileEntity) {
+        return "application/x-ndjson".equals(contentTypeOf(fileEntity));
+    }
+
+    /**
+     * Ends after the first line break. JSON strings cannot hold a raw line break, so this is the end of a JSONL record.
+     */
+    private static final class SingleLineInputStream extends InputStream {
+        private final InputStream in;
+        private boolean ended;
+
+        private SingleLineInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (ended) {
+                return -1;
+            }
+            int b = in.read();
+            ended = b == -1 || b == '\n';
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (ended || length == 0) {
+                return ended ? -1 : 0;
+            }
+            int n = in.read(buffer, offset, length);
+            if (n == -1) {
+                ended = true;
+                return -1;
+            }
+            for (int i = offset; i < offset + n; i++) {
+                if (buffer[i] == '\n') {
+                    ended = true;
+                    return i - offset + 1;
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class LimitedWriter extends Writer {
+        private final StringBuilder target;
+        private boolean truncated;
+
+        private LimitedWriter(StringBuilder target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            int room = MAX_VALUE_CHARS - target.length();
+            if (length > room) {
+                truncated = true;
+            }
+            if (room > 0) {
+                target.append(buffer, offset, Math.min(length, room));
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.rostislav.quickdrop.service;
+
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.rostislav.quickdrop.util.FileUtils.*;
+
+/**
+ * Streams audio and video files to the browser's media element. The response is a plain file resource, so Spring
+ * answers Range requests with the requested byte ranges and seeking only transfers what is played. Encrypted files
+ * cannot be read at an offset and are not streamed.
+ */
+@Service
+public class MediaPreviewService {
+    private final ApplicationSettingsService applicationSettingsService;
+
+    public MediaPreviewService(ApplicationSettingsService applicationSettingsService) {
+        this.applicationSettingsService = applicationSettingsService;
+    }
+
+    public boolean isStreamable(FileEntity fileEntity) {
+        return fileEntity != null
+                && !fileEntity.encrypted
+                && (isPreviewableAudio(fileEntity) || isPreviewableVideo(fileEntity));
+    }
+
+    public ResponseEntity<Resource> streamResponse(FileEntity fileEntity) {
+        if (fileEntity == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!applicationSettingsService.isPreviewEnabled()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (!isStreamable(fileEntity)) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+        }
+
+        Path path = Path.of(applicationSettingsService.getFileStoragePath(), fileEntity.uuid);
+        long lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return ResponseEntity.notFound().build();
+        }
+
+        // Last-Modified lets the browser resume with If-Range after the player pauses
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(contentTypeOf(fileEntity)))
+                .lastModified(lastModified)
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .header(HttpHeaders.CONTENT_DISPOSITION, "inline")
+                .header("X-Content-Type-Options", "nosniff")
+                .body(new FileSystemResource(path));
+    }
+}
@@ -0,0 +1,174 @@
+package org.rostislav.quickdrop.service;
+
+import org.rostislav.quickdrop.model.PreviewSize;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Bounded on-disk LRU cache for rendered previews, kept in a hidden directory inside the file storage path.
+ * Entries are named {@code <uuid>_<version>_<size>.png}, where the version is derived from the stored file, so a
+ * replaced file never hits a stale rendering. The access order is kept in memory and mirrored into the entry
+ * modification times, which restores it after a restart.
+ */
+@Service
+public class PreviewCacheService {
+    private static final Logger logger = LoggerFactory.getLogger(PreviewCacheService.class);
+    private static final String CACHE_DIRECTORY = ".preview-cache";
+    private static final String EXTENSION = ".png";
+
+    private final ApplicationSettingsService applicationSettingsService;
+    private final long maxCacheBytes;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private Path indexedDirectory;
+    private long totalBytes;
+
+    public PreviewCacheService(ApplicationSettingsService applicationSettingsService,
+                               @Value("${app.preview-cache.max-size-mb:256}") long maxCacheSizeMb) {
+        this.applicationSettingsService = applicationSettingsService;
+        this.maxCacheBytes = maxCacheSizeMb * 1024 * 1024;
+    }
+
+    /**
+     * Version of the stored file's content, or null when the file does not exist.
+     */
+    public String contentVersion(Path storedFile) {
+        try {
+            long modified = Files.getLastModifiedTime(storedFile).toMillis();
+            return Long.toHexString(modified) + "-" + Long.toHexString(Files.size(storedFile));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public synchronized Optional<Path> get(String uuid, String version, PreviewSize size) {
+        Path directory = ensureIndexed();
+        String name = entryName(uuid, version, size);
+        if (!entries.containsKey(name)) {
+            return Optional.empty();
+        }
+
+        Path entry = directory.resolve(name);
+        if (!Files.exists(entry)) {
+            totalBytes -= entries.remove(name);
+            return Optional.empty();
+        }
+
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            logger.debug("Could not touch preview cache entry {}: {}", name, e.getMessage());
+        }
+        return Optional.of(entry);
+    }
+
+    public synchronized void put(String uuid, String version, PreviewSize size, byte[] content) {
+        if (content.length > maxCacheBytes) {
+            return;
+        }
+
+        Path directory = ensureIndexed();
+        String name = entryName(uuid, version, size);
+        try {
+            Path temp = Files.createTempFile(directory, name, ".tmp");
+            Files.write(temp, content);
+            Files.move(temp, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Failed to store preview for file {}: {}", uuid, e.getMessage());
+            return;
+        }
+
+        Long previous = entries.put(name, (long) content.length);
+        totalBytes += content.length - (previous == null ? 0 : previous);
+        evictToLimit(directory);
+    }
+
+    /**
+     * Removes every cached rendering of the file, regardless of version and size.
+     */
+    public synchronized void invalidate(String uuid) {
+        Path directory = ensureIndexed();
+        String prefix = uuid + "_";
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                deleteEntry(directory, entry.getKey());
+                totalBytes -= entry.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void evictToLimit(Path directory) {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxCacheBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            deleteEntry(directory, eldest.getKey());
+            totalBytes -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Loads the index from disk on first use, and again whenever the storage path has been changed in the settings.
+     */
+    private Path ensureIndexed() {
+        Path directory = Path.of(applicationSettingsService.getFileStoragePath(), CACHE_DIRECTORY);
+        if (directory.equals(indexedDirectory)) {
+            return directory;
+        }
+
+        entries.clear();
+        totalBytes = 0;
+        try {
+            Files.createDirectories(directory);
+            List<Path> files;
+            try (Stream<Path> stream = Files.list(directory)) {
+                files = stream.filter(Files::isRegularFile).toList();
+            }
+
+            List<Map.Entry<Path, FileTime>> byAccess = new ArrayList<>();
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(EXTENSION)) {
+                    byAccess.add(Map.entry(file, Files.getLastModifiedTime(file)));
+                } else {
+                    // Leftover from an interrupted write
+                    Files.deleteIfExists(file);
+                }
+            }
+            byAccess.sort(Map.Entry.comparingByValue());
+            for (Map.Entry<Path, FileTime> file : byAccess) {
+                long size = Files.size(file.getKey());
+                entries.put(file.getKey().getFileName().toString(), size);
+                totalBytes += size;
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to index preview cache in {}: {}", directory, e.getMessage());
+        }
+
+        indexedDirectory = directory;
+        evictToLimit(directory);
+        logger.info("Preview cache indexed: {} entries, {} bytes", entries.size(), totalBytes);
+        return directory;
+    }
+
+    private void deleteEntry(Path directory, String name) {
+        try {
+            Files.deleteIfExists(directory.resolve(name));
+        } catch (IOException e) {
+            logger.warn("Failed to delete preview cache entry {}: {}", name, e.getMessage());
+        }
+    }
+
+    private static String entryName(String uuid, String version, PreviewSize size) {
+        return uuid + "_" + version + "_" + size.name().toLowerCase(Locale.ROOT) + EXTENSION;
+    }
+}
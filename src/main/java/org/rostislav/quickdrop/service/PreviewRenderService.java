@@ -0,0 +1,209 @@
+package org.rostislav.quickdrop.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.apache.batik.util.HaltingThread;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+
+/**
+ * Runs expensive preview renderings (SVG rasterization) on a dedicated bounded pool, so a few pathological files
+ * cannot occupy every request thread and core. Renderings that do not fit in the queue are rejected right away, and
+ * renderings that exceed the timeout are cancelled. Workers are Batik {@link HaltingThread}s, which lets a timed out
+ * rendering actually stop instead of running on in the background.
+ */
+@Service
+public class PreviewRenderService {
+    private static final Logger logger = LoggerFactory.getLogger(PreviewRenderService.class);
+    private static final long MAX_RETRY_AFTER_SECONDS = 60;
+
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+    private final Timer successTimer;
+    private final Timer failureTimer;
+    private final Timer timeoutTimer;
+    private final Timer waitTimer;
+    private final Counter rejectedCounter;
+
+    public PreviewRenderService(MeterRegistry meterRegistry,
+                                @Value("${app.preview-render.threads:0}") int threads,
+                                @Value("${app.preview-render.queue-size:16}") int queueSize,
+                                @Value("${app.preview-render.timeout-seconds:10}") long timeoutSeconds) {
+        int workers = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), runnable -> {
+            HaltingThread thread = new HaltingThread(runnable, "preview-render");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("quickdrop.preview.render.queued", executor, pool -> pool.getQueue().size())
+                .description("Preview renderings waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("quickdrop.preview.render.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Preview renderings in progress")
+                .register(meterRegistry);
+        this.successTimer = renderTimer(meterRegistry, "success");
+        this.failureTimer = renderTimer(meterRegistry, "failure");
+        this.timeoutTimer = renderTimer(meterRegistry, "timeout");
+        this.waitTimer = Timer.builder("quickdrop.preview.render.wait")
+                .description("Time preview renderings spend in the queue")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("quickdrop.preview.render.rejected")
+                .description("Preview renderings shed because the queue was full or they waited too long")
+                .register(meterRegistry);
+
+        logger.info("Preview rendering pool: {} workers, queue of {}, timeout {}s", workers, queueSize, timeoutSeconds);
+    }
+
+    /**
+     * Runs the rendering on the pool and waits for it, for at most the configured timeout.
+     *
+     * @throws RenderRejectedException when the pool is saturated, the caller should retry later
+     * @throws RenderTimeoutException  when the rendering itself ran out of time, retrying will not help
+     */
+    public byte[] render(Callable<byte[]> rendering) throws IOException {
+        RenderTask task = new RenderTask(rendering);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            throw new RenderRejectedException(retryAfterSeconds());
+        }
+
+        try {
+            return task.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            boolean started = task.halt();
+            executor.remove(task);
+            if (!started) {
+                rejectedCounter.increment();
+                throw new RenderRejectedException(retryAfterSeconds());
+            }
+            throw new RenderTimeoutException();
+        } catch (InterruptedException e) {
+            task.halt();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the preview rendering", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Preview rendering failed", e.getCause());
+        }
+    }
+
+    /**
+     * Rough time until a new rendering would get a worker, based on the queue depth and the mean rendering time.
+     */
+    public long retryAfterSeconds() {
+        double meanMillis = successTimer.mean(TimeUnit.MILLISECONDS);
+        if (meanMillis <= 0) {
+            meanMillis = 1000;
+        }
+        double waitMillis = (executor.getQueue().size() + 1) * meanMillis / executor.getMaximumPoolSize();
+        return Math.max(1, Math.min(MAX_RETRY_AFTER_SECONDS, (long) Math.ceil(waitMillis / 1000)));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static Timer renderTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("quickdrop.preview.render")
+                .description("Time spent rendering previews")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private final class RenderTask extends FutureTask<byte[]> {
+        private final long queuedAt = System.nanoTime();
+        private Thread runner;
+        private boolean started;
+        private boolean halted;
+
+        private RenderTask(Callable<byte[]> rendering) {
+            super(rendering);
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (halted) {
+                    return;
+                }
+                started = true;
+                runner = Thread.currentThread();
+            }
+
+            long startedAt = System.nanoTime();
+            waitTimer.record(startedAt - queuedAt, TimeUnit.NANOSECONDS);
+            try {
+                super.run();
+            } finally {
+                long elapsed = System.nanoTime() - startedAt;
+                boolean timedOut;
+                synchronized (this) {
+                    runner = null;
+                    timedOut = halted;
+                    if (Thread.currentThread() instanceof HaltingThread haltingThread) {
+                        haltingThread.clearHalted();
+                    }
+                }
+
+                if (timedOut) {
+                    timeoutTimer.record(elapsed, TimeUnit.NANOSECONDS);
+                } else if (state() == State.SUCCESS) {
+                    successTimer.record(elapsed, TimeUnit.NANOSECONDS);
+                } else {
+                    failureTimer.record(elapsed, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+
+        /**
+         * Cancels the task and stops the rendering if it is already running. Returns whether it had started.
+         */
+        private synchronized boolean halt() {
+            halted = true;
+            cancel(true);
+            if (runner instanceof HaltingThread haltingThread) {
+                haltingThread.halt();
+            }
+            return started;
+        }
+    }
+
+    public static class RenderRejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAfterSeconds;
+
+        public RenderRejectedException(long retryAfterSeconds) {
+            super("Preview rendering queue is full");
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+
+    public static class RenderTimeoutException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public RenderTimeoutException() {
+            super("Preview rendering timed out");
+        }
+    }
+}
@@ -1,22 +1,37 @@
 package org.rostislav.quickdrop.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import jakarta.transaction.Transactional;
-import org.rostislav.quickdrop.entity.FileEntity;
 import org.rostislav.quickdrop.entity.ShareTokenEntity;
+import org.rostislav.quickdrop.model.FileReference;
+import org.rostislav.quickdrop.repository.FileHistoryDailyRepository;
 import org.rostislav.quickdrop.repository.FileHistoryLogRepository;
+import org.rostislav.quickdrop.repository.FileManifestRepository;
 import org.rostislav.quickdrop.repository.FileRepository;
 import org.rostislav.quickdrop.repository.ShareTokenRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.domain.Limit;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.scheduling.support.CronTrigger;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class ScheduleService {
@@ -25,17 +40,61 @@ public class ScheduleService {
     private final FileService fileService;
     private final ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
     private final FileHistoryLogRepository fileHistoryLogRepository;
+    private final FileHistoryDailyRepository fileHistoryDailyRepository;
+    private final FileManifestRepository fileManifestRepository;
+    private final FileLookupService fileLookupService;
     private final ShareTokenRepository shareTokenRepository;
+    private final FileKeyService fileKeyService;
+    private final TransactionTemplate transactionTemplate;
+    private final CacheManager cacheManager;
+    private final StorageReconciliationService storageReconciliationService;
+    private final ExecutorService cleanupExecutor;
+    private final int pageSize;
+    private final int maxFilesPerSecond;
+    private final Counter deletedCounter;
+    private final Counter failedCounter;
+    private final Timer batchTimer;
     private ScheduledFuture<?> scheduledTask;
     private volatile String currentCron;
+    private volatile long currentMaxFileLifeTime;
 
-    public ScheduleService(FileRepository fileRepository, FileService fileService, FileHistoryLogRepository fileHistoryLogRepository, ShareTokenRepository shareTokenRepository) {
+    public ScheduleService(FileRepository fileRepository, FileService fileService, FileHistoryLogRepository fileHistoryLogRepository, FileHistoryDailyRepository fileHistoryDailyRepository, FileManifestRepository fileManifestRepository, FileLookupService fileLookupService, ShareTokenRepository shareTokenRepository, FileKeyService fileKeyService,
+                           TransactionTemplate transactionTemplate, CacheManager cacheManager, StorageReconciliationService storageReconciliationService, MeterRegistry meterRegistry,
+                           @Value("${app.cleanup.page-size:100}") int pageSize,
+                           @Value("${app.cleanup.threads:4}") int threads,
+                           @Value("${app.cleanup.max-files-per-second:200}") int maxFilesPerSecond) {
         this.fileRepository = fileRepository;
         this.fileService = fileService;
         taskScheduler.setPoolSize(1);
         taskScheduler.initialize();
         this.fileHistoryLogRepository = fileHistoryLogRepository;
+        this.fileHistoryDailyRepository = fileHistoryDailyRepository;
+        this.fileManifestRepository = fileManifestRepository;
+        this.fileLookupService = fileLookupService;
         this.shareTokenRepository = shareTokenRepository;
+        this.fileKeyService = fileKeyService;
+        this.transactionTemplate = transactionTemplate;
+        this.cacheManager = cacheManager;
+        this.storageReconciliationService = storageReconciliationService;
+        this.pageSize = Math.max(1, pageSize);
+        this.maxFilesPerSecond = maxFilesPerSecond;
+        this.cleanupExecutor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "file-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.deletedCounter = Counter.builder("quickdrop.cleanup.files")
+                .description("Expired files handled by the cleanup")
+                .tag("outcome", "deleted")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("quickdrop.cleanup.files")
+                .description("Expired files handled by the cleanup")
+                .tag("outcome", "failed")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("quickdrop.cleanup.batch")
+                .description("Time spent removing one page of expired files from the database")
+                .register(meterRegistry);
     }
 
     @Transactional
@@ -45,7 +104,9 @@ public class ScheduleService {
             return;
         }
 
-        if (cronExpression.equals(currentCron) && scheduledTask != null && !scheduledTask.isCancelled()) {
+        // The lifetime is captured by the scheduled task, a new lifetime needs a new task even with the same cron
+        if (cronExpression.equals(currentCron) && maxFileLifeTime == currentMaxFileLifeTime
+                && scheduledTask != null && !scheduledTask.isCancelled()) {
             logger.debug("Cron unchanged ({}), skipping reschedule", cronExpression);
             return;
         }
@@ -60,50 +121,120 @@ public class ScheduleService {
         );
 
         currentCron = cronExpression;
+        currentMaxFileLifeTime = maxFileLifeTime;
         logger.info("Scheduled cleanup with cron: {} and max life: {} days", cronExpression, maxFileLifeTime);
     }
 
-    @Transactional
+    /**
+     * Deletes the expired files one page at a time. The files of a page are deleted from disk on a small pool, then
+     * the rows of the ones that are gone are removed with a few set based deletes in one short transaction, so the
+     * single writer connection is never held for more than a page. Pages are paced to at most
+     * {@code app.cleanup.max-files-per-second} files, so a large backlog does not starve uploads and downloads.
+     */
     public void deleteOldFiles(long maxFileLifeTime) {
         logger.info("Deleting old files (max life: {} days)", maxFileLifeTime);
         LocalDate thresholdDate = LocalDate.now().minusDays(maxFileLifeTime);
-        List<FileEntity> filesForDeletion = fileRepository.getFilesForDeletion(thresholdDate);
 
-        if (filesForDeletion.isEmpty()) {
+        long afterId = 0;
+        int deleted = 0;
+        int failed = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            long pageStarted = System.nanoTime();
+            List<FileReference> page = fileRepository.findExpiredFiles(thresholdDate, afterId, Limit.of(pageSize));
+            if (page.isEmpty()) {
+                break;
+            }
+            afterId = page.getLast().id();
+
+            List<FileReference> deletedFiles = deleteFromFileSystem(page);
+            List<Long> deletedIds = deletedFiles.stream().map(FileReference::id).toList();
+            if (!deletedIds.isEmpty()) {
+                batchTimer.record(() -> transactionTemplate.executeWithoutResult(status -> {
+                    deleteFromDatabase(deletedIds);
+                    fileLookupService.evictAll(deletedFiles.stream().map(FileReference::uuid).toList());
+                }));
+            }
+            deleted += deletedIds.size();
+            failed += page.size() - deletedIds.size();
+            deletedCounter.increment(deletedIds.size());
+            failedCounter.increment(page.size() - deletedIds.size());
+            logger.debug("Cleanup progress: {} files deleted, {} failed", deleted, failed);
+
+            throttle(pageStarted, page.size());
+        }
+
+        if (deleted == 0 && failed == 0) {
             logger.info("No files eligible for deletion (threshold date: {})", thresholdDate);
             return;
         }
+        if (deleted > 0) {
+            evictFileCaches();
+            logger.info("Deleted {} files (threshold date: {})", deleted, thresholdDate);
+        }
+        if (failed > 0) {
+            logger.warn("{} expired files could not be deleted from the filesystem and were kept", failed);
+        }
+    }
 
-        List<Long> deletedIds = new ArrayList<>();
-        for (FileEntity file : filesForDeletion) {
-            logger.info("Attempting filesystem delete for file: {}", file);
-            boolean deleted = fileService.deleteFileFromFileSystem(file.uuid);
-            if (deleted) {
-                deletedIds.add(file.id);
+    private List<FileReference> deleteFromFileSystem(List<FileReference> files) {
+        List<CompletableFuture<Boolean>> deletions = files.stream()
+                .map(file -> CompletableFuture.supplyAsync(() -> fileService.deleteFileFromFileSystem(file.uuid()), cleanupExecutor))
+                .toList();
+
+        List<FileReference> deleted = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            FileReference file = files.get(i);
+            if (deletions.get(i).join()) {
+                deleted.add(file);
             } else {
-                logger.error("Failed to delete file from filesystem: {}", file);
+                logger.error("Failed to delete file from filesystem: {}", file.uuid());
             }
         }
+        return deleted;
+    }
 
-        if (!deletedIds.isEmpty()) {
-            deletedIds.forEach(fileHistoryLogRepository::deleteByFileId);
-            fileRepository.deleteAllById(deletedIds);
-            logger.info("Deleted {} files (threshold date: {})", deletedIds.size(), thresholdDate);
-        } else {
-            logger.warn("No database deletions performed; all filesystem deletions failed or nothing matched");
-        }
+    private void deleteFromDatabase(List<Long> fileIds) {
+        fileKeyService.deleteKeysForFiles(fileIds);
+        shareTokenRepository.deleteByFileIds(fileIds);
+        fileHistoryLogRepository.deleteByFileIds(fileIds);
+        fileHistoryDailyRepository.deleteByFileIds(fileIds);
+        fileManifestRepository.deleteByFileIds(fileIds);
+        fileRepository.deleteAllByIdInBatch(fileIds);
     }
 
-    @Transactional
-    @Scheduled(cron = "0 0 3 * * *")
-    public void cleanDatabaseFromDeletedFiles() {
-        logger.info("Cleaning database from deleted files");
+    private void throttle(long pageStarted, int files) {
+        if (maxFilesPerSecond <= 0) {
+            return;
+        }
+        long remaining = TimeUnit.SECONDS.toNanos(files) / maxFilesPerSecond - (System.nanoTime() - pageStarted);
+        if (remaining > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
-        fileRepository.findAll().forEach(file -> {
-            if (!fileService.fileExistsInFileSystem(file.uuid)) {
-                fileService.removeFileFromDatabase(file.uuid);
+    // Called from the scheduler thread, so @CacheEvict on this class would not apply
+    private void evictFileCaches() {
+        for (String name : List.of("publicFiles", "adminFiles", "analytics")) {
+            Cache cache = cacheManager.getCache(name);
+            if (cache != null) {
+                cache.clear();
             }
-        });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cleanupExecutor.shutdownNow();
+    }
+
+    @Scheduled(cron = "${app.reconcile.cron:0 0 3 * * *}")
+    public void reconcileStorage() {
+        logger.info("Reconciling the database with the file storage");
+        storageReconciliationService.reconcile();
     }
 
     @Transactional
@@ -112,6 +243,7 @@ public class ScheduleService {
         logger.info("Cleaning invalid share tokens");
         List<ShareTokenEntity> toDelete = shareTokenRepository.getShareTokenEntitiesForDeletion();
         if (!toDelete.isEmpty()) {
+            fileKeyService.deleteKeysForShareTokens(toDelete);
             shareTokenRepository.deleteAll(toDelete);
             logger.info("Deleted {} invalid share tokens", toDelete.size());
         } else {
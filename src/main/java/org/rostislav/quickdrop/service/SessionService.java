@@ -18,6 +18,11 @@ public class SessionService implements HttpSessionListener {
     private static final Logger logger = LoggerFactory.getLogger(SessionService.class);
     private static final Set<String> adminSessionTokens = ConcurrentHashMap.newKeySet();
     private static final Map<String, FileSession> fileSessions = new ConcurrentHashMap<>();
+    private final FileEncryptionService fileEncryptionService;
+
+    public SessionService(FileEncryptionService fileEncryptionService) {
+        this.fileEncryptionService = fileEncryptionService;
+    }
 
     @Override
     public void sessionDestroyed(HttpSessionEvent se) {
@@ -31,6 +36,7 @@ public class SessionService implements HttpSessionListener {
         Object fileSessionToken = session.getAttribute("file-session-token");
         if (fileSessionToken != null) {
             fileSessions.remove(fileSessionToken.toString());
+            fileEncryptionService.evictCachedKeys(fileSessionToken.toString());
             logger.info("Session destroyed, file session token invalidated: {}", fileSessionToken);
         }
     }
@@ -70,6 +76,28 @@ public class SessionService implements HttpSessionListener {
         }
     }
 
+    /**
+     * Drops the file session and the keys derived with its password.
+     */
+    public void invalidateFileSession(String sessionToken) {
+        if (sessionToken != null && fileSessions.remove(sessionToken) != null) {
+            fileEncryptionService.evictCachedKeys(sessionToken);
+            logger.info("file session token invalidated: {}", sessionToken);
+        }
+    }
+
+    /**
+     * Drops every session unlocked for the file except {@code keepToken}, so a changed password locks out everyone who
+     * only knew the old one.
+     */
+    public void invalidateOtherFileSessions(String fileUuid, String keepToken) {
+        fileSessions.forEach((token, fileSession) -> {
+            if (!token.equals(keepToken) && fileSession.getFileUuid().equals(fileUuid)) {
+                invalidateFileSession(token);
+            }
+        });
+    }
+
     public boolean validateFileSessionToken(String sessionToken, String uuid) {
         FileSession fileSession = fileSessions.get(sessionToken);
 
@@ -0,0 +1,232 @@
+package org.rostislav.quickdrop.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.rostislav.quickdrop.model.StorageReconciliationReport;
+import org.rostislav.quickdrop.repository.FileRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the file rows in the database with the files in the storage directory. Both sides are read in UUID order
+ * and merge joined, one UUID prefix at a time: the database in pages from the UUID index, the directory by listing it
+ * once per prefix and keeping only the names with that prefix. Memory stays at one sixteenth of the directory listing
+ * however many files there are.
+ * <p>
+ * Rows without a file are removed, as the nightly cleanup always did. Files without a row, such as the leftovers of a
+ * failed merge, are reported and can be moved to a quarantine directory. Thumbnails, text indexes and decrypted copies
+ * belong to the file with their UUID, other names in the directory are left alone.
+ */
+@Service
+public class StorageReconciliationService {
+    private static final Logger logger = LoggerFactory.getLogger(StorageReconciliationService.class);
+    private static final String QUARANTINE_DIRECTORY = ".quarantine";
+    private static final Pattern STORED_NAME = Pattern.compile("^([0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12})(.*)$");
+    private static final Set<String> DERIVED_SUFFIXES = Set.of(ThumbnailService.THUMBNAIL_SUFFIX,
+            TextPreviewService.INDEX_SUFFIX, TextPreviewService.RECORD_INDEX_SUFFIX, "-decrypted");
+    private static final String PARTITIONS = "0123456789abcdef";
+    private static final String LAST_NAME = String.valueOf(Character.MAX_VALUE);
+    private static final int PAGE_SIZE = 1000;
+
+    private final FileRepository fileRepository;
+    private final FileService fileService;
+    private final ApplicationSettingsService applicationSettingsService;
+    private final boolean removeMissing;
+    private final boolean quarantineOrphans;
+    private final Duration orphanMinAge;
+    private final AtomicLong lastMissingFiles = new AtomicLong();
+    private final AtomicLong lastOrphanedFiles = new AtomicLong();
+
+    public StorageReconciliationService(FileRepository fileRepository, FileService fileService,
+                                        @Lazy ApplicationSettingsService applicationSettingsService, MeterRegistry meterRegistry,
+                                        @Value("${app.reconcile.remove-missing:true}") boolean removeMissing,
+                                        @Value("${app.reconcile.quarantine-orphans:false}") boolean quarantineOrphans,
+                                        @Value("${app.reconcile.orphan-min-age-minutes:60}") long orphanMinAgeMinutes) {
+        this.fileRepository = fileRepository;
+        this.fileService = fileService;
+        this.applicationSettingsService = applicationSettingsService;
+        this.removeMissing = removeMissing;
+        this.quarantineOrphans = quarantineOrphans;
+        this.orphanMinAge = Duration.ofMinutes(orphanMinAgeMinutes);
+
+        Gauge.builder("quickdrop.storage.missing", lastMissingFiles, AtomicLong::get)
+                .description("Database rows without a stored file, as of the last reconciliation")
+                .register(meterRegistry);
+        Gauge.builder("quickdrop.storage.orphaned", lastOrphanedFiles, AtomicLong::get)
+                .description("Stored files without a database row, as of the last reconciliation")
+                .register(meterRegistry);
+    }
+
+    public StorageReconciliationReport reconcile() {
+        Path storage = Path.of(applicationSettingsService.getFileStoragePath()).toAbsolutePath();
+        Counts counts = new Counts();
+        try {
+            if (!Files.isDirectory(storage)) {
+                logger.error("Storage directory {} does not exist, skipping reconciliation", storage);
+                return counts.report();
+            }
+            // An unmounted volume looks like a directory where every file is missing
+            boolean remove = removeMissing && (hasStoredFile(storage) || fileRepository.count() == 0);
+            if (removeMissing && !remove) {
+                logger.error("Storage directory {} holds no files, rows without a file are only reported", storage);
+            }
+
+            Instant orphanCutoff = Instant.now().minus(orphanMinAge);
+            for (int i = 0; i < PARTITIONS.length(); i++) {
+                // The first partition also takes the names before "0", the last one everything after "f"
+                String lower = i == 0 ? "" : PARTITIONS.substring(i, i + 1);
+                String upper = i == PARTITIONS.length() - 1 ? LAST_NAME : PARTITIONS.substring(i + 1, i + 2);
+                reconcilePartition(storage, lower, upper, orphanCutoff, remove, counts);
+            }
+        } catch (IOException e) {
+            logger.error("Storage reconciliation failed: {}", e.getMessage());
+        }
+
+        StorageReconciliationReport report = counts.report();
+        lastMissingFiles.set(report.missingFiles());
+        lastOrphanedFiles.set(report.orphanedFiles());
+        logger.info("Storage reconciliation: {} rows, {} stored files, {} missing ({} removed), {} orphaned ({} quarantined)",
+                report.rows(), report.files(), report.missingFiles(), report.removedRows(), report.orphanedFiles(), report.quarantinedFiles());
+        return report;
+    }
+
+    private void reconcilePartition(Path storage, String lower, String upper, Instant orphanCutoff, boolean remove, Counts counts) throws IOException {
+        Iterator<StoredFile> stored = listPartition(storage, lower, upper, counts).values().iterator();
+        StoredFile next = stored.hasNext() ? stored.next() : null;
+
+        String after = lower;
+        List<String> page;
+        do {
+            page = fileRepository.findUuidsBetween(after, upper, Limit.of(PAGE_SIZE));
+            for (String uuid : page) {
+                counts.rows++;
+                while (next != null && next.uuid.compareTo(uuid) < 0) {
+                    orphaned(storage, next, orphanCutoff, counts);
+                    next = stored.hasNext() ? stored.next() : null;
+                }
+                boolean found = next != null && next.uuid.equals(uuid);
+                if (!found || !next.hasMain) {
+                    missing(uuid, remove, counts);
+                }
+                if (found) {
+                    next = stored.hasNext() ? stored.next() : null;
+                }
+            }
+            if (!page.isEmpty()) {
+                after = page.getLast();
+            }
+        } while (page.size() == PAGE_SIZE);
+
+        while (next != null) {
+            orphaned(storage, next, orphanCutoff, counts);
+            next = stored.hasNext() ? stored.next() : null;
+        }
+    }
+
+    private TreeMap<String, StoredFile> listPartition(Path storage, String lower, String upper, Counts counts) throws IOException {
+        TreeMap<String, StoredFile> files = new TreeMap<>();
+        DirectoryStream.Filter<Path> inPartition = path -> {
+            String name = path.getFileName().toString();
+            return name.compareTo(lower) >= 0 && name.compareTo(upper) < 0;
+        };
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(storage, inPartition)) {
+            for (Path path : entries) {
+                Matcher matcher = STORED_NAME.matcher(path.getFileName().toString());
+                if (!matcher.matches() || !Files.isRegularFile(path)) {
+                    continue;
+                }
+                String suffix = matcher.group(2);
+                boolean main = suffix.isEmpty();
+                // Temporary files of the thumbnail and index writers start with the UUID and end in .tmp
+                if (!main && !DERIVED_SUFFIXES.contains(suffix) && !suffix.endsWith(".tmp")) {
+                    continue;
+                }
+                StoredFile file = files.computeIfAbsent(matcher.group(1), StoredFile::new);
+                file.paths.add(path);
+                file.hasMain |= main;
+                counts.files++;
+            }
+        }
+        return files;
+    }
+
+    private boolean hasStoredFile(Path storage) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(storage, path -> STORED_NAME.matcher(path.getFileName().toString()).matches())) {
+            for (Path path : entries) {
+                if (path.getFileName().toString().length() == 36) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void missing(String uuid, boolean remove, Counts counts) {
+        counts.missing++;
+        logger.warn("File {} has a database row but is not in storage", uuid);
+        if (remove && fileService.removeFileFromDatabase(uuid)) {
+            counts.removed++;
+        }
+    }
+
+    private void orphaned(Path storage, StoredFile file, Instant orphanCutoff, Counts counts) throws IOException {
+        // A merge writes the file before its row, so recent files may still be in progress
+        for (Path path : file.paths) {
+            if (Files.getLastModifiedTime(path).toInstant().isAfter(orphanCutoff)) {
+                return;
+            }
+        }
+
+        counts.orphaned += file.paths.size();
+        Path quarantine = storage.resolve(QUARANTINE_DIRECTORY);
+        for (Path path : file.paths) {
+            if (!quarantineOrphans) {
+                logger.warn("Stored file {} has no database row", path.getFileName());
+                continue;
+            }
+            Files.createDirectories(quarantine);
+            Files.move(path, quarantine.resolve(path.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            counts.quarantined++;
+            logger.warn("Stored file {} has no database row, moved to {}", path.getFileName(), quarantine);
+        }
+    }
+
+    private static final class StoredFile {
+        private final String uuid;
+        private final List<Path> paths = new ArrayList<>(1);
+        private boolean hasMain;
+
+        private StoredFile(String uuid) {
+            this.uuid = uuid;
+        }
+    }
+
+    private static final class Counts {
+        private long rows;
+        private long files;
+        private long missing;
+        private long orphaned;
+        private long removed;
+        private long quarantined;
+
+        private StorageReconciliationReport report() {
+            return new StorageReconciliationReport(rows, files, missing, orphaned, removed, quarantined);
+        }
+    }
+}
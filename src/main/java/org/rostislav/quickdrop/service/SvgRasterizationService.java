@@ -8,6 +8,7 @@ import org.apache.batik.transcoder.TranscoderInput;
 import org.apache.batik.transcoder.TranscoderOutput;
 import org.apache.batik.transcoder.image.PNGTranscoder;
 import org.apache.batik.util.ParsedURL;
+import org.rostislav.quickdrop.model.PreviewSize;
 import org.springframework.stereotype.Service;
 
 import java.awt.image.BufferedImage;
@@ -21,10 +22,18 @@ public class SvgRasterizationService {
     private static final long MAX_PIXELS = 8_000_000L;
 
     public byte[] rasterizeToPng(InputStream svgInputStream) throws IOException {
+        return rasterizeToPng(svgInputStream, PreviewSize.FULL);
+    }
+
+    public byte[] rasterizeToPng(InputStream svgInputStream, PreviewSize size) throws IOException {
         try (InputStream in = svgInputStream; ByteArrayOutputStream out = new ByteArrayOutputStream()) {
             SafePngTranscoder transcoder = new SafePngTranscoder();
             transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_EXECUTE_ONLOAD, Boolean.FALSE);
             transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_CONSTRAIN_SCRIPT_ORIGIN, Boolean.TRUE);
+            if (size.maxWidth > 0) {
+                // Scales down keeping the aspect ratio, smaller drawings keep their natural size
+                transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_MAX_WIDTH, (float) size.maxWidth);
+            }
             transcoder.transcode(new TranscoderInput(in), new TranscoderOutput(out));
             return out.toByteArray();
         } catch (TranscoderException | RuntimeException ex) {
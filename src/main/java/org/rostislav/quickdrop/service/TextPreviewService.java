@@ -0,0 +1,169 @@
+package org.rostislav.quickdrop.service;
+
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.model.TextLineWindow;
+import org.rostislav.quickdrop.util.LineOffsetIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.rostislav.quickdrop.util.FileUtils.*;
+
+/**
+ * Serves windows of lines from large text files. Each file gets a sparse line index, built on the first request and
+ * stored next to the file as {@code <uuid>.lines.idx}, so paging through a multi-gigabyte log only reads the lines
+ * that are shown. CSV previews use a record index kept as {@code <uuid>.rows.idx}. Encrypted files cannot be read at
+ * an offset and keep the whole-file preview.
+ */
+@Service
+public class TextPreviewService {
+    private static final Logger logger = LoggerFactory.getLogger(TextPreviewService.class);
+    static final String INDEX_SUFFIX = ".lines.idx";
+    static final String RECORD_INDEX_SUFFIX = ".rows.idx";
+    private static final int MAX_WINDOW_LINES = 1000;
+    private static final int MAX_LINE_BYTES = 8 * 1024;
+    private static final int MAX_CACHED_INDEXES = 64;
+
+    private final ApplicationSettingsService applicationSettingsService;
+    private final Map<String, Object> buildLocks = new ConcurrentHashMap<>();
+    private final Map<String, LineOffsetIndex> loadedIndexes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LineOffsetIndex> eldest) {
+            return size() > MAX_CACHED_INDEXES;
+        }
+    };
+
+    public TextPreviewService(ApplicationSettingsService applicationSettingsService) {
+        this.applicationSettingsService = applicationSettingsService;
+    }
+
+    /**
+     * Plain text files that are previewed page by page. JSON and CSV keep their structured previews.
+     */
+    public boolean isPaged(FileEntity fileEntity) {
+        return fileEntity != null
+                && !fileEntity.encrypted
+                && isPreviewableText(fileEntity)
+                && !isPreviewableJson(fileEntity)
+                && !isPreviewableCsvOrTsv(fileEntity);
+    }
+
+    public ResponseEntity<TextLineWindow> linesResponse(FileEntity fileEntity, long from, int count) {
+        if (fileEntity == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!applicationSettingsService.isPreviewEnabled()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (!isPaged(fileEntity)) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+        }
+
+        try {
+            return ResponseEntity.ok(readLines(fileEntity, from, count));
+        } catch (IOException e) {
+            logger.error("Failed to read lines of file {}: {}", fileEntity.uuid, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    public TextLineWindow readLines(FileEntity fileEntity, long from, int count) throws IOException {
+        Path source = sourcePath(fileEntity.uuid);
+        LineOffsetIndex index = getIndex(fileEntity.uuid, false);
+
+        long start = Math.max(0, Math.min(from, Math.max(0, index.getTotalLines() - 1)));
+        int windowSize = Math.max(1, Math.min(count, MAX_WINDOW_LINES));
+        List<LineOffsetIndex.Line> lines = index.readLines(source, start, windowSize, MAX_LINE_BYTES);
+        return new TextLineWindow(start, index.getTotalLines(),
+                lines.stream().map(LineOffsetIndex.Line::text).toList(),
+                lines.stream().anyMatch(LineOffsetIndex.Line::truncated));
+    }
+
+    public void deleteIndex(String uuid) {
+        for (String suffix : new String[]{INDEX_SUFFIX, RECORD_INDEX_SUFFIX}) {
+            synchronized (loadedIndexes) {
+                loadedIndexes.remove(uuid + suffix);
+            }
+            try {
+                Files.deleteIfExists(indexPath(uuid, suffix));
+            } catch (IOException e) {
+                logger.warn("Failed to delete line index for file {}: {}", uuid, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the stored file, building it if needed. A quoted index counts CSV records instead of lines.
+     */
+    public LineOffsetIndex getIndex(String uuid, boolean quoted) throws IOException {
+        Path source = sourcePath(uuid);
+        String name = uuid + (quoted ? RECORD_INDEX_SUFFIX : INDEX_SUFFIX);
+        LineOffsetIndex cached;
+        synchronized (loadedIndexes) {
+            cached = loadedIndexes.get(name);
+        }
+        if (cached != null && cached.matches(source)) {
+            return cached;
+        }
+
+        // One build per index at a time, concurrent requests for the same file wait for it
+        Object lock = buildLocks.computeIfAbsent(name, key -> new Object());
+        try {
+            synchronized (lock) {
+                LineOffsetIndex index = loadOrBuild(uuid, source, name, quoted);
+                synchronized (loadedIndexes) {
+                    loadedIndexes.put(name, index);
+                }
+                return index;
+            }
+        } finally {
+            buildLocks.remove(name, lock);
+        }
+    }
+
+    public Path sourcePath(String uuid) {
+        return Path.of(applicationSettingsService.getFileStoragePath(), uuid);
+    }
+
+    private LineOffsetIndex loadOrBuild(String uuid, Path source, String name, boolean quoted) throws IOException {
+        Path indexFile = Path.of(applicationSettingsService.getFileStoragePath(), name);
+        if (Files.exists(indexFile)) {
+            try {
+                LineOffsetIndex index = LineOffsetIndex.read(indexFile);
+                if (index.matches(source) && index.isQuoted() == quoted) {
+                    return index;
+                }
+            } catch (IOException e) {
+                logger.warn("Discarding unreadable line index for file {}: {}", uuid, e.getMessage());
+            }
+        }
+
+        long started = System.currentTimeMillis();
+        LineOffsetIndex index = LineOffsetIndex.build(source, LineOffsetIndex.DEFAULT_STRIDE, quoted);
+        Path temp = Files.createTempFile(indexFile.getParent(), uuid, ".tmp");
+        try {
+            index.write(temp);
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        logger.info("Built {} index for file {}: {} {} in {} ms", quoted ? "record" : "line", uuid, index.getTotalLines(),
+                quoted ? "records" : "lines", System.currentTimeMillis() - started);
+        return index;
+    }
+
+    private Path indexPath(String uuid, String suffix) {
+        return Path.of(applicationSettingsService.getFileStoragePath(), uuid + suffix);
+    }
+}
@@ -0,0 +1,226 @@
+package org.rostislav.quickdrop.service;
+
+import jakarta.annotation.PreDestroy;
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.model.FileListItem;
+import org.rostislav.quickdrop.model.PreviewCategory;
+import org.rostislav.quickdrop.model.PreviewSize;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.rostislav.quickdrop.util.FileUtils.isPreviewableImage;
+import static org.rostislav.quickdrop.util.FileUtils.isSvg;
+
+/**
+ * Generates small PNG thumbnails for image uploads on a bounded background pool. Thumbnails are stored next to
+ * the file as {@code <uuid>.thumb.png}. Files with a password never get one, since the thumbnail is served without
+ * the password check.
+ */
+@Service
+public class ThumbnailService {
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
+    static final String THUMBNAIL_SUFFIX = ".thumb.png";
+    private static final int MAX_DIMENSION = PreviewSize.THUMBNAIL.maxWidth;
+    private static final int WORKERS = 2;
+    private static final int MAX_QUEUED = 256;
+
+    private final ApplicationSettingsService applicationSettingsService;
+    private final SvgRasterizationService svgRasterizationService;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED), runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        thread.setName("thumbnail-worker");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    public ThumbnailService(ApplicationSettingsService applicationSettingsService, SvgRasterizationService svgRasterizationService) {
+        this.applicationSettingsService = applicationSettingsService;
+        this.svgRasterizationService = svgRasterizationService;
+    }
+
+    public boolean isEligible(FileEntity fileEntity) {
+        return fileEntity != null
+                && !fileEntity.encrypted
+                && (fileEntity.passwordHash == null || fileEntity.passwordHash.isBlank())
+                && isPreviewableImage(fileEntity);
+    }
+
+    public boolean isEligible(FileListItem file) {
+        return !file.encrypted() && !file.passwordProtected() && file.previewCategory() == PreviewCategory.IMAGE;
+    }
+
+    /**
+     * Queues thumbnail generation. When the queue is full the request is dropped; it is queued again the next
+     * time the thumbnail is requested.
+     */
+    public void enqueue(FileEntity fileEntity) {
+        if (!isEligible(fileEntity) || Files.exists(thumbnailPath(fileEntity.uuid)) || !pending.add(fileEntity.uuid)) {
+            return;
+        }
+
+        String uuid = fileEntity.uuid;
+        boolean svg = isSvg(fileEntity);
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(uuid, svg);
+                } finally {
+                    pending.remove(uuid);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(uuid);
+            logger.debug("Thumbnail queue full, skipping file {}", uuid);
+        }
+    }
+
+    /**
+     * Returns the thumbnail if it has been generated, otherwise queues it and returns empty.
+     */
+    public Optional<Path> getThumbnail(FileEntity fileEntity) {
+        if (!isEligible(fileEntity)) {
+            return Optional.empty();
+        }
+
+        Path thumbnail = thumbnailPath(fileEntity.uuid);
+        if (Files.exists(thumbnail)) {
+            return Optional.of(thumbnail);
+        }
+        enqueue(fileEntity);
+        return Optional.empty();
+    }
+
+    public ResponseEntity<Resource> thumbnailResponse(FileEntity fileEntity) {
+        if (!applicationSettingsService.isPreviewEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        // Thumbnails are named by UUID and never change, so browsers may keep them for as long as they like
+        return getThumbnail(fileEntity)
+                .<ResponseEntity<Resource>>map(path -> ResponseEntity.ok()
+                        .contentType(MediaType.IMAGE_PNG)
+                        .cacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate().immutable())
+                        .header("X-Content-Type-Options", "nosniff")
+                        .body(new FileSystemResource(path)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    public void deleteThumbnail(String uuid) {
+        try {
+            Files.deleteIfExists(thumbnailPath(uuid));
+        } catch (IOException e) {
+            logger.warn("Failed to delete thumbnail for file {}: {}", uuid, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Path thumbnailPath(String uuid) {
+        return Path.of(applicationSettingsService.getFileStoragePath(), uuid + THUMBNAIL_SUFFIX);
+    }
+
+    private void generate(String uuid, boolean svg) {
+        Path source = Path.of(applicationSettingsService.getFileStoragePath(), uuid);
+        if (!Files.exists(source)) {
+            return;
+        }
+
+        try {
+            BufferedImage image;
+            if (svg) {
+                byte[] png = svgRasterizationService.rasterizeToPng(Files.newInputStream(source), PreviewSize.THUMBNAIL);
+                image = ImageIO.read(new ByteArrayInputStream(png));
+            } else {
+                image = readSubsampled(source);
+            }
+
+            if (image == null) {
+                logger.info("No image reader available for thumbnail of file {}", uuid);
+                return;
+            }
+
+            Path target = thumbnailPath(uuid);
+            Path temp = Files.createTempFile(target.getParent(), uuid, ".tmp");
+            try {
+                ImageIO.write(scaleToFit(image), "png", temp.toFile());
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            logger.info("Generated thumbnail for file {}", uuid);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to generate thumbnail for file {}: {}", uuid, e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes only every n-th pixel of large images, so a multi-megapixel photo never has to be held in memory at
+     * full resolution.
+     */
+    private static BufferedImage readSubsampled(Path source) throws IOException {
+        try (InputStream in = Files.newInputStream(source); ImageInputStream imageInput = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInput);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInput, true, true);
+                int longestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, longestSide / (MAX_DIMENSION * 2));
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scaleToFit(BufferedImage image) {
+        double scale = Math.min(1.0, (double) MAX_DIMENSION / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = thumbnail.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return thumbnail;
+    }
+}
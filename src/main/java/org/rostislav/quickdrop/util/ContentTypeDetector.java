@@ -0,0 +1,150 @@
+package org.rostislav.quickdrop.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.rostislav.quickdrop.util.FileUtils.guessContentType;
+
+/**
+ * Detects the content type of an upload from its first bytes. Binary formats are recognized by their signature
+ * regardless of the file name; text is recognized by its content and then refined by the extension, so a
+ * misnamed file is not previewed as something it is not.
+ */
+public final class ContentTypeDetector {
+    public static final int HEAD_LENGTH = 8192;
+    private static final String OCTET_STREAM = "application/octet-stream";
+    private static final Set<String> MP4_VIDEO_BRANDS = Set.of("isom", "iso2", "iso4", "iso5", "iso6", "mp41", "mp42",
+            "avc1", "M4V ", "dash");
+    private static final Set<String> HEIF_BRANDS = Set.of("heic", "heix", "mif1", "msf1");
+
+    private ContentTypeDetector() {
+    }
+
+    public static String detect(byte[] head, String fileName) {
+        if (head == null || head.length == 0) {
+            return guessContentType(fileName);
+        }
+
+        String signature = fromSignature(head, fileName);
+        if (signature != null) {
+            return signature;
+        }
+
+        String byName = guessContentType(fileName);
+        boolean textualName = byName.startsWith("text/")
+                || (byName.startsWith("application/") && !byName.equals(OCTET_STREAM) && !byName.equals("application/pdf"));
+        if (!looksLikeText(head, textualName)) {
+            return OCTET_STREAM;
+        }
+        if (textualName || byName.equals("image/svg+xml")) {
+            return byName;
+        }
+        return "text/plain";
+    }
+
+    private static String fromSignature(byte[] head, String fileName) {
+        if (startsWith(head, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) return "image/png";
+        if (startsWith(head, 0, 0xFF, 0xD8, 0xFF)) return "image/jpeg";
+        if (startsWith(head, 0, "GIF87a") || startsWith(head, 0, "GIF89a")) return "image/gif";
+        if (startsWith(head, 0, "%PDF-")) return "application/pdf";
+        if (startsWith(head, 0, "fLaC")) return "audio/flac";
+        if (startsWith(head, 0, "ID3")) return "audio/mpeg";
+
+        if (startsWith(head, 0, "RIFF")) {
+            if (startsWith(head, 8, "WEBP")) return "image/webp";
+            if (startsWith(head, 8, "WAVE")) return "audio/wav";
+            return OCTET_STREAM;
+        }
+        if (startsWith(head, 0, "OggS")) {
+            // The first page carries the codec header of the first stream
+            return indexOf(head, "theora", 64) >= 0 ? "video/ogg" : "audio/ogg";
+        }
+        if (startsWith(head, 4, "ftyp")) {
+            return fromIsoBrand(head);
+        }
+        if (startsWith(head, 0, 0x1A, 0x45, 0xDF, 0xA3)) {
+            // Matroska and WebM share the container, only the doc type in the EBML header tells them apart
+            return indexOf(head, "webm", 64) >= 0 ? "video/webm" : OCTET_STREAM;
+        }
+        if (startsWith(head, 0, "BM") && head.length >= 26 && head[6] == 0 && head[7] == 0 && head[8] == 0 && head[9] == 0) {
+            return "image/bmp";
+        }
+
+        // MPEG audio without an ID3 tag starts with a bare frame sync, too weak to trust without the extension
+        if (head.length >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xE0) == 0xE0
+                && guessContentType(fileName).equals("audio/mpeg")) {
+            return "audio/mpeg";
+        }
+        return null;
+    }
+
+    /**
+     * ISO base media files share the {@code ftyp} box, the major brand says what they hold. HEIF images, AVIF and
+     * camera raw files use the same container, so only brands known to be video are streamed as MP4.
+     */
+    private static String fromIsoBrand(byte[] head) {
+        if (head.length < 12) {
+            return OCTET_STREAM;
+        }
+        String brand = new String(head, 8, 4, StandardCharsets.US_ASCII);
+        if (brand.equals("M4A ") || brand.equals("M4B ")) return "audio/mp4";
+        if (MP4_VIDEO_BRANDS.contains(brand) || brand.startsWith("3gp")) return "video/mp4";
+        if (HEIF_BRANDS.contains(brand)) return "image/heic";
+        if (brand.equals("avif") || brand.equals("avis")) return "image/avif";
+        return OCTET_STREAM;
+    }
+
+    /**
+     * Files named as text may use a legacy single-byte charset, so only NUL bytes rule them out. Anything else
+     * has to be valid UTF-8; the head may end in the middle of a character.
+     */
+    private static boolean looksLikeText(byte[] head, boolean textualName) {
+        for (byte b : head) {
+            if (b == 0) {
+                return false;
+            }
+        }
+        if (textualName) {
+            return true;
+        }
+
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CoderResult result = decoder.decode(ByteBuffer.wrap(head), CharBuffer.allocate(head.length), false);
+        return !result.isError();
+    }
+
+    private static boolean startsWith(byte[] head, int offset, int... signature) {
+        if (head.length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((head[offset + i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] head, int offset, String signature) {
+        return startsWith(head, offset, signature.chars().toArray());
+    }
+
+    private static int indexOf(byte[] head, String needle, int limit) {
+        byte[] bytes = needle.getBytes(StandardCharsets.US_ASCII);
+        int end = Math.min(head.length, limit) - bytes.length;
+        for (int i = 0; i <= end; i++) {
+            if (Arrays.equals(head, i, i + bytes.length, bytes, 0, bytes.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,75 @@
+package org.rostislav.quickdrop.util;
+
+/**
+ * Classifies the characters of a CSV stream one at a time, following RFC 4180: a quote opens a quoted field only as
+ * the first character of a field, inside a quoted field {@code ""} is an escaped quote, and any other quote is part
+ * of the value. Works on bytes of UTF-8 text as well as on chars, since the characters it looks at are all ASCII.
+ */
+public final class CsvTokenizer {
+    private final int delimiter;
+    private State state = State.FIELD_START;
+
+    public CsvTokenizer(char delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    public enum Token {
+        /**
+         * Part of the field value.
+         */
+        CONTENT,
+        /**
+         * A quote that opens or may close a quoted field, not part of the value.
+         */
+        QUOTE,
+        DELIMITER,
+        /**
+         * The line break that ends the record.
+         */
+        RECORD_END
+    }
+
+    private enum State {
+        FIELD_START,
+        UNQUOTED,
+        QUOTED,
+        // After a quote inside a quoted field, which either closes the field or escapes the next quote
+        QUOTE_IN_QUOTED
+    }
+
+    public Token next(int c) {
+        if (state == State.QUOTED) {
+            if (c == '"') {
+                state = State.QUOTE_IN_QUOTED;
+                return Token.QUOTE;
+            }
+            return Token.CONTENT;
+        }
+        if (c == '"' && state == State.FIELD_START) {
+            state = State.QUOTED;
+            return Token.QUOTE;
+        }
+        if (c == '"' && state == State.QUOTE_IN_QUOTED) {
+            state = State.QUOTED;
+            return Token.CONTENT;
+        }
+        if (c == delimiter) {
+            state = State.FIELD_START;
+            return Token.DELIMITER;
+        }
+        if (c == '\n') {
+            state = State.FIELD_START;
+            return Token.RECORD_END;
+        }
+        // Text after a closing quote is kept as is, like a field that was never quoted
+        state = State.UNQUOTED;
+        return Token.CONTENT;
+    }
+
+    /**
+     * Whether the last character left the tokenizer inside a quoted field, where line breaks are part of the value.
+     */
+    public boolean inQuotedField() {
+        return state == State.QUOTED;
+    }
+}
@@ -3,8 +3,10 @@ package org.rostislav.quickdrop.util;
 import jakarta.servlet.http.HttpServletRequest;
 import org.rostislav.quickdrop.entity.FileEntity;
 import org.rostislav.quickdrop.entity.ShareTokenEntity;
+import org.rostislav.quickdrop.model.PreviewCategory;
 import org.rostislav.quickdrop.service.FileService;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.ui.Model;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
@@ -25,6 +27,8 @@ import java.util.concurrent.ThreadLocalRandom;
 import static org.rostislav.quickdrop.service.FileService.logger;
 
 public class FileUtils {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
     private static final Set<String> TEXT_EXTENSIONS = Set.of(
             ".txt", ".log", ".md", ".json", ".jsonl", ".yaml", ".yml", ".csv", ".tsv", ".xml",
             ".c", ".cpp", ".cxx", ".h", ".hpp",
@@ -39,16 +43,18 @@ public class FileUtils {
     );
 
     private static final Set<String> PDF_EXTENSIONS = Set.of(".pdf");
-    private static final Set<String> JSON_EXTENSIONS = Set.of(".json", ".jsonl");
-    private static final Set<String> CSV_TSV_EXTENSIONS = Set.of(".csv", ".tsv");
 
     private FileUtils() {
         // To prevent instantiation
     }
 
     public static StreamingResponseBody getStreamingResponseBody(InputStream inputStream) {
+        return getStreamingResponseBody(inputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    public static StreamingResponseBody getStreamingResponseBody(InputStream inputStream, int bufferSize) {
         return outputStream -> {
-            byte[] buffer = new byte[8192];
+            byte[] buffer = new byte[bufferSize];
             int bytesRead;
             while ((bytesRead = inputStream.read(buffer)) != -1) {
                 outputStream.write(buffer, 0, bytesRead);
@@ -57,6 +63,23 @@ public class FileUtils {
         };
     }
 
+    /**
+     * Serves preview content inline with headers that keep the browser from executing or framing it.
+     */
+    public static ResponseEntity<StreamingResponseBody> inlinePreviewResponse(String fileName, InputStream inputStream, String contentType) {
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + fileName + "\"")
+                .header(HttpHeaders.CONTENT_TYPE, contentType)
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, must-revalidate")
+                .header("X-Content-Type-Options", "nosniff")
+                .header("X-Frame-Options", "DENY")
+                .header("Referrer-Policy", "no-referrer")
+                .header("Content-Security-Policy", "default-src 'none'; script-src 'none'; object-src 'none'; frame-ancestors 'none'; sandbox")
+                .header("Pragma", "no-cache")
+                .header("Expires", "0")
+                .body(getStreamingResponseBody(inputStream));
+    }
+
     public static FileService.RequesterInfo getRequesterInfo(HttpServletRequest request) {
         String forwardedFor = request.getHeader("X-Forwarded-For");
         String realIp = request.getHeader("X-Real-IP");
@@ -118,12 +141,14 @@ public class FileUtils {
         model.addAttribute("downloadLink", getDownloadLink(request, fileEntity));
     }
 
-    private static String lowerName(FileEntity fileEntity) {
-        return fileEntity == null || fileEntity.name == null ? "" : fileEntity.name.toLowerCase(Locale.ROOT);
+    private static String lowerName(String fileName) {
+        return fileName == null ? "" : fileName.toLowerCase(Locale.ROOT);
     }
 
-    public static String determinePreviewType(boolean isImage, boolean isPdf, boolean isJson, boolean isCsv, boolean isText) {
+    public static String determinePreviewType(boolean isImage, boolean isPdf, boolean isJson, boolean isCsv, boolean isText, boolean isAudio, boolean isVideo) {
         if (isImage) return "image";
+        if (isVideo) return "video";
+        if (isAudio) return "audio";
         if (isPdf) return "pdf";
         if (isJson) return "json";
         if (isCsv) return "csv";
@@ -131,53 +156,110 @@ public class FileUtils {
         return "";
     }
 
+    /**
+     * The category detected when the upload was merged. Files stored before detection existed are classified by
+     * their extension.
+     */
+    public static PreviewCategory previewCategory(FileEntity fileEntity) {
+        if (fileEntity == null) {
+            return PreviewCategory.NONE;
+        }
+        return fileEntity.previewCategory != null
+                ? fileEntity.previewCategory
+                : PreviewCategory.fromContentType(guessContentType(fileEntity.name));
+    }
+
+    public static String contentTypeOf(FileEntity fileEntity) {
+        if (fileEntity == null) {
+            return "application/octet-stream";
+        }
+        return fileEntity.contentType != null ? fileEntity.contentType : guessContentType(fileEntity.name);
+    }
+
+    public static boolean isSvg(FileEntity fileEntity) {
+        return "image/svg+xml".equals(contentTypeOf(fileEntity));
+    }
+
     public static boolean isPreviewableText(FileEntity fileEntity) {
-        String lower = lowerName(fileEntity);
+        return previewCategory(fileEntity).isText();
+    }
+
+    public static boolean isPreviewableText(String fileName) {
+        String lower = lowerName(fileName);
         return TEXT_EXTENSIONS.stream().anyMatch(lower::endsWith);
     }
 
     public static boolean isPreviewableImage(FileEntity fileEntity) {
-        String lower = lowerName(fileEntity);
+        return previewCategory(fileEntity) == PreviewCategory.IMAGE;
+    }
+
+    public static boolean isPreviewableImage(String fileName) {
+        String lower = lowerName(fileName);
         return IMAGE_EXTENSIONS.stream().anyMatch(lower::endsWith);
     }
 
     public static boolean isPreviewablePdf(FileEntity fileEntity) {
-        String lower = lowerName(fileEntity);
+        return previewCategory(fileEntity) == PreviewCategory.PDF;
+    }
+
+    public static boolean isPreviewablePdf(String fileName) {
+        String lower = lowerName(fileName);
         return PDF_EXTENSIONS.stream().anyMatch(lower::endsWith);
     }
 
     public static boolean isPreviewableJson(FileEntity fileEntity) {
-        String lower = lowerName(fileEntity);
-        return JSON_EXTENSIONS.stream().anyMatch(lower::endsWith);
+        return previewCategory(fileEntity) == PreviewCategory.JSON;
     }
 
     public static boolean isPreviewableCsvOrTsv(FileEntity fileEntity) {
-        String lower = lowerName(fileEntity);
-        return CSV_TSV_EXTENSIONS.stream().anyMatch(lower::endsWith);
+        return previewCategory(fileEntity) == PreviewCategory.CSV;
     }
 
-    public static String guessContentType(String fileName, boolean isImage, boolean isText, boolean isPdf) {
-        if (isImage) {
-            if (fileName.toLowerCase().endsWith(".svg")) return "image/svg+xml";
-            if (fileName.toLowerCase().endsWith(".webp")) return "image/webp";
-            if (fileName.toLowerCase().endsWith(".gif")) return "image/gif";
-            if (fileName.toLowerCase().endsWith(".png")) return "image/png";
-            return "image/jpeg";
-        }
-        if (isPdf) {
-            return "application/pdf";
-        }
-        if (isText) {
-            if (fileName.toLowerCase().endsWith(".json")) return "application/json";
-            if (fileName.toLowerCase().endsWith(".xml")) return "application/xml";
-            if (fileName.toLowerCase().endsWith(".csv")) return "text/csv";
-            if (fileName.toLowerCase().endsWith(".tsv")) return "text/tab-separated-values";
-            if (fileName.toLowerCase().endsWith(".md")) return "text/markdown";
-            return "text/plain; charset=UTF-8";
-        }
+    public static boolean isPreviewableAudio(FileEntity fileEntity) {
+        return previewCategory(fileEntity) == PreviewCategory.AUDIO;
+    }
+
+    public static boolean isPreviewableVideo(FileEntity fileEntity) {
+        return previewCategory(fileEntity) == PreviewCategory.VIDEO;
+    }
+
+    /**
+     * Content type implied by the file extension alone, used where the content has not been inspected.
+     */
+    public static String guessContentType(String fileName) {
+        String lower = lowerName(fileName);
+        if (lower.endsWith(".svg")) return "image/svg+xml";
+        if (lower.endsWith(".webp")) return "image/webp";
+        if (lower.endsWith(".gif")) return "image/gif";
+        if (lower.endsWith(".png")) return "image/png";
+        if (lower.endsWith(".bmp")) return "image/bmp";
+        if (IMAGE_EXTENSIONS.stream().anyMatch(lower::endsWith)) return "image/jpeg";
+        if (PDF_EXTENSIONS.stream().anyMatch(lower::endsWith)) return "application/pdf";
+        if (lower.endsWith(".mp3")) return "audio/mpeg";
+        if (lower.endsWith(".ogg") || lower.endsWith(".oga") || lower.endsWith(".opus")) return "audio/ogg";
+        if (lower.endsWith(".m4a")) return "audio/mp4";
+        if (lower.endsWith(".wav")) return "audio/wav";
+        if (lower.endsWith(".flac")) return "audio/flac";
+        if (lower.endsWith(".webm")) return "video/webm";
+        if (lower.endsWith(".ogv")) return "video/ogg";
+        if (lower.endsWith(".mp4") || lower.endsWith(".m4v")) return "video/mp4";
+        if (lower.endsWith(".jsonl")) return "application/x-ndjson";
+        if (lower.endsWith(".json")) return "application/json";
+        if (lower.endsWith(".csv")) return "text/csv";
+        if (lower.endsWith(".tsv")) return "text/tab-separated-values";
+        if (lower.endsWith(".xml")) return "application/xml";
+        if (lower.endsWith(".md")) return "text/markdown";
+        if (TEXT_EXTENSIONS.stream().anyMatch(lower::endsWith)) return "text/plain";
         return "application/octet-stream";
     }
 
+    /**
+     * Header value for serving content of the given type. Plain text is always stored and previewed as UTF-8.
+     */
+    public static String responseContentType(String contentType) {
+        return "text/plain".equals(contentType) ? "text/plain; charset=UTF-8" : contentType;
+    }
+
     public static String generateHashedToken(FileEntity fileEntity) {
         String seed = String.join(":",
                 fileEntity.uuid,
@@ -226,8 +308,12 @@ public class FileUtils {
     }
 
     public static void streamFile(Path filePathToStream, Path decryptedFilePath, String uuid, OutputStream outputStream) throws IOException {
+        streamFile(filePathToStream, decryptedFilePath, uuid, outputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    public static void streamFile(Path filePathToStream, Path decryptedFilePath, String uuid, OutputStream outputStream, int bufferSize) throws IOException {
         try (InputStream in = Files.newInputStream(filePathToStream)) {
-            byte[] buffer = new byte[8192];
+            byte[] buffer = new byte[bufferSize];
             int bytesRead;
             while ((bytesRead = in.read(buffer)) != -1) {
                 outputStream.write(buffer, 0, bytesRead);
@@ -0,0 +1,55 @@
+package org.rostislav.quickdrop.util;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Turns a search box query into FTS5 match expressions. User input is never passed to MATCH as is, the FTS5 query
+ * syntax would reject unbalanced quotes and treat words like AND or NEAR as operators.
+ */
+public final class FullTextQuery {
+    /**
+     * An empty phrase, valid in both indexes and matching nothing.
+     */
+    public static final String MATCH_NOTHING = "\"\"";
+
+    private static final int MAX_TERMS = 16;
+    // The same characters the unicode61 tokenizer splits on
+    private static final Pattern TERM_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    // The trigram index cannot match fewer than three characters
+    private static final Pattern UUID_FRAGMENT = Pattern.compile("[0-9a-f-]{3,36}");
+
+    private FullTextQuery() {
+    }
+
+    /**
+     * Every word has to match the start of a word in the name or description, so results narrow down while typing.
+     */
+    public static String terms(String query) {
+        if (query == null) {
+            return MATCH_NOTHING;
+        }
+        // Combining marks are separators to both, decomposed accents would split words apart
+        String normalized = Normalizer.normalize(query.strip(), Normalizer.Form.NFC);
+        String terms = Arrays.stream(TERM_SEPARATOR.split(normalized))
+                .filter(term -> !term.isEmpty())
+                .limit(MAX_TERMS)
+                .map(term -> "\"" + term + "\"*")
+                .collect(Collectors.joining(" "));
+        return terms.isEmpty() ? MATCH_NOTHING : terms;
+    }
+
+    /**
+     * Queries that could be part of a UUID are also matched as a substring of the UUID.
+     */
+    public static String uuidFragment(String query) {
+        if (query == null) {
+            return MATCH_NOTHING;
+        }
+        String fragment = query.strip().toLowerCase(Locale.ROOT);
+        return UUID_FRAGMENT.matcher(fragment).matches() ? "\"" + fragment + "\"" : MATCH_NOTHING;
+    }
+}
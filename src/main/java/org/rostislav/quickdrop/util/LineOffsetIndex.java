@@ -0,0 +1,279 @@
+package org.rostislav.quickdrop.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sparse index of line start offsets in a text file: only the offset of every {@code stride}-th line is kept, so a
+ * 2 GB log with twenty million lines needs a few hundred kilobytes. A window of lines is read by seeking to the
+ * nearest checkpoint and scanning forward at most {@code stride} lines.
+ * <p>
+ * A quoted index treats line breaks inside quoted fields as part of the line, which makes each line a record of a
+ * comma separated file. Fields are split by {@link CsvTokenizer}, the same as when the record is parsed.
+ */
+public final class LineOffsetIndex {
+    public static final int DEFAULT_STRIDE = 1024;
+    private static final byte[] MAGIC = "QDLIDX1\0".getBytes(StandardCharsets.US_ASCII);
+    // Version 3 only opens quotes at the start of a field, older record indexes are rebuilt
+    private static final byte[] QUOTED_MAGIC = "QDRIDX3\0".getBytes(StandardCharsets.US_ASCII);
+    private static final char DELIMITER = ',';
+    private static final int SCAN_BUFFER_SIZE = 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final long sourceSize;
+    private final long sourceModified;
+    private final int stride;
+    private final long totalLines;
+    private final long[] checkpoints;
+    private final boolean quoted;
+
+    private LineOffsetIndex(long sourceSize, long sourceModified, int stride, long totalLines, long[] checkpoints, boolean quoted) {
+        this.sourceSize = sourceSize;
+        this.sourceModified = sourceModified;
+        this.stride = stride;
+        this.totalLines = totalLines;
+        this.checkpoints = checkpoints;
+        this.quoted = quoted;
+    }
+
+    public static LineOffsetIndex build(Path source, int stride) throws IOException {
+        return build(source, stride, false);
+    }
+
+    /**
+     * Scans the whole file once. A trailing line without a line break still counts as a line, as does a quoted record
+     * whose closing quote is missing.
+     */
+    public static LineOffsetIndex build(Path source, int stride, boolean quoted) throws IOException {
+        long size = Files.size(source);
+        long modified = Files.getLastModifiedTime(source).toMillis();
+
+        long[] checkpoints = new long[16];
+        int checkpointCount = 1;
+        long lines = 0;
+        long position = 0;
+        long lineStart = 0;
+        CsvTokenizer tokenizer = new CsvTokenizer(DELIMITER);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SCAN_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            while (channel.read(buffer, position) > 0) {
+                buffer.flip();
+                int limit = buffer.limit();
+                for (int i = 0; i < limit; i++) {
+                    byte b = buffer.get(i);
+                    if (quoted ? tokenizer.next(b) == CsvTokenizer.Token.RECORD_END : b == '\n') {
+                        lines++;
+                        lineStart = position + i + 1;
+                        if (lines % stride == 0) {
+                            if (checkpointCount == checkpoints.length) {
+                                checkpoints = Arrays.copyOf(checkpoints, checkpointCount * 2);
+                            }
+                            checkpoints[checkpointCount++] = position + i + 1;
+                        }
+                    }
+                }
+                position += limit;
+                buffer.clear();
+            }
+        }
+
+        if (position > lineStart) {
+            lines++;
+        } else if (lines > 0 && lines % stride == 0) {
+            // The checkpoint points at the end of the file, there is no line to start there
+            checkpointCount--;
+        }
+        return new LineOffsetIndex(size, modified, stride, lines, Arrays.copyOf(checkpoints, checkpointCount), quoted);
+    }
+
+    public static LineOffsetIndex read(Path indexFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            boolean quoted = Arrays.equals(magic, QUOTED_MAGIC);
+            if (!quoted && !Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a line index: " + indexFile);
+            }
+
+            long size = in.readLong();
+            long modified = in.readLong();
+            int stride = in.readInt();
+            long lines = in.readLong();
+            int count = in.readInt();
+            if (stride <= 0 || count <= 0 || count > lines / stride + 1) {
+                throw new IOException("Corrupt line index: " + indexFile);
+            }
+
+            long[] checkpoints = new long[count];
+            for (int i = 0; i < count; i++) {
+                checkpoints[i] = in.readLong();
+            }
+            return new LineOffsetIndex(size, modified, stride, lines, checkpoints, quoted);
+        }
+    }
+
+    public void write(Path indexFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile)))) {
+            out.write(quoted ? QUOTED_MAGIC : MAGIC);
+            out.writeLong(sourceSize);
+            out.writeLong(sourceModified);
+            out.writeInt(stride);
+            out.writeLong(totalLines);
+            out.writeInt(checkpoints.length);
+            for (long checkpoint : checkpoints) {
+                out.writeLong(checkpoint);
+            }
+        }
+    }
+
+    /**
+     * Whether the index was built from the file as it is now.
+     */
+    public boolean matches(Path source) {
+        try {
+            return Files.size(source) == sourceSize && Files.getLastModifiedTime(source).toMillis() == sourceModified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public long getTotalLines() {
+        return totalLines;
+    }
+
+    public boolean isQuoted() {
+        return quoted;
+    }
+
+    /**
+     * Reads up to {@code count} lines starting at the zero-based line {@code from}. Lines longer than
+     * {@code maxLineBytes} are cut off, line breaks are not included.
+     */
+    public List<Line> readLines(Path source, long from, int count, int maxLineBytes) throws IOException {
+        List<Line> lines = new ArrayList<>(Math.max(0, Math.min(count, 1024)));
+        if (from < 0 || from >= totalLines || count <= 0) {
+            return lines;
+        }
+
+        int checkpoint = (int) Math.min(from / stride, checkpoints.length - 1);
+        long skip = from - (long) checkpoint * stride;
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            channel.position(checkpoints[checkpoint]);
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel), READ_BUFFER_SIZE);
+            for (long i = 0; i < skip; i++) {
+                if (!skipLine(in)) {
+                    return lines;
+                }
+            }
+
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            while (lines.size() < count) {
+                line.reset();
+                boolean truncated = false;
+                CsvTokenizer tokenizer = new CsvTokenizer(DELIMITER);
+                // A carriage return is only kept once it turns out not to end the line
+                boolean carriageReturn = false;
+                int b;
+                while ((b = in.read()) != -1 && !endsLine(tokenizer, b)) {
+                    if (carriageReturn) {
+                        truncated |= !append(line, '\r', maxLineBytes);
+                        carriageReturn = false;
+                    }
+                    if (b == '\r' && !(quoted && tokenizer.inQuotedField())) {
+                        carriageReturn = true;
+                    } else {
+                        truncated |= !append(line, b, maxLineBytes);
+                    }
+                }
+                if (b == -1 && line.size() == 0 && !truncated && !carriageReturn) {
+                    break;
+                }
+
+                lines.add(new Line(line.toString(StandardCharsets.UTF_8), truncated));
+                if (b == -1) {
+                    break;
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Byte offset at which the zero-based line {@code line} starts, or -1 when the file has fewer lines.
+     */
+    public long offsetOf(Path source, long line) throws IOException {
+        if (line < 0 || line >= totalLines) {
+            return -1;
+        }
+
+        int checkpoint = (int) Math.min(line / stride, checkpoints.length - 1);
+        long skip = line - (long) checkpoint * stride;
+        long offset = checkpoints[checkpoint];
+        if (skip == 0) {
+            return offset;
+        }
+
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            channel.position(offset);
+            CountingInputStream in = new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel), READ_BUFFER_SIZE));
+            for (long i = 0; i < skip; i++) {
+                if (!skipLine(in)) {
+                    return -1;
+                }
+            }
+            return offset + in.count;
+        }
+    }
+
+    private static boolean append(ByteArrayOutputStream line, int b, int maxLineBytes) {
+        if (line.size() >= maxLineBytes) {
+            return false;
+        }
+        line.write(b);
+        return true;
+    }
+
+    private boolean endsLine(CsvTokenizer tokenizer, int b) {
+        return quoted ? tokenizer.next(b) == CsvTokenizer.Token.RECORD_END : b == '\n';
+    }
+
+    private boolean skipLine(InputStream in) throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(DELIMITER);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (endsLine(tokenizer, b)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public record Line(String text, boolean truncated) {
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.rostislav.quickdrop.util;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+import static org.rostislav.quickdrop.util.SegmentedCipherOutputStream.*;
+
+/**
+ * Reads the segment format written by {@link SegmentedCipherOutputStream}, verifying each segment before
+ * any of its plaintext is returned.
+ */
+public class SegmentedCipherInputStream extends InputStream {
+    private final InputStream in;
+    private final SecretKey key;
+    private final byte[] noncePrefix;
+    private final byte[] record;
+    private final byte[] plaintext;
+    private int plaintextLength;
+    private int position;
+    private int segmentIndex;
+    private boolean finished;
+
+    public SegmentedCipherInputStream(InputStream in, SecretKey key, byte[] noncePrefix, int segmentSize) {
+        this.in = in;
+        this.key = key;
+        this.noncePrefix = noncePrefix.clone();
+        this.record = new byte[segmentSize + TAG_LENGTH_BYTES];
+        this.plaintext = new byte[segmentSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int n = read(single, 0, 1);
+        return n == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        while (position == plaintextLength) {
+            if (finished) {
+                return -1;
+            }
+            readNextSegment();
+        }
+
+        int n = Math.min(len, plaintextLength - position);
+        System.arraycopy(plaintext, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return plaintextLength - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void readNextSegment() throws IOException {
+        int length = in.readNBytes(record, 0, record.length);
+        // Only the final segment is shorter than a full record
+        boolean last = length < record.length;
+        if (last && length < TAG_LENGTH_BYTES) {
+            throw new IOException("Encrypted file is truncated");
+        }
+
+        try {
+            Cipher cipher = Cipher.getInstance(ALGORITHM);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BYTES * 8, segmentNonce(noncePrefix, segmentIndex++)));
+            cipher.updateAAD(new byte[]{(byte) (last ? 1 : 0)});
+            plaintextLength = cipher.doFinal(record, 0, length, plaintext, 0);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Encrypted segment failed authentication", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to decrypt segment", e);
+        }
+
+        position = 0;
+        finished = last;
+    }
+}
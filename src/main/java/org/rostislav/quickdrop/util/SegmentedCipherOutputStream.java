@@ -0,0 +1,142 @@
+package org.rostislav.quickdrop.util;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Encrypts the written plaintext as a sequence of independently authenticated AES-GCM segments.
+ * Full segments are encrypted on the given pool while the caller keeps writing, and the results
+ * are written to the underlying stream in order. The segment index is part of the nonce and the
+ * last segment is flagged through the AAD, so reordered or truncated ciphertext fails to decrypt.
+ */
+public class SegmentedCipherOutputStream extends OutputStream {
+    public static final String ALGORITHM = "AES/GCM/NoPadding";
+    public static final int TAG_LENGTH_BYTES = 16;
+    public static final int NONCE_PREFIX_LENGTH = 8;
+
+    private final OutputStream out;
+    private final SecretKey key;
+    private final byte[] noncePrefix;
+    private final int segmentSize;
+    private final ForkJoinPool pool;
+    private final int maxPendingSegments;
+    private final Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+    private byte[] buffer;
+    private int position;
+    private int segmentIndex;
+    private boolean closed;
+
+    public SegmentedCipherOutputStream(OutputStream out, SecretKey key, byte[] noncePrefix, int segmentSize, ForkJoinPool pool) {
+        this.out = out;
+        this.key = key;
+        this.noncePrefix = noncePrefix.clone();
+        this.segmentSize = segmentSize;
+        this.pool = pool;
+        // Bounds the plaintext held in memory to a couple of segments per worker
+        this.maxPendingSegments = Math.max(2, pool.getParallelism() * 2);
+        this.buffer = new byte[segmentSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int toCopy = Math.min(len, segmentSize - position);
+            System.arraycopy(b, off, buffer, position, toCopy);
+            position += toCopy;
+            off += toCopy;
+            len -= toCopy;
+
+            if (position == segmentSize) {
+                submitSegment(false);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            submitSegment(true);
+            while (!pending.isEmpty()) {
+                writeNextSegment();
+            }
+            out.flush();
+        } finally {
+            pending.forEach(task -> task.cancel(true));
+            out.close();
+        }
+    }
+
+    private void submitSegment(boolean last) throws IOException {
+        byte[] plaintext = buffer;
+        int length = position;
+        int index = segmentIndex++;
+        pending.addLast(pool.submit(() -> encryptSegment(key, noncePrefix, index, last, plaintext, length)));
+
+        buffer = last ? null : new byte[segmentSize];
+        position = 0;
+
+        while (pending.size() > maxPendingSegments) {
+            writeNextSegment();
+        }
+    }
+
+    private void writeNextSegment() throws IOException {
+        try {
+            out.write(pending.removeFirst().join());
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to encrypt segment", e);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    static byte[] encryptSegment(SecretKey key, byte[] noncePrefix, int index, boolean last, byte[] plaintext, int length) {
+        try {
+            Cipher cipher = Cipher.getInstance(ALGORITHM);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BYTES * 8, segmentNonce(noncePrefix, index)));
+            cipher.updateAAD(new byte[]{(byte) (last ? 1 : 0)});
+            byte[] ciphertext = new byte[length + TAG_LENGTH_BYTES];
+            cipher.doFinal(plaintext, 0, length, ciphertext, 0);
+            return ciphertext;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Segment encryption failed", e);
+        }
+    }
+
+    static byte[] segmentNonce(byte[] noncePrefix, int index) {
+        return ByteBuffer.allocate(NONCE_PREFIX_LENGTH + Integer.BYTES)
+                .put(noncePrefix, 0, NONCE_PREFIX_LENGTH)
+                .putInt(index)
+                .array();
+    }
+}
@@ -0,0 +1,354 @@
+package org.rostislav.quickdrop.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Entry index of a ZIP archive, read from the central directory at the end of the file without touching the entry
+ * data. An entry is streamed by seeking to its local header, so reading one file out of a large archive costs the
+ * size of that file. ZIP64 archives are supported, encrypted entries and compression methods other than stored and
+ * deflated are listed but cannot be opened.
+ */
+public final class ZipEntryIndex {
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int EOCD_LENGTH = 22;
+    private static final int ZIP64_EOCD_LOCATOR_LENGTH = 20;
+    private static final int ZIP64_EOCD_LENGTH = 56;
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final long sourceSize;
+    private final long sourceModified;
+    private final Map<String, Entry> entries;
+
+    private ZipEntryIndex(long sourceSize, long sourceModified, Map<String, Entry> entries) {
+        this.sourceSize = sourceSize;
+        this.sourceModified = sourceModified;
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the central directory. Archives with more than {@code maxEntries} entries are rejected.
+     */
+    public static ZipEntryIndex read(Path archive, int maxEntries) throws IOException {
+        long size = Files.size(archive);
+        long modified = Files.getLastModifiedTime(archive).toMillis();
+
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            long eocdOffset = findEndOfCentralDirectory(channel, size);
+            ByteBuffer eocd = readFully(channel, eocdOffset, EOCD_LENGTH);
+            long entryCount = Short.toUnsignedLong(eocd.getShort(10));
+            long directorySize = Integer.toUnsignedLong(eocd.getInt(12));
+            long directoryOffset = Integer.toUnsignedLong(eocd.getInt(16));
+
+            if (entryCount == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+                ByteBuffer locator = eocdOffset >= ZIP64_EOCD_LOCATOR_LENGTH
+                        ? readFully(channel, eocdOffset - ZIP64_EOCD_LOCATOR_LENGTH, ZIP64_EOCD_LOCATOR_LENGTH)
+                        : null;
+                if (locator == null || locator.getInt(0) != ZIP64_EOCD_LOCATOR_SIGNATURE) {
+                    throw new IOException("Missing ZIP64 end of central directory");
+                }
+                long zip64Offset = locator.getLong(8);
+                if (zip64Offset < 0 || zip64Offset > eocdOffset - ZIP64_EOCD_LOCATOR_LENGTH - ZIP64_EOCD_LENGTH) {
+                    throw new IOException("ZIP64 end of central directory lies outside the archive");
+                }
+                ByteBuffer zip64 = readFully(channel, zip64Offset, ZIP64_EOCD_LENGTH);
+                if (zip64.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                    throw new IOException("Corrupt ZIP64 end of central directory");
+                }
+                entryCount = zip64.getLong(32);
+                directorySize = zip64.getLong(40);
+                directoryOffset = zip64.getLong(48);
+            }
+
+            if (entryCount < 0 || entryCount > maxEntries) {
+                throw new IOException("Archive has too many entries: " + entryCount);
+            }
+            // Written as a difference, since the sum of two crafted ZIP64 values can overflow
+            if (directoryOffset < 0 || directorySize < 0 || directoryOffset > eocdOffset || directorySize > eocdOffset - directoryOffset) {
+                throw new IOException("Central directory lies outside the archive");
+            }
+            if (entryCount > directorySize / CENTRAL_HEADER_LENGTH) {
+                throw new IOException("Central directory is too small for " + entryCount + " entries");
+            }
+
+            channel.position(directoryOffset);
+            DataInputStream in = new DataInputStream(new BoundedInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel), READ_BUFFER_SIZE), directorySize));
+            Map<String, Entry> entries = new LinkedHashMap<>((int) Math.min(entryCount * 4 / 3 + 1, Integer.MAX_VALUE));
+            for (long i = 0; i < entryCount; i++) {
+                Entry entry = readCentralHeader(in);
+                entries.put(entry.name(), entry);
+            }
+            return new ZipEntryIndex(size, modified, Collections.unmodifiableMap(entries));
+        }
+    }
+
+    /**
+     * Whether the index was read from the archive as it is now.
+     */
+    public boolean matches(Path archive) {
+        try {
+            return Files.size(archive) == sourceSize && Files.getLastModifiedTime(archive).toMillis() == sourceModified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    public Optional<Entry> find(String name) {
+        return Optional.ofNullable(entries.get(name));
+    }
+
+    /**
+     * Opens the uncompressed content of an entry. The stream fails if the data does not match the size and checksum
+     * recorded in the central directory.
+     */
+    public InputStream open(Path archive, Entry entry) throws IOException {
+        if (entry.isDirectory()) {
+            throw new IOException("Entry is a directory: " + entry.name());
+        }
+        if (entry.encrypted()) {
+            throw new IOException("Entry is encrypted: " + entry.name());
+        }
+        if (entry.method() != METHOD_STORED && entry.method() != METHOD_DEFLATED) {
+            throw new IOException("Unsupported compression method " + entry.method() + ": " + entry.name());
+        }
+
+        FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = readFully(channel, entry.localHeaderOffset(), LOCAL_HEADER_LENGTH);
+            if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                throw new IOException("Corrupt local header: " + entry.name());
+            }
+            long dataOffset = entry.localHeaderOffset() + LOCAL_HEADER_LENGTH
+                    + Short.toUnsignedInt(header.getShort(26)) + Short.toUnsignedInt(header.getShort(28));
+            if (dataOffset > sourceSize || entry.compressedSize() > sourceSize - dataOffset) {
+                throw new IOException("Entry data lies outside the archive: " + entry.name());
+            }
+
+            channel.position(dataOffset);
+            InputStream data = new BoundedInputStream(new BufferedInputStream(Channels.newInputStream(channel), READ_BUFFER_SIZE), entry.compressedSize());
+            if (entry.method() == METHOD_DEFLATED) {
+                Inflater inflater = new Inflater(true);
+                data = new InflaterInputStream(data, inflater, READ_BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            inflater.end();
+                        }
+                    }
+                };
+            }
+            return new VerifyingInputStream(data, entry);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static long findEndOfCentralDirectory(FileChannel channel, long size) throws IOException {
+        if (size < EOCD_LENGTH) {
+            throw new IOException("File is too small to be a ZIP archive");
+        }
+
+        // The record sits at the very end unless the archive has a comment
+        int tailLength = (int) Math.min(size, EOCD_LENGTH + MAX_COMMENT_LENGTH);
+        ByteBuffer tail = readFully(channel, size - tailLength, tailLength);
+        for (int i = tailLength - EOCD_LENGTH; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE && i + EOCD_LENGTH + Short.toUnsignedInt(tail.getShort(i + 20)) == tailLength) {
+                return size - tailLength + i;
+            }
+        }
+        throw new IOException("No end of central directory record found");
+    }
+
+    private static Entry readCentralHeader(DataInputStream in) throws IOException {
+        byte[] fixed = new byte[CENTRAL_HEADER_LENGTH];
+        in.readFully(fixed);
+        ByteBuffer header = ByteBuffer.wrap(fixed).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != CENTRAL_HEADER_SIGNATURE) {
+            throw new IOException("Corrupt central directory");
+        }
+
+        int flags = Short.toUnsignedInt(header.getShort(8));
+        int method = Short.toUnsignedInt(header.getShort(10));
+        int dosTime = header.getInt(12);
+        long crc = Integer.toUnsignedLong(header.getInt(16));
+        long compressedSize = Integer.toUnsignedLong(header.getInt(20));
+        long size = Integer.toUnsignedLong(header.getInt(24));
+        int nameLength = Short.toUnsignedInt(header.getShort(28));
+        int extraLength = Short.toUnsignedInt(header.getShort(30));
+        int commentLength = Short.toUnsignedInt(header.getShort(32));
+        long localHeaderOffset = Integer.toUnsignedLong(header.getInt(42));
+
+        byte[] name = new byte[nameLength];
+        in.readFully(name);
+        byte[] extra = new byte[extraLength];
+        in.readFully(extra);
+        in.skipNBytes(commentLength);
+
+        // ZIP64 values replace the fields that are saturated, in this order
+        ByteBuffer extraFields = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        while (extraFields.remaining() >= 4) {
+            int id = Short.toUnsignedInt(extraFields.getShort());
+            int length = Short.toUnsignedInt(extraFields.getShort());
+            if (length > extraFields.remaining()) {
+                break;
+            }
+            int end = extraFields.position() + length;
+            if (id == ZIP64_EXTRA_ID) {
+                if (size == 0xFFFFFFFFL && extraFields.position() + 8 <= end) {
+                    size = extraFields.getLong();
+                }
+                if (compressedSize == 0xFFFFFFFFL && extraFields.position() + 8 <= end) {
+                    compressedSize = extraFields.getLong();
+                }
+                if (localHeaderOffset == 0xFFFFFFFFL && extraFields.position() + 8 <= end) {
+                    localHeaderOffset = extraFields.getLong();
+                }
+            }
+            extraFields.position(end);
+        }
+
+        if (size < 0 || compressedSize < 0 || localHeaderOffset < 0) {
+            throw new IOException("Corrupt central directory entry");
+        }
+        return new Entry(new String(name, StandardCharsets.UTF_8), size, compressedSize, method, crc,
+                dosToEpochMillis(dosTime), localHeaderOffset, (flags & FLAG_ENCRYPTED) != 0);
+    }
+
+    private static long dosToEpochMillis(int dosTime) {
+        try {
+            LocalDateTime time = LocalDateTime.of(((dosTime >> 25) & 0x7F) + 1980, (dosTime >> 21) & 0x0F, (dosTime >> 16) & 0x1F,
+                    (dosTime >> 11) & 0x1F, (dosTime >> 5) & 0x3F, (dosTime << 1) & 0x3E);
+            return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of archive");
+            }
+        }
+        return buffer.flip();
+    }
+
+    public record Entry(String name, long size, long compressedSize, int method, long crc, long modified,
+                        long localHeaderOffset, boolean encrypted) {
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    private static final class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        private BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Fails instead of returning more data than the entry declares, so a crafted archive cannot inflate without
+     * bound, and checks the CRC once the entry has been read completely.
+     */
+    private static final class VerifyingInputStream extends FilterInputStream {
+        private final Entry entry;
+        private final CRC32 crc = new CRC32();
+        private long count;
+
+        private VerifyingInputStream(InputStream in, Entry entry) {
+            super(in);
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int n = read(single, 0, 1);
+            return n == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1) {
+                if (count != entry.size() || crc.getValue() != entry.crc()) {
+                    throw new IOException("Entry data does not match the central directory: " + entry.name());
+                }
+                return -1;
+            }
+            count += n;
+            if (count > entry.size()) {
+                throw new IOException("Entry is larger than declared: " + entry.name());
+            }
+            crc.update(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes still count towards the size and checksum
+            byte[] buffer = new byte[(int) Math.min(Math.max(n, 0), READ_BUFFER_SIZE)];
+            return buffer.length == 0 ? 0 : Math.max(read(buffer, 0, buffer.length), 0);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package org.rostislav.quickdrop.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a ZIP archive front to back without seeking, so it can sit on top of any output stream, including an
+ * encrypting one. Sizes and checksums follow each entry in a data descriptor and the central directory is written by
+ * {@link #finish()}. Entries and archives past the 4 GB and 65535 entry limits use ZIP64 records. Files that are
+ * already compressed are stored, everything else is deflated.
+ */
+public final class ZipStreamWriter {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int VERSION_MADE_BY_UNIX = 3 << 8;
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final long ZIP32_LIMIT = 0xFFFFFFFFL;
+    private static final int MAX_ZIP32_ENTRIES = 0xFFFF;
+    // Deflate can grow incompressible data slightly, entries this close to the limit are written as ZIP64
+    private static final long ZIP64_ENTRY_THRESHOLD = 0xF0000000L;
+    private static final int FILE_ATTRIBUTES = 0100644 << 16;
+    private static final int DIRECTORY_ATTRIBUTES = (040755 << 16) | 0x10;
+    private static final int DEFLATE_BUFFER_SIZE = 64 * 1024;
+    private static final Set<String> STORED_EXTENSIONS = Set.of(
+            ".zip", ".gz", ".tgz", ".bz2", ".xz", ".zst", ".7z", ".rar", ".lz4",
+            ".jpg", ".jpeg", ".png", ".gif", ".webp", ".heic", ".avif",
+            ".mp3", ".m4a", ".aac", ".ogg", ".opus", ".flac",
+            ".mp4", ".m4v", ".mov", ".mkv", ".webm", ".avi",
+            ".docx", ".xlsx", ".pptx", ".odt", ".ods", ".odp", ".epub", ".jar", ".apk", ".pdf"
+    );
+
+    private final OutputStream out;
+    private final List<EntryRecord> entries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final CRC32 crc = new CRC32();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final byte[] deflateBuffer = new byte[DEFLATE_BUFFER_SIZE];
+    private final int dosTime = toDosTime(LocalDateTime.now());
+    private long written;
+    private EntryRecord current;
+    private boolean finished;
+
+    public ZipStreamWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Turns a client supplied relative path into an entry name, or returns null when it could escape the folder on
+     * extraction. A path ending in a slash names a directory and keeps the slash.
+     */
+    public static String normalizeEntryName(String path) {
+        if (path == null) {
+            return null;
+        }
+        String name = path.replace('\\', '/');
+        while (name.startsWith("/")) {
+            name = name.substring(1);
+        }
+        boolean directory = name.endsWith("/");
+        if (directory) {
+            name = name.substring(0, name.length() - 1);
+        }
+        if (name.isEmpty() || name.indexOf('\0') >= 0 || name.length() > 0xFFFF / 4) {
+            return null;
+        }
+        for (String segment : name.split("/", -1)) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+                return null;
+            }
+        }
+        return directory ? name + "/" : name;
+    }
+
+    public static boolean isStored(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return STORED_EXTENSIONS.stream().anyMatch(lower::endsWith);
+    }
+
+    /**
+     * Starts a file entry of the given uncompressed size, adding entries for its parent directories first. The
+     * previous entry is closed.
+     */
+    public void putEntry(String name, long size) throws IOException {
+        ensureOpen();
+        closeEntry();
+        if (name.endsWith("/") || !name.equals(normalizeEntryName(name))) {
+            throw new IOException("Invalid entry name: " + name);
+        }
+        if (size < 0) {
+            throw new IOException("Invalid size for entry " + name + ": " + size);
+        }
+
+        putParentDirectories(name);
+        if (!names.add(name)) {
+            throw new IOException("Duplicate entry: " + name);
+        }
+
+        current = new EntryRecord(name, isStored(name) ? METHOD_STORED : METHOD_DEFLATED, size, size >= ZIP64_ENTRY_THRESHOLD);
+        writeLocalHeader(current);
+        crc.reset();
+        deflater.reset();
+    }
+
+    /**
+     * Adds a directory entry, so empty directories survive extraction. The name ends with a slash. Directories that
+     * are already in the archive, for example as the parent of an earlier file, are not added again.
+     */
+    public void putDirectory(String name) throws IOException {
+        ensureOpen();
+        closeEntry();
+        if (!name.endsWith("/") || !name.equals(normalizeEntryName(name))) {
+            throw new IOException("Invalid directory name: " + name);
+        }
+
+        putParentDirectories(name);
+    }
+
+    private void putParentDirectories(String name) throws IOException {
+        for (int slash = name.indexOf('/'); slash >= 0; slash = name.indexOf('/', slash + 1)) {
+            String directory = name.substring(0, slash + 1);
+            if (names.add(directory)) {
+                writeLocalHeader(new EntryRecord(directory, METHOD_STORED, 0, false));
+            }
+        }
+    }
+
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        if (current == null) {
+            throw new IOException("No entry is open");
+        }
+        if (current.size + length > current.declaredSize) {
+            throw new IOException("Entry " + current.name + " is larger than declared");
+        }
+
+        crc.update(buffer, offset, length);
+        current.size += length;
+        if (current.method == METHOD_STORED) {
+            writeRaw(buffer, offset, length);
+            return;
+        }
+
+        deflater.setInput(buffer, offset, length);
+        while (!deflater.needsInput()) {
+            drainDeflater();
+        }
+    }
+
+    public void closeEntry() throws IOException {
+        if (current == null) {
+            return;
+        }
+
+        EntryRecord entry = current;
+        current = null;
+        if (entry.size != entry.declaredSize) {
+            throw new IOException("Entry " + entry.name + " has " + entry.size + " bytes, " + entry.declaredSize + " were declared");
+        }
+        if (entry.method == METHOD_DEFLATED) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                drainDeflater();
+            }
+            entry.compressedSize = deflater.getBytesWritten();
+        } else {
+            entry.compressedSize = entry.size;
+        }
+        entry.crc = crc.getValue();
+        if (!entry.zip64 && (entry.size >= ZIP32_LIMIT || entry.compressedSize >= ZIP32_LIMIT)) {
+            throw new IOException("Entry " + entry.name + " outgrew its ZIP32 header");
+        }
+
+        ByteBuffer descriptor = buffer(entry.zip64 ? 24 : 16)
+                .putInt(DATA_DESCRIPTOR_SIGNATURE)
+                .putInt((int) entry.crc);
+        if (entry.zip64) {
+            descriptor.putLong(entry.compressedSize).putLong(entry.size);
+        } else {
+            descriptor.putInt((int) entry.compressedSize).putInt((int) entry.size);
+        }
+        writeRaw(descriptor);
+    }
+
+    /**
+     * Closes the last entry and writes the central directory. The underlying stream is left open.
+     */
+    public void finish() throws IOException {
+        ensureOpen();
+        closeEntry();
+        finished = true;
+        deflater.end();
+
+        long directoryOffset = written;
+        for (EntryRecord entry : entries) {
+            writeCentralHeader(entry);
+        }
+        long directorySize = written - directoryOffset;
+
+        boolean zip64 = entries.size() >= MAX_ZIP32_ENTRIES || directoryOffset >= ZIP32_LIMIT || directorySize >= ZIP32_LIMIT;
+        if (zip64) {
+            long zip64RecordOffset = written;
+            writeRaw(buffer(56)
+                    .putInt(ZIP64_EOCD_SIGNATURE)
+                    .putLong(44)
+                    .putShort((short) (VERSION_MADE_BY_UNIX | VERSION_ZIP64))
+                    .putShort((short) VERSION_ZIP64)
+                    .putInt(0)
+                    .putInt(0)
+                    .putLong(entries.size())
+                    .putLong(entries.size())
+                    .putLong(directorySize)
+                    .putLong(directoryOffset));
+            writeRaw(buffer(20)
+                    .putInt(ZIP64_EOCD_LOCATOR_SIGNATURE)
+                    .putInt(0)
+                    .putLong(zip64RecordOffset)
+                    .putInt(1));
+        }
+
+        writeRaw(buffer(22)
+                .putInt(EOCD_SIGNATURE)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) (zip64 ? MAX_ZIP32_ENTRIES : entries.size()))
+                .putShort((short) (zip64 ? MAX_ZIP32_ENTRIES : entries.size()))
+                .putInt((int) (zip64 ? ZIP32_LIMIT : directorySize))
+                .putInt((int) (zip64 ? ZIP32_LIMIT : directoryOffset))
+                .putShort((short) 0));
+        out.flush();
+    }
+
+    /**
+     * Bytes written so far, which after {@link #finish()} is the size of the archive.
+     */
+    public long getBytesWritten() {
+        return written;
+    }
+
+    public List<WrittenEntry> getEntries() {
+        return entries.stream()
+                .map(entry -> new WrittenEntry(entry.name, entry.size, entry.isDirectory()))
+                .toList();
+    }
+
+    private void writeLocalHeader(EntryRecord entry) throws IOException {
+        entry.localHeaderOffset = written;
+        entries.add(entry);
+
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        // Sizes follow in the data descriptor. A ZIP64 extra field here tells readers its sizes are 8 bytes wide
+        int extraLength = entry.zip64 ? 20 : 0;
+        ByteBuffer header = buffer(30 + name.length + extraLength)
+                .putInt(LOCAL_HEADER_SIGNATURE)
+                .putShort((short) (entry.zip64 ? VERSION_ZIP64 : VERSION_DEFAULT))
+                .putShort((short) entry.flags())
+                .putShort((short) entry.method)
+                .putInt(dosTime)
+                .putInt(0)
+                .putInt(entry.zip64 ? (int) ZIP32_LIMIT : 0)
+                .putInt(entry.zip64 ? (int) ZIP32_LIMIT : 0)
+                .putShort((short) name.length)
+                .putShort((short) extraLength)
+                .put(name);
+        if (entry.zip64) {
+            header.putShort((short) ZIP64_EXTRA_ID).putShort((short) 16).putLong(0).putLong(0);
+        }
+        writeRaw(header);
+    }
+
+    private void writeCentralHeader(EntryRecord entry) throws IOException {
+        boolean sizeOverflow = entry.zip64 || entry.size >= ZIP32_LIMIT;
+        boolean compressedOverflow = entry.zip64 || entry.compressedSize >= ZIP32_LIMIT;
+        boolean offsetOverflow = entry.localHeaderOffset >= ZIP32_LIMIT;
+        int extraLength = (sizeOverflow ? 8 : 0) + (compressedOverflow ? 8 : 0) + (offsetOverflow ? 8 : 0);
+        boolean zip64 = extraLength > 0;
+
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = buffer(46 + name.length + (zip64 ? 4 + extraLength : 0))
+                .putInt(CENTRAL_HEADER_SIGNATURE)
+                .putShort((short) (VERSION_MADE_BY_UNIX | VERSION_ZIP64))
+                .putShort((short) (zip64 ? VERSION_ZIP64 : VERSION_DEFAULT))
+                .putShort((short) entry.flags())
+                .putShort((short) entry.method)
+                .putInt(dosTime)
+                .putInt((int) entry.crc)
+                .putInt((int) (compressedOverflow ? ZIP32_LIMIT : entry.compressedSize))
+                .putInt((int) (sizeOverflow ? ZIP32_LIMIT : entry.size))
+                .putShort((short) name.length)
+                .putShort((short) (zip64 ? 4 + extraLength : 0))
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putInt(entry.isDirectory() ? DIRECTORY_ATTRIBUTES : FILE_ATTRIBUTES)
+                .putInt((int) (offsetOverflow ? ZIP32_LIMIT : entry.localHeaderOffset))
+                .put(name);
+        if (zip64) {
+            header.putShort((short) ZIP64_EXTRA_ID).putShort((short) extraLength);
+            if (sizeOverflow) {
+                header.putLong(entry.size);
+            }
+            if (compressedOverflow) {
+                header.putLong(entry.compressedSize);
+            }
+            if (offsetOverflow) {
+                header.putLong(entry.localHeaderOffset);
+            }
+        }
+        writeRaw(header);
+    }
+
+    private void drainDeflater() throws IOException {
+        int n = deflater.deflate(deflateBuffer, 0, deflateBuffer.length);
+        if (n > 0) {
+            writeRaw(deflateBuffer, 0, n);
+        }
+    }
+
+    private void writeRaw(ByteBuffer buffer) throws IOException {
+        writeRaw(buffer.array(), 0, buffer.position());
+    }
+
+    private void writeRaw(byte[] buffer, int offset, int length) throws IOException {
+        out.write(buffer, offset, length);
+        written += length;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Archive is already finished");
+        }
+    }
+
+    private static ByteBuffer buffer(int length) {
+        return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int toDosTime(LocalDateTime time) {
+        return (time.getYear() - 1980) << 25
+                | time.getMonthValue() << 21
+                | time.getDayOfMonth() << 16
+                | time.getHour() << 11
+                | time.getMinute() << 5
+                | time.getSecond() >> 1;
+    }
+
+    /**
+     * A file or directory in the finished archive. Directory names end with a slash.
+     */
+    public record WrittenEntry(String name, long size, boolean directory) {
+    }
+
+    private static final class EntryRecord {
+        private final String name;
+        private final int method;
+        private final long declaredSize;
+        private final boolean zip64;
+        private long size;
+        private long compressedSize;
+        private long crc;
+        private long localHeaderOffset;
+
+        private EntryRecord(String name, int method, long declaredSize, boolean zip64) {
+            this.name = name;
+            this.method = method;
+            this.declaredSize = declaredSize;
+            this.zip64 = zip64;
+        }
+
+        private boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        /**
+         * Directories are empty and complete in their local header, files are followed by a data descriptor.
+         */
+        private int flags() {
+            return isDirectory() ? FLAG_UTF8 : FLAG_DATA_DESCRIPTOR | FLAG_UTF8;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+-- Per-file data keys, wrapped by the file password and by each share token
+CREATE TABLE IF NOT EXISTS file_key_entity
+(
+    id             INTEGER PRIMARY KEY AUTOINCREMENT,
+    file_id        INTEGER     NOT NULL,
+    share_token_id INTEGER,
+    key_type       VARCHAR(50) NOT NULL,
+    salt           VARCHAR(255) NOT NULL,
+    wrapped_key    VARCHAR(255) NOT NULL,
+    CONSTRAINT fk_file_key_file FOREIGN KEY (file_id) REFERENCES file_entity (id),
+    CONSTRAINT fk_file_key_share_token FOREIGN KEY (share_token_id) REFERENCES share_token_entity (id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_file_key_file ON file_key_entity (file_id, key_type);
+CREATE INDEX IF NOT EXISTS idx_file_key_share_token ON file_key_entity (share_token_id);
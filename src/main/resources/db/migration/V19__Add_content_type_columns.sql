@@ -0,0 +1,2 @@
+ALTER TABLE file_entity ADD COLUMN content_type VARCHAR(255);
+ALTER TABLE file_entity ADD COLUMN preview_category VARCHAR(16);
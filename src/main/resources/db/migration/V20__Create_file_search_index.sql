@@ -0,0 +1,53 @@
+-- Full-text index over file names and descriptions, kept in sync with file_entity by the triggers below
+CREATE VIRTUAL TABLE IF NOT EXISTS file_search USING fts5
+(
+    name,
+    description,
+    content = 'file_entity',
+    content_rowid = 'id',
+    tokenize = 'unicode61 remove_diacritics 2',
+    prefix = '2 3'
+);
+
+-- UUIDs are matched by substring, which a trigram index answers without scanning file_entity
+CREATE VIRTUAL TABLE IF NOT EXISTS file_uuid_search USING fts5
+(
+    uuid,
+    content = 'file_entity',
+    content_rowid = 'id',
+    tokenize = 'trigram'
+);
+
+-- A match in the name outweighs a match in the description
+INSERT INTO file_search (file_search, rank) VALUES ('rank', 'bm25(10.0, 1.0)');
+
+CREATE TRIGGER IF NOT EXISTS file_search_insert
+    AFTER INSERT
+    ON file_entity
+BEGIN
+    INSERT INTO file_search (rowid, name, description) VALUES (new.id, new.name, new.description);
+    INSERT INTO file_uuid_search (rowid, uuid) VALUES (new.id, new.uuid);
+END;
+
+CREATE TRIGGER IF NOT EXISTS file_search_delete
+    AFTER DELETE
+    ON file_entity
+BEGIN
+    INSERT INTO file_search (file_search, rowid, name, description) VALUES ('delete', old.id, old.name, old.description);
+    INSERT INTO file_uuid_search (file_uuid_search, rowid, uuid) VALUES ('delete', old.id, old.uuid);
+END;
+
+-- Hibernate writes every column on update, only reindex when an indexed one actually changed
+CREATE TRIGGER IF NOT EXISTS file_search_update
+    AFTER UPDATE OF name, description, uuid
+    ON file_entity
+    WHEN old.name IS NOT new.name OR old.description IS NOT new.description OR old.uuid IS NOT new.uuid
+BEGIN
+    INSERT INTO file_search (file_search, rowid, name, description) VALUES ('delete', old.id, old.name, old.description);
+    INSERT INTO file_search (rowid, name, description) VALUES (new.id, new.name, new.description);
+    INSERT INTO file_uuid_search (file_uuid_search, rowid, uuid) VALUES ('delete', old.id, old.uuid);
+    INSERT INTO file_uuid_search (rowid, uuid) VALUES (new.id, new.uuid);
+END;
+
+INSERT INTO file_search (file_search) VALUES ('rebuild');
+INSERT INTO file_uuid_search (file_uuid_search) VALUES ('rebuild');
@@ -0,0 +1,2 @@
+-- Backs the keyset pagination of the file list, which seeks on (upload_date, id) in both directions
+CREATE INDEX IF NOT EXISTS idx_file_entity_upload_date_id ON file_entity (upload_date, id);
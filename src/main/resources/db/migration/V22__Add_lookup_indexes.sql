@@ -0,0 +1,16 @@
+-- Files are looked up by UUID on nearly every request
+CREATE UNIQUE INDEX IF NOT EXISTS idx_file_entity_uuid ON file_entity (uuid);
+
+-- Counts the visible files without reading the table
+CREATE INDEX IF NOT EXISTS idx_file_entity_hidden_upload_date ON file_entity (hidden, upload_date);
+
+-- Share tokens are found and removed by file, and purged by expiry or exhausted downloads
+CREATE INDEX IF NOT EXISTS idx_share_token_file ON share_token_entity (file_id);
+CREATE INDEX IF NOT EXISTS idx_share_token_expiration ON share_token_entity (token_expiration_date);
+CREATE INDEX IF NOT EXISTS idx_share_token_downloads ON share_token_entity (number_of_allowed_downloads);
+
+-- Download counts join on (file_id, event_type), the history page reads a file's events newest first.
+-- Both start with file_id, which makes the single column index redundant.
+CREATE INDEX IF NOT EXISTS idx_file_history_file_type ON file_history_log (file_id, event_type);
+CREATE INDEX IF NOT EXISTS idx_file_history_file_date ON file_history_log (file_id, event_date);
+DROP INDEX IF EXISTS idx_file_history_file;
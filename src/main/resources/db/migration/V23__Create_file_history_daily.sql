@@ -0,0 +1,30 @@
+-- Per file, per day totals of the history log. Raw events are rolled up once their day is over and can then be purged.
+CREATE TABLE IF NOT EXISTS file_history_daily (
+    id INTEGER PRIMARY KEY AUTOINCREMENT,
+    file_id INTEGER NOT NULL,
+    event_type VARCHAR(50) NOT NULL,
+    day DATE NOT NULL,
+    event_count INTEGER NOT NULL,
+    unique_ips INTEGER NOT NULL,
+    FOREIGN KEY (file_id) REFERENCES file_entity (id)
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_file_history_daily_file_type_day ON file_history_daily (file_id, event_type, day);
+-- Total downloads sum the counts of one event type without reading the table
+CREATE INDEX IF NOT EXISTS idx_file_history_daily_type_count ON file_history_daily (event_type, event_count);
+
+-- Marks the raw events that are already counted in file_history_daily
+ALTER TABLE file_history_log ADD COLUMN rolled_up BOOLEAN NOT NULL DEFAULT 0;
+
+-- Events migrated from the old log tables got CURRENT_TIMESTAMP as text, everything else is stored as epoch millis.
+-- Convert them so the day ranges of the rollup and the retention cutoff see every row.
+UPDATE file_history_log
+SET event_date = CAST(strftime('%s', event_date) AS INTEGER) * 1000
+WHERE typeof(event_date) = 'text' AND strftime('%s', event_date) IS NOT NULL;
+
+-- The rollup and the purge walk the events by date, totals only count the events that are not rolled up yet
+CREATE INDEX IF NOT EXISTS idx_file_history_rollup_date ON file_history_log (rolled_up, event_date);
+CREATE INDEX IF NOT EXISTS idx_file_history_type_rollup ON file_history_log (event_type, rolled_up);
+CREATE INDEX IF NOT EXISTS idx_file_history_file_type_rollup ON file_history_log (file_id, event_type, rolled_up);
+DROP INDEX IF EXISTS idx_file_history_type;
+DROP INDEX IF EXISTS idx_file_history_file_type;
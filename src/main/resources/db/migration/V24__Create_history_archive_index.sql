@@ -0,0 +1,22 @@
+-- Index of the gzip compressed NDJSON segments that hold archived history events, one directory per month
+CREATE TABLE IF NOT EXISTS file_history_archive_segment (
+    id INTEGER PRIMARY KEY AUTOINCREMENT,
+    month VARCHAR(7) NOT NULL,
+    file_name VARCHAR(255) NOT NULL,
+    event_count INTEGER NOT NULL,
+    first_event_date TIMESTAMP NOT NULL,
+    last_event_date TIMESTAMP NOT NULL,
+    created_at TIMESTAMP NOT NULL
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_history_archive_segment_file_name ON file_history_archive_segment (file_name);
+
+-- The files with events in each segment. There is no foreign key to file_entity, archived events outlive their file.
+CREATE TABLE IF NOT EXISTS file_history_archive_segment_file (
+    segment_id INTEGER NOT NULL,
+    file_id INTEGER NOT NULL,
+    PRIMARY KEY (segment_id, file_id),
+    FOREIGN KEY (segment_id) REFERENCES file_history_archive_segment (id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_history_archive_segment_file_file ON file_history_archive_segment_file (file_id);
@@ -0,0 +1,11 @@
+-- Folder manifests can be megabytes, keep them out of the rows that every file lookup and list page reads
+CREATE TABLE IF NOT EXISTS file_manifest (
+    file_id INTEGER PRIMARY KEY,
+    manifest TEXT NOT NULL,
+    FOREIGN KEY (file_id) REFERENCES file_entity (id)
+);
+
+INSERT INTO file_manifest (file_id, manifest)
+SELECT id, folder_manifest FROM file_entity WHERE folder_manifest IS NOT NULL;
+
+ALTER TABLE file_entity DROP COLUMN folder_manifest;
@@ -397,6 +397,10 @@ let previewBlob = null;
 let previewFetched = false;
 let previewFetching = false;
 let previewReadyPromise = null;
+const PREVIEW_MAX_RETRIES = 3;
+const PAGED_PREVIEW_LINES = 200;
+const PAGED_PREVIEW_ROWS = 100;
+const JSON_PREVIEW_CHILDREN = 100;
 
 function setupPreviewInit() {
   const container = document.getElementById("previewContainer");
@@ -436,12 +440,33 @@ async function initPreview() {
   if (previewFetching || previewFetched) return;
   previewFetching = true;
 
+  if (container.dataset.previewPaged === "true") {
+    await initPagedTextPreview(container, content, status, fileName);
+    previewFetching = false;
+    return;
+  }
+  if (container.dataset.previewCsvPaged === "true") {
+    await initPagedCsvPreview(container, content, status);
+    previewFetching = false;
+    return;
+  }
+  if (container.dataset.previewJsonPaged === "true") {
+    await initLazyJsonPreview(container, content, status);
+    previewFetching = false;
+    return;
+  }
+  if (container.dataset.previewMedia === "true") {
+    renderMediaPreview(container, content, status, previewType);
+    previewFetching = false;
+    return;
+  }
+
   try {
     if (requireManual) {
-      previewUrl = `${previewUrl}?manual=true`;
+      previewUrl = `${previewUrl}${previewUrl.includes("?") ? "&" : "?"}manual=true`;
     }
 
-    const resp = await fetch(previewUrl, { credentials: "same-origin" });
+    const resp = await fetchPreview(previewUrl, status);
     if (!resp.ok) throw new Error("Preview unavailable");
     const blob = await resp.blob();
     previewBlob = blob;
@@ -480,6 +505,166 @@ async function initPreview() {
   previewFetching = false;
 }
 
+// The server sheds preview renderings with 503 when it is busy, retry a few times as told by Retry-After
+async function fetchPreview(url, status) {
+  for (let attempt = 0; ; attempt++) {
+    const resp = await fetch(url, { credentials: "same-origin" });
+    if (resp.status !== 503 || attempt >= PREVIEW_MAX_RETRIES) return resp;
+
+    const retryAfter = Math.min(Number.parseInt(resp.headers.get("Retry-After"), 10) || 2, 30);
+    if (status) status.textContent = "Server is busy, retrying preview...";
+    await new Promise((resolve) => setTimeout(resolve, retryAfter * 1000));
+  }
+}
+
+// Large text files are browsed a window of lines at a time, the server keeps an index of line offsets
+async function initPagedTextPreview(container, content, status, fileName) {
+  const linesUrl = container.dataset.previewLinesUrl;
+  const extension = normalizeLanguageExtension(extractExtension(fileName));
+  let totalLines = 0;
+
+  const { wrapper, body, prevBtn, nextBtn, position, gotoInput } = createPager("Go to line");
+
+  let currentFrom = 0;
+  const load = async (from) => {
+    const params = new URLSearchParams({ from: Math.max(0, from), count: PAGED_PREVIEW_LINES });
+    const resp = await fetchPreview(`${linesUrl}?${params}`, status);
+    if (!resp.ok) throw new Error("Preview unavailable");
+    const page = await resp.json();
+    currentFrom = page.from;
+    totalLines = page.totalLines;
+
+    body.innerHTML = "";
+    body.appendChild(renderCodeBlock(page.lines.join("\n"), extension));
+    const last = page.from + page.lines.length;
+    position.textContent = totalLines === 0
+      ? "Empty file"
+      : `Lines ${page.from + 1}–${last} of ${totalLines}${page.truncatedLines ? " (long lines cut)" : ""}`;
+    prevBtn.disabled = page.from === 0;
+    nextBtn.disabled = last >= totalLines;
+  };
+
+  await startPager({ content, status, wrapper, prevBtn, nextBtn, gotoInput }, load, () => currentFrom, PAGED_PREVIEW_LINES);
+}
+
+// CSV and TSV files are paged by rows, the first page also carries the column names and inferred types
+async function initPagedCsvPreview(container, content, status) {
+  const rowsUrl = container.dataset.previewRowsUrl;
+  const { wrapper, body, prevBtn, nextBtn, position, gotoInput } = createPager("Go to row");
+  let columns = [];
+  let currentFrom = 0;
+
+  const load = async (from) => {
+    const params = new URLSearchParams({ from: Math.max(0, from), count: PAGED_PREVIEW_ROWS, schema: columns.length === 0 });
+    const resp = await fetchPreview(`${rowsUrl}?${params}`, status);
+    if (!resp.ok) throw new Error("Preview unavailable");
+    const page = await resp.json();
+    if (page.columns) columns = page.columns;
+    currentFrom = page.from;
+
+    body.innerHTML = "";
+    if (columns.length === 0) {
+      const empty = document.createElement("div");
+      empty.className = "text-sm text-gray-600 dark:text-gray-300";
+      empty.textContent = "No rows to display.";
+      body.appendChild(empty);
+    } else {
+      body.appendChild(renderCsvTable(columns, page.rows));
+    }
+
+    const last = page.from + page.rows.length;
+    position.textContent = page.totalRows === 0
+      ? "No rows"
+      : `Rows ${page.from + 1}–${last} of ${page.totalRows}${page.truncatedRows ? " (long rows cut)" : ""}`;
+    prevBtn.disabled = page.from === 0;
+    nextBtn.disabled = last >= page.totalRows;
+  };
+
+  await startPager({ content, status, wrapper, prevBtn, nextBtn, gotoInput }, load, () => currentFrom, PAGED_PREVIEW_ROWS);
+}
+
+function renderCsvTable(columns, rows) {
+  const table = document.createElement("table");
+  table.className = "preview-table";
+  const thead = document.createElement("thead");
+  const headerRow = document.createElement("tr");
+  columns.forEach((column) => {
+    const th = document.createElement("th");
+    th.textContent = column.name;
+    const type = document.createElement("div");
+    type.className = "text-xs text-gray-500 dark:text-gray-400";
+    type.textContent = column.nullable ? `${column.type}, nullable` : column.type;
+    th.appendChild(type);
+    headerRow.appendChild(th);
+  });
+  thead.appendChild(headerRow);
+  table.appendChild(thead);
+
+  const tbody = document.createElement("tbody");
+  rows.forEach((row) => {
+    const tr = document.createElement("tr");
+    row.forEach((cell) => {
+      const td = document.createElement("td");
+      td.textContent = cell;
+      tr.appendChild(td);
+    });
+    tbody.appendChild(tr);
+  });
+  table.appendChild(tbody);
+  return table;
+}
+
+function createPager(gotoPlaceholder) {
+  const wrapper = document.createElement("div");
+  wrapper.className = "preview-stack w-full";
+  const controls = document.createElement("div");
+  controls.className = "flex items-center justify-between gap-2 text-sm text-gray-600 dark:text-gray-400";
+  const prevBtn = createPagerButton("Previous");
+  const nextBtn = createPagerButton("Next");
+  const position = document.createElement("span");
+  const gotoInput = document.createElement("input");
+  gotoInput.type = "number";
+  gotoInput.min = "1";
+  gotoInput.placeholder = gotoPlaceholder;
+  gotoInput.className = "max-w-xs rounded border border-slate-300 dark:border-slate-600 bg-white dark:bg-slate-800 px-2 py-1";
+  controls.append(prevBtn, position, gotoInput, nextBtn);
+  const body = document.createElement("div");
+  wrapper.append(controls, body);
+  return { wrapper, body, prevBtn, nextBtn, position, gotoInput };
+}
+
+async function startPager(pager, load, currentFrom, pageSize) {
+  const { content, status, wrapper, prevBtn, nextBtn, gotoInput } = pager;
+  prevBtn.addEventListener("click", () => load(currentFrom() - pageSize).catch(() => {}));
+  nextBtn.addEventListener("click", () => load(currentFrom() + pageSize).catch(() => {}));
+  gotoInput.addEventListener("keydown", (e) => {
+    if (e.key !== "Enter") return;
+    const target = Number.parseInt(gotoInput.value, 10);
+    if (Number.isFinite(target)) load(target - 1).catch(() => {});
+  });
+
+  try {
+    await load(0);
+    if (status) status.remove();
+    content.innerHTML = "";
+    content.appendChild(wrapper);
+    previewFetched = true;
+  } catch (e) {
+    if (status) {
+      status.textContent = "Preview unavailable.";
+      status.className = "text-sm text-red-600 dark:text-red-400";
+    }
+  }
+}
+
+function createPagerButton(label) {
+  const btn = document.createElement("button");
+  btn.type = "button";
+  btn.textContent = label;
+  btn.className = "text-xs px-2 py-1 rounded bg-sky-500 text-white hover:bg-sky-600 disabled:opacity-50";
+  return btn;
+}
+
 function extractExtension(name) {
   const idx = name.lastIndexOf(".");
   if (idx === -1 || idx === name.length - 1) return "";
@@ -534,6 +719,32 @@ function renderImagePreview(container, objectUrl) {
   container.appendChild(img);
 }
 
+// Audio and video play straight from the stream endpoint, the browser fetches byte ranges as the user seeks
+function renderMediaPreview(container, content, status, previewType) {
+  const media = document.createElement(previewType === "audio" ? "audio" : "video");
+  media.src = container.dataset.previewStreamUrl;
+  media.controls = true;
+  media.preload = "metadata";
+  media.className = `preview-media preview-${previewType}`;
+  media.addEventListener(
+    "error",
+    () => {
+      content.innerHTML = "";
+      const message = document.createElement("p");
+      message.className = "text-sm text-red-600 dark:text-red-400";
+      message.textContent = "Preview unavailable.";
+      content.appendChild(message);
+    },
+    { once: true },
+  );
+
+  if (status) status.remove();
+  content.innerHTML = "";
+  content.classList.remove("preview-stack");
+  content.appendChild(media);
+  previewFetched = true;
+}
+
 function renderPdfPreview(container, objectUrl, fileName) {
   const frame = document.createElement("object");
   frame.type = "application/pdf";
@@ -597,6 +808,97 @@ function renderJsonPreview(container, text) {
   container.append(toolbar, formatted, tree);
 }
 
+// JSON documents are fetched one level at a time, containers load their children when they are first opened
+async function initLazyJsonPreview(container, content, status) {
+  const jsonUrl = container.dataset.previewJsonUrl;
+  const fetchNode = async (path, offset) => {
+    const params = new URLSearchParams({ path, offset, limit: JSON_PREVIEW_CHILDREN });
+    const resp = await fetchPreview(`${jsonUrl}?${params}`, status);
+    if (!resp.ok) throw new Error("Preview unavailable");
+    return resp.json();
+  };
+
+  try {
+    const root = await fetchNode("", 0);
+    const tree = document.createElement("div");
+    tree.className = "json-tree w-full";
+    if (root.type === "object" || root.type === "array") {
+      appendJsonChildren(tree, root, fetchNode);
+    } else {
+      tree.appendChild(buildLazyJsonNode({ key: "", type: root.type, value: root.value }, fetchNode));
+    }
+
+    if (status) status.remove();
+    content.innerHTML = "";
+    content.appendChild(tree);
+    previewFetched = true;
+  } catch (e) {
+    if (status) {
+      status.textContent = "Preview unavailable.";
+      status.className = "text-sm text-red-600 dark:text-red-400";
+    }
+  }
+}
+
+function appendJsonChildren(target, node, fetchNode) {
+  node.children.forEach((child) => target.appendChild(buildLazyJsonNode(child, fetchNode)));
+  if (!node.hasMore) return;
+
+  const more = createPagerButton("Load more");
+  more.addEventListener("click", async () => {
+    more.disabled = true;
+    try {
+      const next = await fetchNode(node.path, node.offset + node.children.length);
+      more.remove();
+      appendJsonChildren(target, next, fetchNode);
+    } catch (e) {
+      more.disabled = false;
+    }
+  });
+  target.appendChild(more);
+}
+
+function buildLazyJsonNode(child, fetchNode) {
+  const wrapper = document.createElement("div");
+  wrapper.className = "json-node";
+
+  if (child.type === "object" || child.type === "array") {
+    const details = document.createElement("details");
+    const summary = document.createElement("summary");
+    const brackets = child.type === "array" ? `[${child.size}]` : `{${child.size}}`;
+    summary.textContent = child.key ? `${child.key} ${brackets}` : brackets;
+    details.appendChild(summary);
+
+    let loaded = false;
+    details.addEventListener("toggle", async () => {
+      if (!details.open || loaded || child.size === 0) return;
+      loaded = true;
+      try {
+        appendJsonChildren(details, await fetchNode(child.path, 0), fetchNode);
+      } catch (e) {
+        loaded = false;
+      }
+    });
+    wrapper.appendChild(details);
+  } else {
+    const leaf = document.createElement("div");
+    leaf.className = "json-leaf";
+    const name = child.key ? `${child.key}: ` : "";
+    let text;
+    if (child.type === "string") {
+      text = JSON.stringify(child.value);
+      if (child.truncated) text = `${text.slice(0, -1)}…"`;
+    } else if (child.value !== null && child.value !== undefined) {
+      text = child.value;
+    } else {
+      text = `(${child.type})`;
+    }
+    leaf.textContent = `${name}${text}`;
+    wrapper.appendChild(leaf);
+  }
+  return wrapper;
+}
+
 function buildJsonNode(value, label) {
   const wrapper = document.createElement("div");
   wrapper.className = "json-node";
@@ -838,7 +1140,22 @@ function renderFolderTree() {
 
   const lines = [];
   printTree(root, "", true, lines, true);
+  drawFolderTree(treeEl, lines, null);
+
+  // Files become links once the server has confirmed they can be read out of the archive
+  const archiveUrl = treeEl.dataset.archiveUrl;
+  if (!archiveUrl) return;
+  fetch(`${archiveUrl}/entries`, { credentials: "same-origin" })
+    .then((response) => (response.ok ? response.json() : null))
+    .then((archiveEntries) => {
+      if (!archiveEntries) return;
+      const byPath = new Map(archiveEntries.map((entry) => [entry.path, entry]));
+      drawFolderTree(treeEl, lines, { archiveUrl, byPath });
+    })
+    .catch((e) => console.warn("Archive listing failed", e));
+}
 
+function drawFolderTree(treeEl, lines, archive) {
   treeEl.innerHTML = "";
   const frag = document.createDocumentFragment();
 
@@ -847,7 +1164,9 @@ function renderFolderTree() {
     lineEl.style.whiteSpace = "pre";
 
     segments.forEach((segment) => {
-      const span = document.createElement("span");
+      const entry =
+        archive && segment.type === "file" ? archive.byPath.get(segment.path) : null;
+      const span = document.createElement(entry ? "a" : "span");
       if (segment.type === "root") {
         span.className = "folder-tree-root";
       } else if (segment.type === "folder") {
@@ -858,7 +1177,21 @@ function renderFolderTree() {
         span.className = "folder-tree-connector";
       }
       span.textContent = segment.text;
+      if (entry) {
+        span.href = archiveEntryUrl(archive.archiveUrl, "download", entry.path);
+        span.title = "Download this file";
+      }
       lineEl.appendChild(span);
+
+      if (entry && entry.previewable) {
+        const preview = document.createElement("a");
+        preview.className = "folder-tree-action";
+        preview.href = archiveEntryUrl(archive.archiveUrl, "preview", entry.path);
+        preview.target = "_blank";
+        preview.rel = "noopener";
+        preview.textContent = " [preview]";
+        lineEl.appendChild(preview);
+      }
     });
 
     frag.appendChild(lineEl);
@@ -867,6 +1200,10 @@ function renderFolderTree() {
   treeEl.appendChild(frag);
 }
 
+function archiveEntryUrl(archiveUrl, action, path) {
+  return `${archiveUrl}/${action}?path=${encodeURIComponent(path)}`;
+}
+
 function createTreeRoot(name) {
   return { name, children: [], files: [] };
 }
@@ -888,7 +1225,7 @@ function addPathToTree(root, path, folderName) {
       node.children.push(dirNode);
       node = dirNode;
     } else if (isFile && part.includes(".")) {
-      node.files.push(part);
+      node.files.push({ name: part, path });
     } else {
       let child = node.children.find((c) => c.name === part);
       if (!child) {
@@ -912,18 +1249,18 @@ function printTree(node, prefix, isLast, lines, isRoot = false) {
     prefix === "" ? "   " : isLast ? `${prefix}   ` : `${prefix}│  `;
   const children = [
     ...node.children.sort((a, b) => a.name.localeCompare(b.name)),
-    ...node.files.sort(),
+    ...node.files.sort((a, b) => a.name.localeCompare(b.name)),
   ];
 
   children.forEach((child, index) => {
     const lastChild = index === children.length - 1;
-    if (typeof child === "string") {
+    if (child.path !== undefined) {
       const fileLine = [
         {
           text: `${nextPrefix}${lastChild ? "└─ " : "├─ "}`,
           type: "connector",
         },
-        { text: child, type: "file" },
+        { text: child.name, type: "file", path: child.path },
       ];
       lines.push(fileLine);
     } else {
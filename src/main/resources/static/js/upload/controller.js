@@ -224,7 +224,7 @@ export function initUploadPage(config = {}) {
     const candidate = shouldUseFallback
       ? fallbackCandidate
       : cleanCandidate || fallbackCandidate;
-    if (!candidate || !candidate.file) {
+    if (!candidate || (!candidate.file && !candidate.entries)) {
       showMessage("danger", "No upload candidate is available.");
       return;
     }
@@ -12,9 +12,12 @@ export async function uploadCandidate(
     onError,
   }
 ) {
-  const file = candidate.file;
   const chunkSize = 1024 * 1024; // 1MB chunks
-  const totalChunks = Math.max(1, Math.ceil(file.size / chunkSize));
+  const chunks = planChunks(candidate, chunkSize);
+  const totalChunks = chunks.length;
+  const totalSize = candidate.entries
+    ? candidate.entries.reduce((total, entry) => total + entry.file.size, 0)
+    : candidate.file.size;
   let currentChunk = 0;
 
   const progressElement =
@@ -32,18 +35,18 @@ export async function uploadCandidate(
 
   return new Promise((resolve, reject) => {
     const uploadNextChunk = () => {
-      const start = currentChunk * chunkSize;
-      const end = Math.min(start + chunkSize, file.size);
-      const chunk = file.slice(start, end);
+      const { blob, start, end, entry } = chunks[currentChunk];
+      const chunk = blob.slice(start, end);
       const formData = buildChunkFormData(
         chunk,
         currentChunk,
         candidate.name,
         totalChunks,
-        file.size,
+        totalSize,
         candidate,
         uploadPasswordEnabled,
-        form
+        form,
+        entry
       );
 
       const xhr = new XMLHttpRequest();
@@ -117,6 +120,25 @@ export async function uploadCandidate(
   });
 }
 
+// Folder candidates send every file as its own run of chunks, even empty files get one
+function planChunks(candidate, chunkSize) {
+  const sources = candidate.entries || [{ path: null, file: candidate.file }];
+  const chunks = [];
+  sources.forEach((source) => {
+    const size = source.file.size;
+    const count = Math.max(1, Math.ceil(size / chunkSize));
+    for (let i = 0; i < count; i++) {
+      chunks.push({
+        blob: source.file,
+        start: i * chunkSize,
+        end: Math.min((i + 1) * chunkSize, size),
+        entry: source.path === null ? null : { path: source.path, size },
+      });
+    }
+  });
+  return chunks;
+}
+
 function buildChunkFormData(
   chunk,
   chunkNumber,
@@ -125,7 +147,8 @@ function buildChunkFormData(
   fileSize,
   candidate,
   uploadPasswordEnabled,
-  form
+  form,
+  entry
 ) {
   const uploadForm = form || document.getElementById("uploadForm");
   const formData = new FormData();
@@ -140,7 +163,10 @@ function buildChunkFormData(
     formData.append("folderUpload", candidate.folderUpload ? "true" : "false");
     if (candidate.folderUpload) {
       formData.append("folderName", candidate.folderName || "");
-      formData.append("folderManifest", candidate.folderManifest || "[]");
+    }
+    if (entry) {
+      formData.append("entryPath", entry.path);
+      formData.append("entrySize", entry.size);
     }
   }
 
@@ -43,35 +43,6 @@ export function buildFolderManifest(fileList) {
   };
 }
 
-async function zipFromEntries(entries, manifestArray) {
-  if (!window.JSZip) throw new Error("JSZip is unavailable");
-  const zip = new JSZip();
-  manifestArray.forEach((entry) => {
-    if (entry.type === "dir") {
-      zip.folder(entry.path);
-    }
-  });
-  entries.forEach((entry) => {
-    zip.file(entry.path, entry.file);
-  });
-  return zip.generateAsync({ type: "blob" });
-}
-
-async function zipRawFiles(fileList, manifestArray) {
-  if (!window.JSZip) throw new Error("JSZip is unavailable");
-  const rawZip = new JSZip();
-  manifestArray.forEach((entry) => {
-    if (entry.type === "dir") {
-      rawZip.folder(entry.path);
-    }
-  });
-  for (const file of fileList) {
-    const rel = getRelativePath(file);
-    rawZip.file(rel, file);
-  }
-  return rawZip.generateAsync({ type: "blob" });
-}
-
 export async function buildFolderCandidates(fileList, { metadataEnabled }) {
   const { manifestArray, rootFolder, totalOriginalSize } =
     buildFolderManifest(fileList);
@@ -109,25 +80,26 @@ export async function buildFolderCandidates(fileList, { metadataEnabled }) {
     }
   }
 
-  const zipBlob = await zipFromEntries(processedEntries, manifestArray);
-  let fallbackZipBlob = zipBlob;
-  if (failures.length > 0) {
-    fallbackZipBlob = await zipRawFiles(fileList, manifestArray);
-  }
+  // Files are sent one after another and packed into a ZIP archive by the server
+  const rawEntries = Array.from(fileList).map((file) => ({
+    path: getRelativePath(file),
+    file,
+  }));
+  const sumSizes = (entries) =>
+    entries.reduce((total, entry) => total + entry.file.size, 0);
 
   const zipName = `${rootFolder}.zip`;
   const cleanCandidate = {
-    file: zipBlob,
+    entries: processedEntries,
     name: zipName,
-    size: zipBlob.size,
+    size: sumSizes(processedEntries),
     folderUpload: true,
     folderName: rootFolder,
-    folderManifest: JSON.stringify(manifestArray),
   };
   const fallbackCandidate = {
     ...cleanCandidate,
-    file: fallbackZipBlob,
-    size: fallbackZipBlob.size,
+    entries: failures.length > 0 ? rawEntries : processedEntries,
+    size: failures.length > 0 ? sumSizes(rawEntries) : cleanCandidate.size,
   };
 
   return {
@@ -140,6 +112,5 @@ export async function buildFolderCandidates(fileList, { metadataEnabled }) {
     rootFolder,
     totalOriginalSize,
     fileCount: fileList.length,
-    zipSize: zipBlob.size,
   };
 }
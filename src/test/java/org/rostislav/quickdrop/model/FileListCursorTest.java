@@ -0,0 +1,62 @@
+package org.rostislav.quickdrop.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileListCursorTest {
+
+    @Test
+    void decodesWhatItEncodes() {
+        for (FileListCursor cursor : new FileListCursor[]{
+                FileListCursor.after(1_700_000_000_000L, 42),
+                FileListCursor.before(1_700_000_000_000L, 42),
+                FileListCursor.after(0, 0),
+                FileListCursor.before(-1, Long.MAX_VALUE),
+                FileListCursor.offset(0),
+                FileListCursor.offset(120),
+                FileListCursor.offset(Integer.MAX_VALUE)}) {
+            assertThat(FileListCursor.decode(cursor.encode())).isEqualTo(cursor);
+            assertThat(FileListCursor.isValid(cursor.encode())).isTrue();
+        }
+    }
+
+    @Test
+    void encodesUrlSafeTokens() {
+        String token = FileListCursor.after(Long.MAX_VALUE, Long.MAX_VALUE).encode();
+
+        assertThat(token).matches("[A-Za-z0-9_-]+");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "  "})
+    void missingTokenStartsFromBeginning(String token) {
+        assertThat(FileListCursor.decode(token)).isNull();
+        assertThat(FileListCursor.decode(null)).isNull();
+        assertThat(FileListCursor.isValid(token)).isTrue();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            ".", "..", "a", "a.", "a.1", "a.1.", "a..1", "a.1.2.3", "a.x.1", "b.1.1e3", "o", "o.", "o.-1",
+            "o.2147483648", "o.1.2", "o.99999999999999999999", "x.1.2", "A.1.2", "a.1.2\n", " o.1"
+    })
+    void rejectsTamperedTokens(String value) {
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.US_ASCII));
+
+        assertThatThrownBy(() -> FileListCursor.decode(token)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(FileListCursor.isValid(token)).isFalse();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"not a cursor", "%%%", "YS4xLjI=x", "a.1.2", "Lg", "=", "YQ"})
+    void rejectsGarbage(String token) {
+        assertThat(FileListCursor.isValid(token)).isFalse();
+    }
+}
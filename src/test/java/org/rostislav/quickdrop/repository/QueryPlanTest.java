@@ -0,0 +1,248 @@
+package org.rostislav.quickdrop.repository;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.api.io.TempDir;
+import org.rostislav.quickdrop.QuickdropApplication;
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.entity.ShareTokenEntity;
+import org.rostislav.quickdrop.model.FileHistoryType;
+import org.rostislav.quickdrop.model.FileKeyType;
+import org.rostislav.quickdrop.util.FullTextQuery;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Boots QuickDrop against a throwaway database, calls every query method of the repositories and runs
+ * {@code EXPLAIN QUERY PLAN} on the SQL each call issued. Fails when a query reads a whole table or index, unless it
+ * is listed in {@link #ALLOWED_SCANS} with the reason that is fine, and when a repository method is not called here.
+ */
+class QueryPlanTest {
+    private static final Map<String, String> ALLOWED_SCANS = Map.of(
+            "FileRepository.findFirstFileKeys", "walks the (upload_date, id) index in order and stops after one page",
+            "FileRepository.countAllFiles", "counts every file, cached until the file list changes",
+            "FileRepository.totalFileSizeForAllFiles", "sums every file, cached with the analytics",
+            "FileHistoryArchiveSegmentRepository.findAllFileNames", "reads the segment index once per archive run");
+    private static final List<Class<?>> REPOSITORIES = List.of(ApplicationSettingsRepository.class,
+            FileHistoryArchiveSegmentRepository.class, FileHistoryDailyRepository.class, FileHistoryLogRepository.class, FileKeyRepository.class, FileManifestRepository.class, FileRepository.class, ShareTokenRepository.class);
+
+    private static final Pattern SCAN = Pattern.compile("^SCAN (\\S+)(.*)$");
+    // Subqueries and views are scanned as temporary results, which says nothing about the tables behind them
+    private static final Pattern TEMPORARY = Pattern.compile("^(?:CO-ROUTINE|MATERIALIZE) (\\S+)");
+
+    @TempDir
+    static Path workDir;
+
+    private static ConfigurableApplicationContext context;
+    private static final Map<String, List<String>> statements = new LinkedHashMap<>();
+    private static final Map<String, RuntimeException> callFailures = new LinkedHashMap<>();
+
+    @BeforeAll
+    static void callQueries() {
+        // Passed as command line arguments so they take precedence over application.properties
+        context = new SpringApplicationBuilder(QuickdropApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:sqlite:" + workDir.resolve("quickdrop.db"),
+                "--spring.jpa.show-sql=false",
+                "--spring.jpa.properties.hibernate.session_factory.statement_inspector=" + RecordingStatementInspector.class.getName(),
+                "--app.history.archive-dir=" + workDir.resolve("history-archive"),
+                "--logging.file.name=" + workDir.resolve("quickdrop.log"),
+                "--logging.level.root=WARN");
+        callQueries(context);
+    }
+
+    @AfterAll
+    static void shutDown() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    @Test
+    void everyRepositoryMethodIsChecked() {
+        List<String> missing = new ArrayList<>();
+        for (Class<?> repository : REPOSITORIES) {
+            for (Method method : repository.getDeclaredMethods()) {
+                if (method.isSynthetic() || method.isDefault() || Modifier.isStatic(method.getModifiers())) {
+                    continue;
+                }
+                String name = repository.getSimpleName() + "." + method.getName();
+                if (!statements.containsKey(name)) {
+                    missing.add(name);
+                }
+            }
+        }
+        assertThat(missing).as("repository methods not called by %s", QueryPlanTest.class.getSimpleName()).isEmpty();
+    }
+
+    @TestFactory
+    Stream<DynamicTest> queriesDoNotScanWholeTables() {
+        DataSource dataSource = context.getBean(DataSource.class);
+        return statements.entrySet().stream().map(entry -> DynamicTest.dynamicTest(entry.getKey(), () -> {
+            String name = entry.getKey();
+            assertThat(callFailures.get(name)).as("%s failed", name).isNull();
+            assertThat(entry.getValue()).as("SQL issued by %s", name).isNotEmpty();
+            for (String sql : entry.getValue()) {
+                List<String> plan = explain(dataSource, sql);
+                if (!ALLOWED_SCANS.containsKey(name)) {
+                    assertThat(fullScans(plan)).as("%s reads a whole table:%n%s%n%s", name, sql, String.join("\n", plan)).isEmpty();
+                }
+            }
+        }));
+    }
+
+    /**
+     * One call per repository method. Arguments only need to be valid, the plans do not depend on the data.
+     */
+    private static void callQueries(ConfigurableApplicationContext context) {
+        FileRepository files = context.getBean(FileRepository.class);
+        FileHistoryLogRepository history = context.getBean(FileHistoryLogRepository.class);
+        FileHistoryDailyRepository daily = context.getBean(FileHistoryDailyRepository.class);
+        FileHistoryArchiveSegmentRepository segments = context.getBean(FileHistoryArchiveSegmentRepository.class);
+        FileKeyRepository keys = context.getBean(FileKeyRepository.class);
+        FileManifestRepository manifests = context.getBean(FileManifestRepository.class);
+        ShareTokenRepository shareTokens = context.getBean(ShareTokenRepository.class);
+
+        FileEntity file = new FileEntity();
+        file.name = "query-plan.txt";
+        file.uuid = UUID.randomUUID().toString();
+        file.uploadDate = LocalDate.now();
+        files.save(file);
+        ShareTokenEntity shareToken = shareTokens.save(new ShareTokenEntity("qplan", file, LocalDate.now(), 1));
+        long now = System.currentTimeMillis();
+
+        record("FileRepository.findByUUID", () -> files.findByUUID(file.uuid));
+        record("FileRepository.findExpiredFiles", () -> files.findExpiredFiles(LocalDate.now(), 0, Limit.of(100)));
+        record("FileRepository.findFirstFileKeys", () -> files.findFirstFileKeys(false, 21));
+        record("FileRepository.findFileKeysAfter", () -> files.findFileKeysAfter(now, file.id, false, 21));
+        record("FileRepository.findFileKeysBefore", () -> files.findFileKeysBefore(now, file.id, true, 21));
+        record("FileRepository.findUuidsBetween", () -> files.findUuidsBetween("", "1", Limit.of(1000)));
+        record("FileRepository.countNotHiddenFiles", files::countNotHiddenFiles);
+        record("FileRepository.countAllFiles", files::countAllFiles);
+        record("FileRepository.totalFileSizeForAllFiles", files::totalFileSizeForAllFiles);
+        record("FileRepository.findListItemsByIds", () -> files.findListItemsByIds(List.of(file.id)));
+        record("FileRepository.findFilesWithDownloadCountsByIds", () -> files.findFilesWithDownloadCountsByIds(List.of(file.id)));
+        record("FileRepository.searchFileIds", () -> files.searchFileIds(FullTextQuery.terms("query plan"),
+                FullTextQuery.uuidFragment(file.uuid.substring(0, 8)), false, PageRequest.of(1, 20)));
+
+        LocalDateTime today = LocalDate.now().atStartOfDay();
+        record("FileHistoryLogRepository.countNotRolledUpByEventType", () -> history.countNotRolledUpByEventType(FileHistoryType.DOWNLOAD));
+        record("FileHistoryLogRepository.countNotRolledUpByFileAndType", () -> history.countNotRolledUpByFileAndType(file.uuid, FileHistoryType.DOWNLOAD));
+        record("FileHistoryLogRepository.findByFileUuidSince", () -> history.findByFileUuidSince(file.uuid, today, Limit.of(500)));
+        record("FileHistoryLogRepository.findOldestNotRolledUpEventDate", history::findOldestNotRolledUpEventDate);
+        record("FileHistoryLogRepository.markRolledUp", () -> history.markRolledUp(today.minusDays(1), today));
+        record("FileHistoryLogRepository.deleteRolledUpBefore", () -> history.deleteRolledUpBefore(today, 1000));
+        record("FileHistoryLogRepository.findArchivableBefore", () -> history.findArchivableBefore(today, Limit.of(1000)));
+        record("FileHistoryLogRepository.deleteByIds", () -> history.deleteByIds(List.of(1L, 2L)));
+        record("FileHistoryLogRepository.deleteByFileId", () -> history.deleteByFileId(file.id));
+        record("FileHistoryLogRepository.deleteByFileIds", () -> history.deleteByFileIds(List.of(file.id)));
+
+        record("FileHistoryDailyRepository.sumByEventType", () -> daily.sumByEventType(FileHistoryType.DOWNLOAD));
+        record("FileHistoryDailyRepository.sumByFileAndType", () -> daily.sumByFileAndType(file.uuid, FileHistoryType.DOWNLOAD));
+        record("FileHistoryDailyRepository.findByFileUuidBefore", () -> daily.findByFileUuidBefore(file.uuid, LocalDate.now()));
+        record("FileHistoryDailyRepository.rollUpDay", () -> daily.rollUpDay(LocalDate.now().minusDays(1), today.minusDays(1), today));
+        record("FileHistoryDailyRepository.deleteByFileId", () -> daily.deleteByFileId(file.id));
+        record("FileHistoryDailyRepository.deleteByFileIds", () -> daily.deleteByFileIds(List.of(file.id)));
+
+        record("FileHistoryArchiveSegmentRepository.findFileNamesByFileId", () -> segments.findFileNamesByFileId(file.id));
+        record("FileHistoryArchiveSegmentRepository.countByFileId", () -> segments.countByFileId(file.id));
+        record("FileHistoryArchiveSegmentRepository.findAllFileNames", segments::findAllFileNames);
+
+        record("FileKeyRepository.findFirstByFileAndKeyType", () -> keys.findFirstByFileAndKeyType(file, FileKeyType.PASSWORD));
+        record("FileKeyRepository.findFirstByShareToken", () -> keys.findFirstByShareToken(shareToken));
+        record("FileKeyRepository.existsByShareToken", () -> keys.existsByShareToken(shareToken));
+        record("FileKeyRepository.deleteByFileId", () -> keys.deleteByFileId(file.id));
+        record("FileKeyRepository.deleteByFileIds", () -> keys.deleteByFileIds(List.of(file.id)));
+        record("FileKeyRepository.deleteByShareTokens", () -> keys.deleteByShareTokens(List.of(shareToken)));
+
+        record("FileManifestRepository.findManifestByFileId", () -> manifests.findManifestByFileId(file.id));
+        record("FileManifestRepository.deleteByFileId", () -> manifests.deleteByFileId(file.id));
+        record("FileManifestRepository.deleteByFileIds", () -> manifests.deleteByFileIds(List.of(file.id)));
+
+        record("ShareTokenRepository.findByShareToken", () -> shareTokens.findByShareToken(shareToken.shareToken));
+        record("ShareTokenRepository.existsByShareToken", () -> shareTokens.existsByShareToken(shareToken.shareToken));
+        record("ShareTokenRepository.getShareTokenEntitiesForDeletion", shareTokens::getShareTokenEntitiesForDeletion);
+        record("ShareTokenRepository.findFirstByFileAndTokenExpirationDateIsNullAndNumberOfAllowedDownloadsIsNull",
+                () -> shareTokens.findFirstByFileAndTokenExpirationDateIsNullAndNumberOfAllowedDownloadsIsNull(file));
+        // Run last, they remove the share token the calls above use
+        record("ShareTokenRepository.deleteByFileIds", () -> shareTokens.deleteByFileIds(List.of(file.id)));
+        record("ShareTokenRepository.deleteAllByFile", () -> shareTokens.deleteAllByFile(file));
+    }
+
+    private static void record(String name, Runnable call) {
+        RecordingStatementInspector.start();
+        try {
+            call.run();
+        } catch (RuntimeException e) {
+            callFailures.put(name, e);
+        } finally {
+            statements.put(name, RecordingStatementInspector.stop());
+        }
+    }
+
+    private static List<String> explain(DataSource dataSource, String sql) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+            // Plans do not depend on the bound values, but the driver refuses to run with unbound parameters
+            int parameters = statement.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= parameters; i++) {
+                statement.setNull(i, Types.NULL);
+            }
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    plan.add(result.getString("detail"));
+                }
+            }
+        }
+        return plan;
+    }
+
+    private static List<String> fullScans(List<String> plan) {
+        Set<String> temporary = new HashSet<>();
+        for (String detail : plan) {
+            Matcher matcher = TEMPORARY.matcher(detail);
+            if (matcher.find()) {
+                temporary.add(matcher.group(1));
+            }
+        }
+
+        List<String> scans = new ArrayList<>();
+        for (String detail : plan) {
+            Matcher matcher = SCAN.matcher(detail);
+            if (!matcher.matches()) {
+                continue;
+            }
+            String table = matcher.group(1);
+            // A virtual table scan is filtered by its own index, FTS MATCH shows up as one
+            boolean virtual = matcher.group(2).contains("VIRTUAL TABLE");
+            if (!table.startsWith("(") && !table.equals("CONSTANT") && !temporary.contains(table) && !virtual) {
+                scans.add(detail);
+            }
+        }
+        return scans;
+    }
+}
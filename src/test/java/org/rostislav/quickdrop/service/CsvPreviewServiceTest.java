@@ -0,0 +1,136 @@
+package org.rostislav.quickdrop.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.model.CsvColumn;
+import org.rostislav.quickdrop.model.CsvRowWindow;
+import org.rostislav.quickdrop.model.PreviewCategory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CsvPreviewServiceTest {
+    private static final String UUID = "00000000-0000-0000-0000-000000000001";
+
+    @TempDir
+    Path directory;
+
+    private CsvPreviewService csvPreviewService;
+
+    @BeforeEach
+    void setUp() {
+        ApplicationSettingsService applicationSettingsService = mock(ApplicationSettingsService.class);
+        when(applicationSettingsService.getFileStoragePath()).thenReturn(directory.toString());
+        when(applicationSettingsService.isPreviewEnabled()).thenReturn(true);
+        csvPreviewService = new CsvPreviewService(applicationSettingsService, new TextPreviewService(applicationSettingsService));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"\n", "\r\n"})
+    void keepsLineBreaksInsideQuotedFields(String lineBreak) throws IOException {
+        FileEntity file = store("data.csv", String.join(lineBreak,
+                "id,note,amount",
+                "1,\"first" + lineBreak + "second\",10",
+                "2,plain,20",
+                "3,\"a, b" + lineBreak + lineBreak + "c\",30",
+                ""));
+
+        CsvRowWindow window = csvPreviewService.readRows(file, 0, 10, true);
+
+        assertThat(window.totalRows()).isEqualTo(3);
+        assertThat(window.rows()).containsExactly(
+                List.of("1", "first" + lineBreak + "second", "10"),
+                List.of("2", "plain", "20"),
+                List.of("3", "a, b" + lineBreak + lineBreak + "c", "30"));
+        assertThat(window.columns()).extracting(CsvColumn::name).containsExactly("id", "note", "amount");
+        assertThat(window.columns()).extracting(CsvColumn::type).containsExactly("integer", "text", "integer");
+    }
+
+    @Test
+    void pagesPastMultiLineRecords() throws IOException {
+        StringBuilder content = new StringBuilder("id,note\r\n");
+        for (int i = 0; i < 3000; i++) {
+            content.append(i).append(",\"row ").append(i).append("\r\ncontinued\"\r\n");
+        }
+        FileEntity file = store("data.csv", content.toString());
+
+        CsvRowWindow window = csvPreviewService.readRows(file, 2500, 2, false);
+
+        assertThat(window.from()).isEqualTo(2500);
+        assertThat(window.totalRows()).isEqualTo(3000);
+        assertThat(window.rows()).containsExactly(
+                List.of("2500", "row 2500\r\ncontinued"),
+                List.of("2501", "row 2501\r\ncontinued"));
+    }
+
+    @Test
+    void unescapesDoubledQuotes() throws IOException {
+        FileEntity file = store("data.csv", "name,quote\n\"Smith, J\",\"He said \"\"hi\"\"\nthen left\"\n");
+
+        CsvRowWindow window = csvPreviewService.readRows(file, 0, 10, false);
+
+        assertThat(window.rows()).containsExactly(List.of("Smith, J", "He said \"hi\"\nthen left"));
+    }
+
+    @Test
+    void strayQuotesInsideFieldsAreLiteral() throws IOException {
+        StringBuilder content = new StringBuilder("id,item,qty\n1,12\" pipe,5\n2,O\"Brien,3\n3,\"quoted\" tail,4\n");
+        for (int i = 4; i <= 2000; i++) {
+            content.append(i).append(",item ").append(i).append(",1\n");
+        }
+        FileEntity file = store("data.csv", content.toString());
+
+        CsvRowWindow window = csvPreviewService.readRows(file, 0, 3, true);
+
+        assertThat(window.totalRows()).isEqualTo(2000);
+        assertThat(window.rows()).containsExactly(
+                List.of("1", "12\" pipe", "5"),
+                List.of("2", "O\"Brien", "3"),
+                List.of("3", "quoted tail", "4"));
+        assertThat(window.columns()).extracting(CsvColumn::type).containsExactly("integer", "text", "integer");
+        assertThat(csvPreviewService.readRows(file, 1998, 2, false).rows()).containsExactly(
+                List.of("1999", "item 1999", "1"),
+                List.of("2000", "item 2000", "1"));
+    }
+
+    @Test
+    void unterminatedQuoteEndsAtEndOfFile() throws IOException {
+        FileEntity file = store("data.csv", "id,note\n1,\"open\n2,next\n");
+
+        CsvRowWindow window = csvPreviewService.readRows(file, 0, 10, false);
+
+        assertThat(window.totalRows()).isEqualTo(1);
+        assertThat(window.rows()).containsExactly(List.of("1", "open\n2,next\n"));
+    }
+
+    @Test
+    void tsvRecordsEndAtEveryLineBreak() throws IOException {
+        FileEntity file = store("data.tsv", "id\tnote\r\n1\t\"open\r\n2\tnext\r\n");
+
+        CsvRowWindow window = csvPreviewService.readRows(file, 0, 10, false);
+
+        assertThat(window.totalRows()).isEqualTo(2);
+        assertThat(window.rows()).containsExactly(List.of("1", "open"), List.of("2", "next"));
+    }
+
+    private FileEntity store(String name, String content) throws IOException {
+        Files.writeString(directory.resolve(UUID), content, StandardCharsets.UTF_8);
+        FileEntity file = new FileEntity();
+        file.uuid = UUID;
+        file.name = name;
+        file.contentType = name.endsWith(".tsv") ? "text/tab-separated-values" : "text/csv";
+        file.previewCategory = PreviewCategory.CSV;
+        return file;
+    }
+}
@@ -0,0 +1,113 @@
+package org.rostislav.quickdrop.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rostislav.quickdrop.util.SegmentedCipherOutputStream;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileEncryptionServiceTest {
+    private final FileEncryptionService service = new FileEncryptionService();
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void shutDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void unwrapsDataKeyWithSameSecret() throws GeneralSecurityException {
+        SecretKey dataKey = service.generateDataKey();
+
+        FileEncryptionService.WrappedKey wrapped = service.wrapDataKey(dataKey, "secret");
+
+        assertThat(service.unwrapDataKey("secret", wrapped.salt(), wrapped.wrappedKey(), null).getEncoded())
+                .isEqualTo(dataKey.getEncoded());
+    }
+
+    @Test
+    void rejectsWrongSecret() throws GeneralSecurityException {
+        FileEncryptionService.WrappedKey wrapped = service.wrapDataKey(service.generateDataKey(), "secret");
+
+        assertThatThrownBy(() -> service.unwrapDataKey("other", wrapped.salt(), wrapped.wrappedKey(), null))
+                .isInstanceOf(AEADBadTagException.class);
+    }
+
+    @Test
+    void rejectsWrongSecretCachedForSession() throws GeneralSecurityException {
+        FileEncryptionService.WrappedKey wrapped = service.wrapDataKey(service.generateDataKey(), "secret");
+        service.unwrapDataKey("secret", wrapped.salt(), wrapped.wrappedKey(), "session");
+        service.evictCachedKeys("session");
+
+        assertThatThrownBy(() -> service.unwrapDataKey("other", wrapped.salt(), wrapped.wrappedKey(), "session"))
+                .isInstanceOf(AEADBadTagException.class);
+    }
+
+    @Test
+    void readsEnvelopeFileWithDataKey() throws Exception {
+        SecretKey dataKey = service.generateDataKey();
+        byte[] content = content(3 * 1024 * 1024 + 17);
+        File file = directory.resolve("envelope").toFile();
+
+        try (OutputStream out = service.getEncryptedOutputStream(file, dataKey)) {
+            out.write(content);
+        }
+
+        try (InputStream in = service.getDecryptedInputStream(file, dataKey)) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+        assertThatThrownBy(() -> service.getDecryptedInputStream(file, "secret"))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void readsLegacySegmentedFileWithPassword() throws Exception {
+        byte[] content = content(2 * 1024 * 1024);
+        byte[] salt = new byte[16];
+        byte[] noncePrefix = new byte[SegmentedCipherOutputStream.NONCE_PREFIX_LENGTH];
+        new Random(1).nextBytes(salt);
+        File file = directory.resolve("segmented").toFile();
+
+        // The layout written before data keys: magic, salt, nonce prefix, segment size, segments
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try (DataOutputStream header = new DataOutputStream(new FileOutputStream(file))) {
+            header.write("QDSEGv1\0".getBytes(StandardCharsets.US_ASCII));
+            header.write(salt);
+            header.write(noncePrefix);
+            header.writeInt(1024 * 1024);
+            try (OutputStream out = new SegmentedCipherOutputStream(header, service.generateKeyFromPassword("secret", salt), noncePrefix, 1024 * 1024, pool)) {
+                out.write(content);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        try (InputStream in = service.getDecryptedInputStream(file, "secret")) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+        assertThatThrownBy(() -> {
+            try (InputStream in = service.getDecryptedInputStream(file, "other")) {
+                in.readAllBytes();
+            }
+        }).isInstanceOf(IOException.class);
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+}
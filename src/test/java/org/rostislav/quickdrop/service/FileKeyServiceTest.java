@@ -0,0 +1,112 @@
+package org.rostislav.quickdrop.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.entity.FileKeyEntity;
+import org.rostislav.quickdrop.entity.ShareTokenEntity;
+import org.rostislav.quickdrop.model.FileKeyType;
+import org.rostislav.quickdrop.repository.FileKeyRepository;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.time.LocalDate;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class FileKeyServiceTest {
+    private final FileKeyRepository fileKeyRepository = mock(FileKeyRepository.class);
+    private final FileEncryptionService fileEncryptionService = new FileEncryptionService();
+    private final FileKeyService fileKeyService = new FileKeyService(fileKeyRepository, fileEncryptionService);
+    private final FileEntity file = new FileEntity();
+    private SecretKey dataKey;
+
+    @BeforeEach
+    void setUp() throws GeneralSecurityException {
+        file.uuid = "00000000-0000-0000-0000-000000000001";
+        dataKey = fileEncryptionService.generateDataKey();
+    }
+
+    @AfterEach
+    void shutDown() {
+        fileEncryptionService.shutdown();
+    }
+
+    @Test
+    void unlocksWithStoredPassword() throws GeneralSecurityException {
+        FileKeyEntity key = storePasswordKey("secret");
+
+        assertThat(key.keyType).isEqualTo(FileKeyType.PASSWORD);
+        assertThat(fileKeyService.unlockWithPassword(file, "secret", null)).hasValueSatisfying(
+                unlocked -> assertThat(unlocked.getEncoded()).isEqualTo(dataKey.getEncoded()));
+        assertThatThrownBy(() -> fileKeyService.unlockWithPassword(file, "wrong", null))
+                .isInstanceOf(AEADBadTagException.class);
+    }
+
+    @Test
+    void returnsEmptyForFileWithoutDataKey() throws GeneralSecurityException {
+        when(fileKeyRepository.findFirstByFileAndKeyType(file, FileKeyType.PASSWORD)).thenReturn(Optional.empty());
+
+        assertThat(fileKeyService.unlockWithPassword(file, "secret", null)).isEmpty();
+        assertThat(fileKeyService.rewrapPasswordKey(file, "secret", "rotated", null)).isEmpty();
+    }
+
+    @Test
+    void rotatedPasswordReplacesOldOne() throws GeneralSecurityException {
+        storePasswordKey("secret");
+
+        Optional<FileEncryptionService.WrappedKey> wrapped = fileKeyService.rewrapPasswordKey(file, "secret", "rotated", null);
+        assertThat(wrapped).isPresent();
+        fileKeyService.replacePasswordKey(file, wrapped.get());
+
+        assertThat(fileKeyService.unlockWithPassword(file, "rotated", null)).hasValueSatisfying(
+                unlocked -> assertThat(unlocked.getEncoded()).isEqualTo(dataKey.getEncoded()));
+        assertThatThrownBy(() -> fileKeyService.unlockWithPassword(file, "secret", null))
+                .isInstanceOf(AEADBadTagException.class);
+    }
+
+    @Test
+    void rotationRequiresCurrentPassword() throws GeneralSecurityException {
+        FileKeyEntity key = storePasswordKey("secret");
+        String wrappedKey = key.wrappedKey;
+
+        assertThatThrownBy(() -> fileKeyService.rewrapPasswordKey(file, "wrong", "rotated", null))
+                .isInstanceOf(AEADBadTagException.class);
+
+        assertThat(key.wrappedKey).isEqualTo(wrappedKey);
+        verify(fileKeyRepository, times(1)).save(any());
+    }
+
+    @Test
+    void shareTokenUnlocksWithItsOwnSecret() throws GeneralSecurityException {
+        ShareTokenEntity shareToken = new ShareTokenEntity("share-token", file, LocalDate.now().plusDays(1), 1);
+        ArgumentCaptor<FileKeyEntity> saved = ArgumentCaptor.forClass(FileKeyEntity.class);
+
+        fileKeyService.grantShareToken(shareToken, dataKey);
+        verify(fileKeyRepository).save(saved.capture());
+        when(fileKeyRepository.findFirstByShareToken(shareToken)).thenReturn(Optional.of(saved.getValue()));
+
+        assertThat(saved.getValue().keyType).isEqualTo(FileKeyType.SHARE_TOKEN);
+        assertThat(fileKeyService.unlockWithShareToken(shareToken)).hasValueSatisfying(
+                unlocked -> assertThat(unlocked.getEncoded()).isEqualTo(dataKey.getEncoded()));
+
+        shareToken.shareToken = "other-token";
+        assertThatThrownBy(() -> fileKeyService.unlockWithShareToken(shareToken))
+                .isInstanceOf(AEADBadTagException.class);
+    }
+
+    private FileKeyEntity storePasswordKey(String password) throws GeneralSecurityException {
+        ArgumentCaptor<FileKeyEntity> saved = ArgumentCaptor.forClass(FileKeyEntity.class);
+        fileKeyService.storePasswordKey(file, fileKeyService.wrapPasswordKey(dataKey, password));
+        verify(fileKeyRepository).save(saved.capture());
+        when(fileKeyRepository.findFirstByFileAndKeyType(file, FileKeyType.PASSWORD)).thenReturn(Optional.of(saved.getValue()));
+        return saved.getValue();
+    }
+}
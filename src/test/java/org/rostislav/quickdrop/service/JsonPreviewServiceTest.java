@@ -0,0 +1,127 @@
+package org.rostislav.quickdrop.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.rostislav.quickdrop.entity.FileEntity;
+import org.rostislav.quickdrop.model.JsonPreviewChild;
+import org.rostislav.quickdrop.model.JsonPreviewNode;
+import org.rostislav.quickdrop.model.PreviewCategory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class JsonPreviewServiceTest {
+    private static final String UUID = "00000000-0000-0000-0000-000000000001";
+
+    @TempDir
+    Path directory;
+
+    private JsonPreviewService jsonPreviewService;
+
+    @BeforeEach
+    void setUp() {
+        ApplicationSettingsService applicationSettingsService = mock(ApplicationSettingsService.class);
+        when(applicationSettingsService.getFileStoragePath()).thenReturn(directory.toString());
+        when(applicationSettingsService.isPreviewEnabled()).thenReturn(true);
+        jsonPreviewService = new JsonPreviewService(applicationSettingsService, new TextPreviewService(applicationSettingsService));
+    }
+
+    @Test
+    void describesCompleteDocument() throws IOException {
+        FileEntity file = store("data.json", "{\"name\":\"quickdrop\",\"tags\":[1,2,3],\"nested\":{\"a/b\":true}}");
+
+        ResponseEntity<JsonPreviewNode> response = jsonPreviewService.nodeResponse(file, "/", 0, 10);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody().size()).isEqualTo(3);
+        assertThat(response.getBody().children()).extracting(JsonPreviewChild::path)
+                .containsExactly("/name", "/tags", "/nested");
+        assertThat(jsonPreviewService.nodeResponse(file, "/nested/a~1b", 0, 10).getBody().value()).isEqualTo("true");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"a\":1,\"b\":[1,2",
+            "{\"a\":1,\"b\":",
+            "{\"a\":1,\"b\":\"unterminated string",
+            "[1,2,{\"a\"",
+            "{\"a\":tru"
+    })
+    void rejectsTruncatedDocument(String content) throws IOException {
+        FileEntity file = store("data.json", content);
+
+        assertThat(jsonPreviewService.nodeResponse(file, "/", 0, 10).getStatusCode()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+    }
+
+    @Test
+    void rejectsPathIntoTruncatedPart() throws IOException {
+        FileEntity file = store("data.json", "{\"a\":[1,2,3],\"b\":{\"c\":[1,");
+
+        assertThat(jsonPreviewService.nodeResponse(file, "/a", 0, 10).getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(jsonPreviewService.nodeResponse(file, "/b/c", 0, 10).getStatusCode()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+        assertThat(jsonPreviewService.nodeResponse(file, "/b/d", 0, 10).getStatusCode()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+    }
+
+    @Test
+    void windowBeforeTruncationIsServed() throws IOException {
+        FileEntity file = store("data.json", "[1,2,3,4,");
+
+        ResponseEntity<JsonPreviewNode> response = jsonPreviewService.nodeResponse(file, "/", 0, 2);
+
+        // Only the requested window is parsed, the missing end is found once the window reaches it
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody().hasMore()).isTrue();
+        assertThat(jsonPreviewService.nodeResponse(file, "/", 2, 10).getStatusCode()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+    }
+
+    @Test
+    void emptyDocumentIsNotFound() throws IOException {
+        FileEntity file = store("data.json", "");
+
+        assertThat(jsonPreviewService.nodeResponse(file, "/", 0, 10).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    void marksTruncatedJsonLinesRecordAsInvalid() throws IOException {
+        FileEntity file = store("data.jsonl", "{\"a\":{\"x\":1}}\n{\"a\":\n{\"b\":2}\n{\"c\":[1,2");
+
+        ResponseEntity<JsonPreviewNode> response = jsonPreviewService.nodeResponse(file, "/", 0, 10);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody().size()).isEqualTo(4);
+        assertThat(response.getBody().children()).extracting(JsonPreviewChild::type)
+                .containsExactly("object", "invalid", "object", "invalid");
+    }
+
+    @Test
+    void pathIntoTruncatedRecordDoesNotReadNextRecord() throws IOException {
+        FileEntity file = store("data.jsonl", "{\"a\":{\"x\":1}}\r\n{\"a\":\r\n{\"b\":2}\r\n");
+
+        assertThat(jsonPreviewService.nodeResponse(file, "/0/a", 0, 10).getBody().children())
+                .extracting(JsonPreviewChild::key).containsExactly("x");
+        assertThat(jsonPreviewService.nodeResponse(file, "/1/a", 0, 10).getStatusCode()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+        assertThat(jsonPreviewService.nodeResponse(file, "/2/b", 0, 10).getBody().value()).isEqualTo("2");
+        assertThat(jsonPreviewService.nodeResponse(file, "/3", 0, 10).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    private FileEntity store(String name, String content) throws IOException {
+        Files.writeString(directory.resolve(UUID), content, StandardCharsets.UTF_8);
+        FileEntity file = new FileEntity();
+        file.uuid = UUID;
+        file.name = name;
+        file.contentType = name.endsWith(".jsonl") ? "application/x-ndjson" : "application/json";
+        file.previewCategory = PreviewCategory.JSON;
+        return file;
+    }
+}
@@ -0,0 +1,40 @@
+package org.rostislav.quickdrop.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class SessionServiceTest {
+    private final FileEncryptionService fileEncryptionService = mock(FileEncryptionService.class);
+    private final SessionService sessionService = new SessionService(fileEncryptionService);
+
+    @Test
+    void passwordChangeKeepsOnlyTheChangingSession() {
+        String file = UUID.randomUUID().toString();
+        String otherFile = UUID.randomUUID().toString();
+        String changing = sessionService.addFileSessionToken(UUID.randomUUID().toString(), "new", file);
+        String stale = sessionService.addFileSessionToken(UUID.randomUUID().toString(), "old", file);
+        String unrelated = sessionService.addFileSessionToken(UUID.randomUUID().toString(), "other", otherFile);
+
+        sessionService.invalidateOtherFileSessions(file, changing);
+
+        assertThat(sessionService.validateFileSessionToken(changing, file)).isTrue();
+        assertThat(sessionService.validateFileSessionToken(stale, file)).isFalse();
+        assertThat(sessionService.getPasswordForFileSessionToken(stale)).isNull();
+        assertThat(sessionService.validateFileSessionToken(unrelated, otherFile)).isTrue();
+        verify(fileEncryptionService).evictCachedKeys(stale);
+        verify(fileEncryptionService, never()).evictCachedKeys(changing);
+        verify(fileEncryptionService, never()).evictCachedKeys(unrelated);
+    }
+
+    @Test
+    void invalidatingUnknownSessionDoesNothing() {
+        sessionService.invalidateFileSession(null);
+        sessionService.invalidateFileSession(UUID.randomUUID().toString());
+
+        verifyNoInteractions(fileEncryptionService);
+    }
+}
@@ -0,0 +1,51 @@
+package org.rostislav.quickdrop.util;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContentTypeDetectorTest {
+
+    @ParameterizedTest
+    @CsvSource({
+            "isom, video/mp4",
+            "iso5, video/mp4",
+            "mp42, video/mp4",
+            "avc1, video/mp4",
+            "'M4V ', video/mp4",
+            "dash, video/mp4",
+            "3gp5, video/mp4",
+            "'M4A ', audio/mp4",
+            "'M4B ', audio/mp4",
+            "heic, image/heic",
+            "heix, image/heic",
+            "mif1, image/heic",
+            "msf1, image/heic",
+            "avif, image/avif",
+            "avis, image/avif",
+            "'crx ', application/octet-stream",
+            "'qt  ', application/octet-stream",
+            "abcd, application/octet-stream"
+    })
+    void isoMediaFilesAreDetectedByTheirMajorBrand(String brand, String expected) {
+        assertThat(ContentTypeDetector.detect(ftyp(brand), "upload.bin")).isEqualTo(expected);
+    }
+
+    @ParameterizedTest
+    @CsvSource({"photo.heic", "photo.avif", "IMG_0001.CR3"})
+    void stillImagesInAnIsoContainerAreNotVideo(String fileName) {
+        assertThat(ContentTypeDetector.detect(ftyp("mif1"), fileName)).doesNotStartWith("video/");
+        assertThat(ContentTypeDetector.detect(ftyp("crx "), fileName)).doesNotStartWith("video/");
+    }
+
+    private static byte[] ftyp(String brand) {
+        byte[] head = new byte[32];
+        head[3] = 24;
+        System.arraycopy("ftyp".getBytes(StandardCharsets.US_ASCII), 0, head, 4, 4);
+        System.arraycopy(brand.getBytes(StandardCharsets.US_ASCII), 0, head, 8, 4);
+        return head;
+    }
+}
@@ -0,0 +1,159 @@
+package org.rostislav.quickdrop.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FullTextQueryTest {
+    private static final String UUID = "3f2b8c1e-9d4a-4e7b-a1c2-5f6e7d8c9b0a";
+
+    private Connection connection;
+
+    /**
+     * The same tables as the V20 migration, so the expressions are checked by the FTS5 parser itself.
+     */
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE VIRTUAL TABLE file_search USING fts5(name, description, "
+                    + "tokenize = 'unicode61 remove_diacritics 2', prefix = '2 3')");
+            statement.execute("CREATE VIRTUAL TABLE file_uuid_search USING fts5(uuid, tokenize = 'trigram')");
+        }
+        insert(1, "Quarterly report.pdf", "Numbers for \"Q3\" NEAR the end of the year", UUID);
+        insert(2, "near-final draft.docx", "AND OR NOT * - ^ :", "00000000-0000-0000-0000-000000000002");
+        insert(3, "Café menu.txt", "résumé", "00000000-0000-0000-0000-000000000003");
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    void quotesEveryTermAsPrefix() {
+        assertThat(FullTextQuery.terms("  quarterly   report ")).isEqualTo("\"quarterly\"* \"report\"*");
+        assertThat(FullTextQuery.terms("report.pdf")).isEqualTo("\"report\"* \"pdf\"*");
+    }
+
+    @Test
+    void dropsQuerySyntaxCharacters() {
+        assertThat(FullTextQuery.terms("\"Q3\"")).isEqualTo("\"Q3\"*");
+        assertThat(FullTextQuery.terms("rep* -draft +x ^y col:z (a OR b)"))
+                .isEqualTo("\"rep\"* \"draft\"* \"x\"* \"y\"* \"col\"* \"z\"* \"a\"* \"OR\"* \"b\"*");
+        assertThat(FullTextQuery.terms("NEAR(a b, 2)")).isEqualTo("\"NEAR\"* \"a\"* \"b\"* \"2\"*");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "   ", "\"", "\"\"", "*", "-", "- * \" ^ :", "()"})
+    void matchesNothingWithoutWords(String query) throws SQLException {
+        assertThat(FullTextQuery.terms(query)).isEqualTo(FullTextQuery.MATCH_NOTHING);
+        assertThat(search(FullTextQuery.terms(query))).isEmpty();
+        assertThat(FullTextQuery.terms(null)).isEqualTo(FullTextQuery.MATCH_NOTHING);
+    }
+
+    @Test
+    void limitsNumberOfTerms() {
+        String terms = FullTextQuery.terms("a ".repeat(100));
+
+        assertThat(terms.split(" ")).hasSize(16);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "\"unbalanced", "a\"b\"c", "\"\"\"", "report*", "*report", "-report", "report -", "--", "NEAR",
+            "NEAR(report numbers)", "report NEAR numbers", "AND", "OR", "NOT", "report AND", "NOT report",
+            "name:report", "{name}:report", "^report", "+report", "(report", "report)", "a'b", "\\", "%_",
+            "\u0000report"
+    })
+    void generatesValidExpressionsForAnyInput(String query) throws SQLException {
+        // Throws if the FTS5 query parser rejects the expression
+        search(FullTextQuery.terms(query));
+        searchUuid(FullTextQuery.uuidFragment(query));
+    }
+
+    @Test
+    void operatorWordsAreMatchedAsWords() throws SQLException {
+        assertThat(search(FullTextQuery.terms("NEAR"))).containsExactly(1L, 2L);
+        assertThat(search(FullTextQuery.terms("and"))).containsExactly(2L);
+        assertThat(search(FullTextQuery.terms("not"))).containsExactly(2L);
+        assertThat(search(FullTextQuery.terms("\"q3\" near"))).containsExactly(1L);
+    }
+
+    @Test
+    void matchesWordPrefixes() throws SQLException {
+        assertThat(search(FullTextQuery.terms("quar rep"))).containsExactly(1L);
+        assertThat(search(FullTextQuery.terms("-draft*"))).containsExactly(2L);
+        assertThat(search(FullTextQuery.terms("uarterly"))).isEmpty();
+    }
+
+    @Test
+    void matchesWithoutDiacritics() throws SQLException {
+        assertThat(search(FullTextQuery.terms("cafe"))).containsExactly(3L);
+        assertThat(search(FullTextQuery.terms("CAFÉ"))).containsExactly(3L);
+        assertThat(search(FullTextQuery.terms("resume"))).containsExactly(3L);
+        // Decomposed input, as some systems send it: combining marks are part of the word
+        assertThat(search(FullTextQuery.terms("re\u0301sume\u0301"))).containsExactly(3L);
+    }
+
+    @Test
+    void matchesUuidSubstrings() throws SQLException {
+        assertThat(FullTextQuery.uuidFragment(" 9D4A-4E7B ")).isEqualTo("\"9d4a-4e7b\"");
+        assertThat(searchUuid(FullTextQuery.uuidFragment("9d4a-4e7b"))).containsExactly(1L);
+        assertThat(searchUuid(FullTextQuery.uuidFragment(UUID))).containsExactly(1L);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"9d", "report", "9d4a\"", "9d4a*", "9d4a 4e7b", "-\"-"})
+    void rejectsQueriesThatAreNotUuidFragments(String query) throws SQLException {
+        assertThat(FullTextQuery.uuidFragment(query)).isEqualTo(FullTextQuery.MATCH_NOTHING);
+        assertThat(searchUuid(FullTextQuery.uuidFragment(query))).isEmpty();
+    }
+
+    private void insert(long id, String name, String description, String uuid) throws SQLException {
+        try (PreparedStatement search = connection.prepareStatement("INSERT INTO file_search (rowid, name, description) VALUES (?, ?, ?)");
+             PreparedStatement uuidSearch = connection.prepareStatement("INSERT INTO file_uuid_search (rowid, uuid) VALUES (?, ?)")) {
+            search.setLong(1, id);
+            search.setString(2, name);
+            search.setString(3, description);
+            search.executeUpdate();
+            uuidSearch.setLong(1, id);
+            uuidSearch.setString(2, uuid);
+            uuidSearch.executeUpdate();
+        }
+    }
+
+    private List<Long> search(String expression) throws SQLException {
+        return match("SELECT rowid FROM file_search WHERE file_search MATCH ? ORDER BY rowid", expression);
+    }
+
+    private List<Long> searchUuid(String expression) throws SQLException {
+        return match("SELECT rowid FROM file_uuid_search WHERE file_uuid_search MATCH ? ORDER BY rowid", expression);
+    }
+
+    private List<Long> match(String sql, String expression) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, expression);
+            List<Long> ids = new ArrayList<>();
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    ids.add(rows.getLong(1));
+                }
+            }
+            return ids;
+        }
+    }
+}
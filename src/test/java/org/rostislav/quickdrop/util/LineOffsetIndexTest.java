@@ -0,0 +1,148 @@
+package org.rostislav.quickdrop.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LineOffsetIndexTest {
+    private static final int STRIDE = 4;
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"\n", "\r\n"})
+    void readsSameLinesForEitherLineBreak(String lineBreak) throws IOException {
+        Path source = write(numbered(10, lineBreak));
+
+        LineOffsetIndex index = LineOffsetIndex.build(source, STRIDE);
+
+        assertThat(index.getTotalLines()).isEqualTo(10);
+        assertThat(texts(index.readLines(source, 0, 100, 100))).isEqualTo(numberedLines(0, 10));
+        assertThat(texts(index.readLines(source, 5, 3, 100))).isEqualTo(numberedLines(5, 3));
+        assertThat(texts(index.readLines(source, 8, 5, 100))).isEqualTo(numberedLines(8, 2));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"\n", "\r\n"})
+    void offsetsPointAtLineStarts(String lineBreak) throws IOException {
+        String content = numbered(10, lineBreak);
+        Path source = write(content);
+
+        LineOffsetIndex index = LineOffsetIndex.build(source, STRIDE);
+
+        for (int line = 0; line < 10; line++) {
+            assertThat(index.offsetOf(source, line)).isEqualTo(content.indexOf("line " + line + lineBreak));
+        }
+        assertThat(index.offsetOf(source, 10)).isEqualTo(-1);
+    }
+
+    @Test
+    void readsMixedLineBreaks() throws IOException {
+        Path source = write("a\r\nb\nc\r\n\r\nd");
+
+        LineOffsetIndex index = LineOffsetIndex.build(source, STRIDE);
+
+        assertThat(index.getTotalLines()).isEqualTo(5);
+        assertThat(texts(index.readLines(source, 0, 10, 100))).containsExactly("a", "b", "c", "", "d");
+    }
+
+    @Test
+    void keepsCarriageReturnsInsideLine() throws IOException {
+        Path source = write("a\rb\r\nc\r");
+
+        LineOffsetIndex index = LineOffsetIndex.build(source, STRIDE);
+
+        assertThat(index.getTotalLines()).isEqualTo(2);
+        assertThat(texts(index.readLines(source, 0, 10, 100))).containsExactly("a\rb", "c");
+    }
+
+    @Test
+    void countsTrailingLineWithoutLineBreak() throws IOException {
+        Path withBreak = write(numbered(8, "\r\n"));
+        Path withoutBreak = directory.resolve("without-break.txt");
+        Files.writeString(withoutBreak, numbered(8, "\r\n").stripTrailing());
+
+        assertThat(LineOffsetIndex.build(withBreak, STRIDE).getTotalLines()).isEqualTo(8);
+        LineOffsetIndex index = LineOffsetIndex.build(withoutBreak, STRIDE);
+        assertThat(index.getTotalLines()).isEqualTo(8);
+        assertThat(texts(index.readLines(withoutBreak, 7, 1, 100))).containsExactly("line 7");
+    }
+
+    @Test
+    void lineBreakAtLimitIsNotTruncation() throws IOException {
+        Path source = write("abc\r\nabcd\r\n");
+
+        List<LineOffsetIndex.Line> lines = LineOffsetIndex.build(source, STRIDE).readLines(source, 0, 10, 3);
+
+        assertThat(lines).containsExactly(new LineOffsetIndex.Line("abc", false), new LineOffsetIndex.Line("abc", true));
+    }
+
+    @Test
+    void quotedIndexKeepsLineBreaksInsideQuotes() throws IOException {
+        Path source = write("id,note\r\n1,\"two\r\nlines\"\r\n2,\"say \"\"hi\"\"\"\r\n");
+
+        LineOffsetIndex index = LineOffsetIndex.build(source, STRIDE, true);
+
+        assertThat(index.getTotalLines()).isEqualTo(3);
+        assertThat(texts(index.readLines(source, 0, 10, 100)))
+                .containsExactly("id,note", "1,\"two\r\nlines\"", "2,\"say \"\"hi\"\"\"");
+        assertThat(index.offsetOf(source, 2)).isEqualTo(Files.readString(source).indexOf("2,"));
+    }
+
+    @Test
+    void quoteInsideUnquotedFieldDoesNotOpenQuotes() throws IOException {
+        String content = "id,item,qty\r\n1,12\" pipe,5\r\n2,O\"Brien,3\r\n3,\"a\"\"b\" c,4\r\n4,\"x\ny\",6\r\n5,last,7\r\n";
+        Path source = write(content);
+
+        LineOffsetIndex index = LineOffsetIndex.build(source, 2, true);
+
+        assertThat(index.getTotalLines()).isEqualTo(6);
+        assertThat(texts(index.readLines(source, 0, 10, 100))).containsExactly(
+                "id,item,qty", "1,12\" pipe,5", "2,O\"Brien,3", "3,\"a\"\"b\" c,4", "4,\"x\ny\",6", "5,last,7");
+        assertThat(texts(index.readLines(source, 5, 1, 100))).containsExactly("5,last,7");
+        assertThat(index.offsetOf(source, 5)).isEqualTo(content.indexOf("5,last"));
+    }
+
+    @Test
+    void writtenIndexReadsBack() throws IOException {
+        Path source = write(numbered(10, "\r\n"));
+        Path indexFile = directory.resolve("source.idx");
+        LineOffsetIndex.build(source, STRIDE, true).write(indexFile);
+
+        LineOffsetIndex index = LineOffsetIndex.read(indexFile);
+
+        assertThat(index.isQuoted()).isTrue();
+        assertThat(index.matches(source)).isTrue();
+        assertThat(texts(index.readLines(source, 9, 1, 100))).containsExactly("line 9");
+    }
+
+    private Path write(String content) throws IOException {
+        Path source = directory.resolve("source.txt");
+        Files.writeString(source, content, StandardCharsets.UTF_8);
+        return source;
+    }
+
+    private static String numbered(int count, String lineBreak) {
+        return IntStream.range(0, count).mapToObj(i -> "line " + i + lineBreak).collect(Collectors.joining());
+    }
+
+    private static List<String> numberedLines(int from, int count) {
+        return IntStream.range(from, from + count).mapToObj(i -> "line " + i).toList();
+    }
+
+    private static List<String> texts(List<LineOffsetIndex.Line> lines) {
+        return lines.stream().map(LineOffsetIndex.Line::text).toList();
+    }
+}
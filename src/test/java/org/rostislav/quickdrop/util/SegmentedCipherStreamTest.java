@@ -0,0 +1,131 @@
+package org.rostislav.quickdrop.util;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.rostislav.quickdrop.util.SegmentedCipherOutputStream.TAG_LENGTH_BYTES;
+
+class SegmentedCipherStreamTest {
+    private static final int SEGMENT_SIZE = 64;
+    private static final int RECORD_SIZE = SEGMENT_SIZE + TAG_LENGTH_BYTES;
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+    private static final SecretKey KEY = new SecretKeySpec(new byte[32], "AES");
+    private static final byte[] NONCE_PREFIX = {1, 2, 3, 4, 5, 6, 7, 8};
+
+    @AfterAll
+    static void shutDownPool() {
+        POOL.shutdown();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, SEGMENT_SIZE * 20, SEGMENT_SIZE * 20 + 7})
+    void roundTrip(int length) throws IOException {
+        byte[] plaintext = plaintext(length);
+
+        byte[] ciphertext = encrypt(plaintext);
+
+        assertThat(decrypt(ciphertext)).isEqualTo(plaintext);
+    }
+
+    @Test
+    void rejectsStreamTruncatedAtSegmentBoundary() throws IOException {
+        byte[] ciphertext = encrypt(plaintext(SEGMENT_SIZE * 3 + 10));
+
+        byte[] truncated = Arrays.copyOf(ciphertext, RECORD_SIZE * 2);
+
+        assertThatThrownBy(() -> decrypt(truncated)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void rejectsStreamWithoutFinalEmptySegment() throws IOException {
+        // A multiple of the segment size ends in a segment holding only the tag
+        byte[] ciphertext = encrypt(plaintext(SEGMENT_SIZE * 2));
+        assertThat(ciphertext).hasSize(RECORD_SIZE * 2 + TAG_LENGTH_BYTES);
+
+        byte[] truncated = Arrays.copyOf(ciphertext, RECORD_SIZE * 2);
+
+        assertThatThrownBy(() -> decrypt(truncated)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void rejectsStreamTruncatedInsideSegment() throws IOException {
+        byte[] ciphertext = encrypt(plaintext(SEGMENT_SIZE * 3 + 10));
+
+        byte[] truncated = Arrays.copyOf(ciphertext, RECORD_SIZE + 5);
+
+        assertThatThrownBy(() -> decrypt(truncated)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void rejectsReorderedSegments() throws IOException {
+        byte[] ciphertext = encrypt(plaintext(SEGMENT_SIZE * 3 + 10));
+
+        byte[] reordered = ciphertext.clone();
+        System.arraycopy(ciphertext, RECORD_SIZE, reordered, 0, RECORD_SIZE);
+        System.arraycopy(ciphertext, 0, reordered, RECORD_SIZE, RECORD_SIZE);
+
+        assertThatThrownBy(() -> decrypt(reordered)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void rejectsFlippedTagByte() throws IOException {
+        byte[] ciphertext = encrypt(plaintext(SEGMENT_SIZE * 3 + 10));
+
+        byte[] tampered = ciphertext.clone();
+        tampered[RECORD_SIZE * 2 - 1] ^= 1;
+
+        assertThatThrownBy(() -> decrypt(tampered))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("authentication");
+    }
+
+    @Test
+    void returnsNoPlaintextOfFailedSegment() throws IOException {
+        byte[] plaintext = plaintext(SEGMENT_SIZE * 3);
+        byte[] tampered = encrypt(plaintext);
+        tampered[RECORD_SIZE + 3] ^= 1;
+
+        try (InputStream in = new SegmentedCipherInputStream(new ByteArrayInputStream(tampered), KEY, NONCE_PREFIX, SEGMENT_SIZE)) {
+            assertThat(in.readNBytes(SEGMENT_SIZE)).isEqualTo(Arrays.copyOf(plaintext, SEGMENT_SIZE));
+            assertThatThrownBy(() -> in.read()).isInstanceOf(IOException.class);
+        }
+    }
+
+    private static byte[] plaintext(int length) {
+        byte[] plaintext = new byte[length];
+        new Random(length).nextBytes(plaintext);
+        return plaintext;
+    }
+
+    private static byte[] encrypt(byte[] plaintext) throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (OutputStream out = new SegmentedCipherOutputStream(sink, KEY, NONCE_PREFIX, SEGMENT_SIZE, POOL)) {
+            // Uneven writes so segments are filled across several calls
+            for (int offset = 0; offset < plaintext.length; offset += 13) {
+                out.write(plaintext, offset, Math.min(13, plaintext.length - offset));
+            }
+        }
+        return sink.toByteArray();
+    }
+
+    private static byte[] decrypt(byte[] ciphertext) throws IOException {
+        try (InputStream in = new SegmentedCipherInputStream(new ByteArrayInputStream(ciphertext), KEY, NONCE_PREFIX, SEGMENT_SIZE)) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package org.rostislav.quickdrop.util;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ZipEntryIndexTest {
+    private static final int EOCD_LENGTH = 22;
+    private static final byte[] NOTES = "notes\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DATA = {1, 2, 3, 4, 5, 6, 7, 8};
+
+    @TempDir
+    Path directory;
+
+    private byte[] archive;
+    private int eocd;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("folder/"));
+            zip.putNextEntry(new ZipEntry("folder/notes.txt"));
+            zip.write(NOTES);
+            ZipEntry stored = new ZipEntry("folder/data.bin");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(DATA.length);
+            CRC32 crc = new CRC32();
+            crc.update(DATA);
+            stored.setCrc(crc.getValue());
+            zip.putNextEntry(stored);
+            zip.write(DATA);
+        }
+        archive = bytes.toByteArray();
+        eocd = archive.length - EOCD_LENGTH;
+    }
+
+    @Test
+    void readsEntriesFromCentralDirectory() throws IOException {
+        Path path = write(archive);
+
+        ZipEntryIndex index = ZipEntryIndex.read(path, 10);
+
+        assertThat(index.getEntries()).extracting(ZipEntryIndex.Entry::name)
+                .containsExactly("folder/", "folder/notes.txt", "folder/data.bin");
+        assertThat(read(index, path, "folder/notes.txt")).isEqualTo(NOTES);
+        assertThat(read(index, path, "folder/data.bin")).isEqualTo(DATA);
+    }
+
+    @Test
+    void rejectsFilesWithoutEndRecord() throws IOException {
+        assertReadFails(new byte[10]);
+        assertReadFails(new byte[100]);
+        assertReadFails(Arrays.copyOf(archive, eocd + 10));
+    }
+
+    @Test
+    void rejectsEndRecordWithWrongCommentLength() throws IOException {
+        byte[] corrupt = archive.clone();
+        le(corrupt).putShort(eocd + 20, (short) 5);
+
+        assertReadFails(corrupt);
+    }
+
+    @Test
+    void rejectsMoreEntriesThanTheDirectoryHolds() throws IOException {
+        byte[] corrupt = archive.clone();
+        le(corrupt).putShort(eocd + 8, (short) 4).putShort(eocd + 10, (short) 4);
+
+        assertReadFails(corrupt);
+    }
+
+    @Test
+    void rejectsTooManyEntries() throws IOException {
+        assertThatThrownBy(() -> ZipEntryIndex.read(write(archive), 2)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void rejectsDirectoryOutsideArchive() throws IOException {
+        byte[] pastEnd = archive.clone();
+        le(pastEnd).putInt(eocd + 16, eocd + 1);
+        byte[] tooLong = archive.clone();
+        le(tooLong).putInt(eocd + 12, eocd);
+
+        assertReadFails(pastEnd);
+        assertReadFails(tooLong);
+    }
+
+    @Test
+    void rejectsCorruptCentralHeader() throws IOException {
+        byte[] corrupt = archive.clone();
+        int directoryOffset = le(archive).getInt(eocd + 16);
+        corrupt[directoryOffset] = 0;
+
+        assertReadFails(corrupt);
+    }
+
+    @Test
+    void rejectsNameRunningPastDirectory() throws IOException {
+        byte[] corrupt = archive.clone();
+        int directoryOffset = le(archive).getInt(eocd + 16);
+        le(corrupt).putShort(directoryOffset + 28, (short) 0xFFFF);
+
+        assertReadFails(corrupt);
+    }
+
+    @Test
+    void rejectsMissingZip64Records() throws IOException {
+        byte[] corrupt = archive.clone();
+        le(corrupt).putInt(eocd + 16, 0xFFFFFFFF);
+
+        assertReadFails(corrupt);
+    }
+
+    @Test
+    void rejectsZip64LocatorOutsideArchive() throws IOException {
+        assertReadFails(withZip64(-1, 3, 0, 0));
+        assertReadFails(withZip64(Long.MAX_VALUE, 3, 0, 0));
+    }
+
+    @Test
+    void rejectsOverflowingZip64Directory() throws IOException {
+        int directoryOffset = le(archive).getInt(eocd + 16);
+        int directorySize = le(archive).getInt(eocd + 12);
+
+        assertReadFails(withZip64(eocd, 3, Long.MAX_VALUE - 10, directoryOffset));
+        assertReadFails(withZip64(eocd, 3, directorySize, Long.MAX_VALUE - 10));
+        assertReadFails(withZip64(eocd, -1, directorySize, directoryOffset));
+        // The same records with sane values read fine
+        assertThat(ZipEntryIndex.read(write(withZip64(eocd, 3, directorySize, directoryOffset)), 10).getEntries()).hasSize(3);
+    }
+
+    @Test
+    void rejectsLocalHeaderOffsetOutsideArchive() throws IOException {
+        byte[] corrupt = archive.clone();
+        int directoryOffset = le(archive).getInt(eocd + 16);
+        le(corrupt).putInt(directoryOffset + 42, eocd);
+        Path path = write(corrupt);
+
+        ZipEntryIndex index = ZipEntryIndex.read(path, 10);
+
+        assertThatThrownBy(() -> read(index, path, "folder/")).isInstanceOf(IOException.class);
+        ZipEntryIndex.Entry entry = index.find("folder/").orElseThrow();
+        ZipEntryIndex.Entry moved = new ZipEntryIndex.Entry("moved.txt", 1, 1, 0, 0, 0, entry.localHeaderOffset(), false);
+        assertThatThrownBy(() -> index.open(path, moved)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void rejectsEntryDataThatDoesNotMatchChecksum() throws IOException {
+        byte[] corrupt = archive.clone();
+        int data = indexOf(corrupt, DATA);
+        corrupt[data] ^= 1;
+        Path path = write(corrupt);
+
+        ZipEntryIndex index = ZipEntryIndex.read(path, 10);
+
+        assertThatThrownBy(() -> read(index, path, "folder/data.bin")).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void rejectsEntryLargerThanDeclared() throws IOException {
+        byte[] corrupt = archive.clone();
+        int directoryOffset = le(archive).getInt(eocd + 16);
+        int notesHeader = indexOf(corrupt, "folder/notes.txt".getBytes(StandardCharsets.UTF_8), directoryOffset) - 46;
+        le(corrupt).putInt(notesHeader + 24, 10);
+        Path path = write(corrupt);
+
+        ZipEntryIndex index = ZipEntryIndex.read(path, 10);
+
+        assertThatThrownBy(() -> read(index, path, "folder/notes.txt")).isInstanceOf(IOException.class);
+    }
+
+    /**
+     * Inserts a ZIP64 end record and locator before the end record, which then defers to them.
+     */
+    private byte[] withZip64(long zip64Offset, long entryCount, long directorySize, long directoryOffset) {
+        ByteBuffer result = le(new byte[archive.length + 56 + 20]);
+        result.put(archive, 0, eocd);
+        result.putInt(0x06064b50).putLong(44).putShort((short) 45).putShort((short) 45).putInt(0).putInt(0)
+                .putLong(entryCount).putLong(entryCount).putLong(directorySize).putLong(directoryOffset);
+        result.putInt(0x07064b50).putInt(0).putLong(zip64Offset).putInt(1);
+        int end = result.position();
+        result.put(archive, eocd, EOCD_LENGTH);
+        result.putShort(end + 8, (short) 0xFFFF).putShort(end + 10, (short) 0xFFFF)
+                .putInt(end + 12, 0xFFFFFFFF).putInt(end + 16, 0xFFFFFFFF);
+        return result.array();
+    }
+
+    private void assertReadFails(byte[] content) throws IOException {
+        Path path = write(content);
+        assertThatThrownBy(() -> ZipEntryIndex.read(path, 10)).isInstanceOf(IOException.class);
+    }
+
+    private Path write(byte[] content) throws IOException {
+        Path path = directory.resolve("archive.zip");
+        Files.write(path, content);
+        return path;
+    }
+
+    private static byte[] read(ZipEntryIndex index, Path path, String name) throws IOException {
+        try (InputStream in = index.open(path, index.find(name).orElseThrow())) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static ByteBuffer le(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        return indexOf(haystack, needle, 0);
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle, int from) {
+        for (int i = from; i <= haystack.length - needle.length; i++) {
+            if (Arrays.equals(haystack, i, i + needle.length, needle, 0, needle.length)) {
+                return i;
+            }
+        }
+        throw new AssertionError("Not found");
+    }
+}
@@ -0,0 +1,185 @@
+package org.rostislav.quickdrop.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ZipStreamWriterTest {
+    private static final long FOUR_GIB = 4L * 1024 * 1024 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writesArchiveReadableByZipFile() throws IOException {
+        Path archive = directory.resolve("small.zip");
+        byte[] text = "hello\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+        try (OutputStream out = Files.newOutputStream(archive)) {
+            ZipStreamWriter writer = new ZipStreamWriter(out);
+            putEntry(writer, "folder/notes.txt", text);
+            putEntry(writer, "folder/photo.jpg", new byte[]{1, 2, 3});
+            putEntry(writer, "folder/empty.txt", new byte[0]);
+            writer.finish();
+        }
+
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertThat(names(zip)).containsExactly("folder/", "folder/notes.txt", "folder/photo.jpg", "folder/empty.txt");
+            assertThat(zip.getEntry("folder/notes.txt").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+            assertThat(zip.getEntry("folder/photo.jpg").getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(read(zip, "folder/notes.txt")).isEqualTo(text);
+            assertThat(read(zip, "folder/empty.txt")).isEmpty();
+        }
+    }
+
+    @Test
+    void keepsEmptyDirectories() throws IOException {
+        Path archive = directory.resolve("directories.zip");
+
+        try (OutputStream out = Files.newOutputStream(archive)) {
+            ZipStreamWriter writer = new ZipStreamWriter(out);
+            putEntry(writer, "folder/a.txt", new byte[]{'a'});
+            writer.putDirectory("folder/");
+            writer.putDirectory("folder/empty/nested/");
+            writer.finish();
+
+            assertThat(writer.getEntries()).extracting(ZipStreamWriter.WrittenEntry::name)
+                    .containsExactly("folder/", "folder/a.txt", "folder/empty/", "folder/empty/nested/");
+        }
+
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertThat(zip.getEntry("folder/empty/nested/").isDirectory()).isTrue();
+        }
+    }
+
+    @Test
+    void writesZip64OffsetsPastFourGibibytes() throws IOException {
+        Path archive = directory.resolve("large.zip");
+        long largeSize = FOUR_GIB + 1024 * 1024;
+        byte[] tail = "written after 4 GiB".getBytes(StandardCharsets.UTF_8);
+
+        // The large entry is all zeros and lands in a sparse file, so the test needs little disk space
+        try (SparseOutputStream out = new SparseOutputStream(archive)) {
+            ZipStreamWriter writer = new ZipStreamWriter(out);
+            writer.putEntry("folder/large.zip", largeSize);
+            byte[] zeros = new byte[8 * 1024 * 1024];
+            for (long remaining = largeSize; remaining > 0; remaining -= zeros.length) {
+                writer.write(zeros, 0, (int) Math.min(zeros.length, remaining));
+            }
+            putEntry(writer, "folder/tail.txt", tail);
+            writer.putDirectory("folder/empty/");
+            writer.finish();
+            assertThat(writer.getBytesWritten()).isGreaterThan(FOUR_GIB);
+        }
+
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertThat(names(zip)).containsExactly("folder/", "folder/large.zip", "folder/tail.txt", "folder/empty/");
+            assertThat(zip.getEntry("folder/large.zip").getSize()).isEqualTo(largeSize);
+            assertThat(zip.getEntry("folder/large.zip").getCompressedSize()).isEqualTo(largeSize);
+            assertThat(read(zip, "folder/tail.txt")).isEqualTo(tail);
+            assertThat(zip.getEntry("folder/empty/").isDirectory()).isTrue();
+        }
+    }
+
+    @Test
+    void rejectsEntriesThatDoNotMatchTheirDeclaredSize() throws IOException {
+        ZipStreamWriter writer = new ZipStreamWriter(new ByteArrayOutputStream());
+
+        writer.putEntry("short.txt", 4);
+        writer.write(new byte[2], 0, 2);
+        assertThatThrownBy(writer::closeEntry).isInstanceOf(IOException.class);
+
+        writer.putEntry("long.txt", 1);
+        assertThatThrownBy(() -> writer.write(new byte[2], 0, 2)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void rejectsDuplicateAndInvalidNames() throws IOException {
+        ZipStreamWriter writer = new ZipStreamWriter(new ByteArrayOutputStream());
+        writer.putEntry("a.txt", 0);
+
+        assertThatThrownBy(() -> writer.putEntry("a.txt", 0)).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> writer.putEntry("../a.txt", 0)).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> writer.putEntry("folder/", 0)).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> writer.putDirectory("folder")).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void normalizesEntryNames() {
+        assertThat(ZipStreamWriter.normalizeEntryName("/folder\\a.txt")).isEqualTo("folder/a.txt");
+        assertThat(ZipStreamWriter.normalizeEntryName("folder/empty/")).isEqualTo("folder/empty/");
+        assertThat(ZipStreamWriter.normalizeEntryName("folder/../a.txt")).isNull();
+        assertThat(ZipStreamWriter.normalizeEntryName("folder//a.txt")).isNull();
+        assertThat(ZipStreamWriter.normalizeEntryName("folder//")).isNull();
+        assertThat(ZipStreamWriter.normalizeEntryName("/")).isNull();
+    }
+
+    private static void putEntry(ZipStreamWriter writer, String name, byte[] content) throws IOException {
+        writer.putEntry(name, content.length);
+        writer.write(content, 0, content.length);
+    }
+
+    private static List<String> names(ZipFile zip) {
+        return Collections.list(zip.entries()).stream().map(ZipEntry::getName).toList();
+    }
+
+    private static byte[] read(ZipFile zip, String name) throws IOException {
+        try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Skips over blocks of zeros instead of writing them, leaving holes in the file.
+     */
+    private static final class SparseOutputStream extends OutputStream {
+        private final FileChannel channel;
+
+        private SparseOutputStream(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.SPARSE);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            boolean zeros = true;
+            for (int i = off; i < off + len && zeros; i++) {
+                zeros = b[i] == 0;
+            }
+            if (zeros && len >= 4096) {
+                channel.position(channel.position() + len);
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}